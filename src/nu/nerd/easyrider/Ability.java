@@ -457,12 +457,27 @@ public abstract class Ability {
     /**
      * Set the stored training effort in this ability.
      *
-     * The level and corresponding horse attribute are not affected.
+     * The level and corresponding horse attribute are not affected. The
+     * horse's position in the /horse-top ranking of this ability is updated.
      *
      * @param savedHorse the database state of the horse.
-     * @param level the level.
+     * @param effort the effort.
+     */
+    public void setEffort(SavedHorse savedHorse, double effort) {
+        storeEffort(savedHorse, effort);
+        if (EasyRider.DB != null) {
+            EasyRider.DB.updateRanking(this, savedHorse);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store the training effort in this ability in the SavedHorse.
+     *
+     * @param savedHorse the database state of the horse.
+     * @param effort the effort.
      */
-    public abstract void setEffort(SavedHorse savedHorse, double effort);
+    protected abstract void storeEffort(SavedHorse savedHorse, double effort);
 
     // ------------------------------------------------------------------------
     /**
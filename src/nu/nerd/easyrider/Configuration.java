@@ -49,6 +49,69 @@ public class Configuration {
      */
     public String DATABASE_IMPLEMENTATION;
 
+    /**
+     * Period in seconds between saves of changed horses to the database, or 0
+     * to only save when the plugin is disabled.
+     */
+    public int SAVE_PERIOD_SECONDS;
+
+    /**
+     * Period in ticks between writes of changed horses to the journal, or 0 to
+     * disable the journal.
+     */
+    public int JOURNAL_PERIOD_TICKS;
+
+    /**
+     * Size of the journal in bytes above which the database is saved early, so
+     * that the journal can be truncated.
+     */
+    public long JOURNAL_COMPACT_BYTES;
+
+    /**
+     * Period in minutes between backups of the database, or 0 to only back up
+     * the database when the plugin is enabled.
+     */
+    public int BACKUP_PERIOD_MINUTES;
+
+    /**
+     * Period in seconds between deletions of removed horses from the database,
+     * or 0 to only delete them when the database is saved.
+     */
+    public int PURGE_PERIOD_SECONDS;
+
+    /**
+     * Maximum number of removed horses deleted from the database in one batch,
+     * for databases that delete incrementally. Deletion is triggered early
+     * when this many removed horses are pending.
+     */
+    public int PURGE_BATCH_SIZE;
+
+    /**
+     * Number of horses written to the new database implementation in each
+     * batch when migrating.
+     */
+    public int MIGRATE_BATCH_SIZE;
+
+    /**
+     * Number of threads used to decode horses when loading the database; 0
+     * means the number of available processors, and 1 loads sequentially.
+     */
+    public int LOAD_THREADS;
+
+    /**
+     * Hours since a horse was last observed or accessed after which it is
+     * evicted from the database cache, or 0 to evict only to enforce
+     * CACHE_MAX_HORSES. Only supported by the "sqlite" implementation.
+     */
+    public int CACHE_IDLE_HOURS;
+
+    /**
+     * Maximum number of horses kept in the database cache, or 0 for no limit.
+     * Horses whose entity is loaded or whose owner is online are kept
+     * regardless. Only supported by the "sqlite" implementation.
+     */
+    public int CACHE_MAX_HORSES;
+
     /**
      * If true, eject the rider from the horse when he logs off.
      */
@@ -152,7 +215,7 @@ public class Configuration {
         }
 
         @Override
-        public void setEffort(SavedHorse savedHorse, double effort) {
+        protected void storeEffort(SavedHorse savedHorse, double effort) {
             savedHorse.setDistanceTravelled(effort);
         }
 
@@ -219,7 +282,7 @@ public class Configuration {
         }
 
         @Override
-        public void setEffort(SavedHorse savedHorse, double effort) {
+        protected void storeEffort(SavedHorse savedHorse, double effort) {
             savedHorse.setDistanceJumped(effort);
         }
 
@@ -274,7 +337,7 @@ public class Configuration {
         }
 
         @Override
-        public void setEffort(SavedHorse savedHorse, double effort) {
+        protected void storeEffort(SavedHorse savedHorse, double effort) {
             savedHorse.setNuggetsEaten((int) effort);
         }
 
@@ -311,6 +374,16 @@ public class Configuration {
         DEBUG_FINDS = config.getBoolean("debug.finds");
 
         DATABASE_IMPLEMENTATION = config.getString("database.implementation");
+        SAVE_PERIOD_SECONDS = config.getInt("database.save-period-seconds");
+        JOURNAL_PERIOD_TICKS = config.getInt("database.journal-period-ticks");
+        JOURNAL_COMPACT_BYTES = config.getLong("database.journal-compact-bytes");
+        BACKUP_PERIOD_MINUTES = config.getInt("database.backup-period-minutes");
+        PURGE_PERIOD_SECONDS = config.getInt("database.purge-period-seconds");
+        PURGE_BATCH_SIZE = config.getInt("database.purge-batch-size");
+        MIGRATE_BATCH_SIZE = config.getInt("database.migrate-batch-size");
+        LOAD_THREADS = config.getInt("database.load-threads");
+        CACHE_IDLE_HOURS = config.getInt("database.cache-idle-hours");
+        CACHE_MAX_HORSES = config.getInt("database.cache-max-horses");
         EJECT_ON_LOGOFF = config.getBoolean("eject-on-logoff");
         ALLOW_PVP = config.getBoolean("allow-pvp");
         LOOK_ANGLE_WORKAROUND = config.getBoolean("look-angle-workaround");
@@ -340,6 +413,16 @@ public class Configuration {
             logger.info("DEBUG_SCANS: " + DEBUG_SCANS);
             logger.info("DEBUG_FINDS: " + DEBUG_FINDS);
             logger.info("DATABASE_IMPLEMENTATION: " + DATABASE_IMPLEMENTATION);
+            logger.info("SAVE_PERIOD_SECONDS: " + SAVE_PERIOD_SECONDS);
+            logger.info("JOURNAL_PERIOD_TICKS: " + JOURNAL_PERIOD_TICKS);
+            logger.info("JOURNAL_COMPACT_BYTES: " + JOURNAL_COMPACT_BYTES);
+            logger.info("BACKUP_PERIOD_MINUTES: " + BACKUP_PERIOD_MINUTES);
+            logger.info("PURGE_PERIOD_SECONDS: " + PURGE_PERIOD_SECONDS);
+            logger.info("PURGE_BATCH_SIZE: " + PURGE_BATCH_SIZE);
+            logger.info("MIGRATE_BATCH_SIZE: " + MIGRATE_BATCH_SIZE);
+            logger.info("LOAD_THREADS: " + LOAD_THREADS);
+            logger.info("CACHE_IDLE_HOURS: " + CACHE_IDLE_HOURS);
+            logger.info("CACHE_MAX_HORSES: " + CACHE_MAX_HORSES);
             logger.info("EJECT_ON_LOGOFF: " + EJECT_ON_LOGOFF);
             logger.info("ALLOW_PVP: " + ALLOW_PVP);
             logger.info("LOOK_ANGLE_WORKAROUND: " + LOOK_ANGLE_WORKAROUND);
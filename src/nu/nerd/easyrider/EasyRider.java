@@ -3,7 +3,9 @@ package nu.nerd.easyrider;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -38,8 +40,10 @@ import org.bukkit.event.entity.EntityDamageEvent;
 import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
 import org.bukkit.event.entity.EntityDeathEvent;
 import org.bukkit.event.entity.EntityPortalEvent;
+import org.bukkit.event.entity.EntitySpawnEvent;
 import org.bukkit.event.entity.EntityTameEvent;
 import org.bukkit.event.entity.EntityTeleportEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.entity.HorseJumpEvent;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
@@ -48,9 +52,14 @@ import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.vehicle.VehicleEnterEvent;
 import org.bukkit.event.vehicle.VehicleExitEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.Plugin;
@@ -128,6 +137,11 @@ public class EasyRider extends JavaPlugin implements Listener {
      */
     public static HorseDB DB;
 
+    /**
+     * Registry of loaded AbstractHorse entities.
+     */
+    public static HorseRegistry REGISTRY = new HorseRegistry();
+
     // ------------------------------------------------------------------------
     /**
      * Return the provider of the disguise facility, or null if not supported.
@@ -178,6 +192,8 @@ public class EasyRider extends JavaPlugin implements Listener {
         addCommandExecutor(new HorseDisguiseSelfExecutor());
         addCommandExecutor(new HorseNeglectExecutor());
 
+        REGISTRY.addAllLoaded();
+        DB.evictIdleHorses();
         getServer().getPluginManager().registerEvents(this, this);
 
         Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
@@ -212,6 +228,43 @@ public class EasyRider extends JavaPlugin implements Listener {
 
         }, 20 * CONFIG.SCAN_PERIOD_SECONDS);
 
+        if (CONFIG.SAVE_PERIOD_SECONDS > 0) {
+            Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+                @Override
+                public void run() {
+                    DB.save();
+                    DB.evictIdleHorses();
+                }
+            }, 20 * CONFIG.SAVE_PERIOD_SECONDS, 20 * CONFIG.SAVE_PERIOD_SECONDS);
+        }
+
+        if (CONFIG.JOURNAL_PERIOD_TICKS > 0) {
+            Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+                @Override
+                public void run() {
+                    DB.flushJournal();
+                }
+            }, CONFIG.JOURNAL_PERIOD_TICKS, CONFIG.JOURNAL_PERIOD_TICKS);
+        }
+
+        if (CONFIG.BACKUP_PERIOD_MINUTES > 0) {
+            Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+                @Override
+                public void run() {
+                    DB.backup();
+                }
+            }, 20 * 60 * CONFIG.BACKUP_PERIOD_MINUTES, 20 * 60 * CONFIG.BACKUP_PERIOD_MINUTES);
+        }
+
+        if (CONFIG.PURGE_PERIOD_SECONDS > 0) {
+            Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new Runnable() {
+                @Override
+                public void run() {
+                    DB.purgeRemovedHorses();
+                }
+            }, 20 * CONFIG.PURGE_PERIOD_SECONDS, 20 * CONFIG.PURGE_PERIOD_SECONDS);
+        }
+
         Plugin libsDisguises = Bukkit.getPluginManager().getPlugin("LibsDisguises");
         if (libsDisguises != null && libsDisguises.isEnabled()) {
             _disguiseProvider = new LibsDisguiseProvider();
@@ -237,23 +290,25 @@ public class EasyRider extends JavaPlugin implements Listener {
             getLogger().warning("Unable to save player data: " + ex.getMessage());
         }
 
-        DB.save();
-        DB.purgeAllRemovedHorses();
+        DB.shutdown();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * On join, allocate each player a {@link PlayerState} instance.
+     * On join, allocate each player a {@link PlayerState} instance, and load
+     * any of the player's horses that have been evicted from the database
+     * cache.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerJoin(PlayerJoinEvent event) {
         addState(event.getPlayer());
+        DB.loadOwnedHorses(event.getPlayer().getUniqueId());
         SpecialSaddles.refreshSaddleDisguises();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * On quit, forget the {@link PlayerState}.
+     * On quit, forget the {@link PlayerState} and any {@link RidingSession}.
      *
      * If configured, automatically eject the player from its horse.
      */
@@ -264,10 +319,32 @@ public class EasyRider extends JavaPlugin implements Listener {
             ((AbstractHorse) player.getVehicle()).eject();
         }
 
+        endRidingSession(player);
         PlayerState state = _state.remove(player.getName());
         state.save(_playerConfig);
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * End any riding session when a player teleports.
+     *
+     * If the player is still riding afterwards, a new session is started on
+     * the next movement, without counting the distance teleported.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        endRidingSession(event.getPlayer());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * End any riding session when a player dies.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        endRidingSession(event.getEntity());
+    }
+
     // ------------------------------------------------------------------------
     /**
      * When a trainable AbstractHorse spawns, set its stats to defaults, unless
@@ -294,6 +371,15 @@ public class EasyRider extends JavaPlugin implements Listener {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Register AbstractHorses that spawn, if not cancelled.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onEntitySpawn(EntitySpawnEvent event) {
+        REGISTRY.add(event.getEntity());
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Log taming of AbstractHorses, play the lock sound and message the owner
@@ -306,7 +392,9 @@ public class EasyRider extends JavaPlugin implements Listener {
         if (Util.isTrackable(entity) && owner != null) {
             AbstractHorse abstractHorse = (AbstractHorse) entity;
             SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-            DB.observe(savedHorse, abstractHorse);
+            if (savedHorse != null) {
+                DB.observe(savedHorse, abstractHorse);
+            }
 
             owner.playSound(owner.getLocation(), Sound.BLOCK_DISPENSER_DISPENSE, SoundCategory.NEUTRAL, 1f, 1f);
             owner.sendMessage(ChatColor.GOLD + "This " + Util.entityTypeName(abstractHorse) + " has been locked.");
@@ -331,6 +419,12 @@ public class EasyRider extends JavaPlugin implements Listener {
             AbstractHorse abstractHorse = (AbstractHorse) entity;
             if (abstractHorse.getOwner() != null && !(Util.getPassenger(abstractHorse) instanceof Player)) {
                 SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
+                if (savedHorse == null) {
+                    // The horse's record could not be loaded. Protect it.
+                    event.setCancelled(true);
+                    return;
+                }
+
                 DB.observe(savedHorse, abstractHorse);
                 if (savedHorse.isAbandoned()) {
                     abstractHorse.setOwner(null);
@@ -388,6 +482,7 @@ public class EasyRider extends JavaPlugin implements Listener {
     public void onEntityDeath(EntityDeathEvent event) {
         Entity entity = event.getEntity();
         if (Util.isTrackable(entity)) {
+            REGISTRY.remove(entity);
             AbstractHorse abstractHorse = (AbstractHorse) entity;
             SavedHorse savedHorse = DB.findHorse(abstractHorse);
             if (savedHorse != null) {
@@ -468,6 +563,13 @@ public class EasyRider extends JavaPlugin implements Listener {
         Location playerLoc = player.getLocation();
 
         SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
+        if (savedHorse == null) {
+            event.setCancelled(true);
+            player.sendMessage(ChatColor.RED + "That " + Util.entityTypeName(abstractHorse) +
+                               " could not be loaded from the database. Try again later.");
+            return;
+        }
+
         if (player.equals(abstractHorse.getOwner())) {
             savedHorse.setLastAccessed(System.currentTimeMillis());
         } else {
@@ -572,29 +674,48 @@ public class EasyRider extends JavaPlugin implements Listener {
      * Horses swimming in liquid are not counted as "on the ground", but it is
      * not an exploitable way of levelling up jump because the player is ejected
      * as soon as the horse sinks.
+     *
+     * The horse, its database state, its trainability and the rider's access
+     * to it are cached in the player's {@link RidingSession}.
      */
     @EventHandler(ignoreCancelled = true)
     public void onPlayerMove(PlayerMoveEvent event) {
+        if (CONFIG.VANILLA_STATS) {
+            return;
+        }
+
         Player player = event.getPlayer();
         Entity vehicle = player.getVehicle();
-        if (!Util.isTrackable(vehicle) || CONFIG.VANILLA_STATS) {
+        if (vehicle == null) {
             return;
         }
 
-        AbstractHorse abstractHorse = (AbstractHorse) vehicle;
+        RidingSession session = getRidingSession(player, vehicle);
+        if (session == null) {
+            return;
+        }
+
+        AbstractHorse abstractHorse = session.getHorse();
         if (abstractHorse.isInsideVehicle()) {
             // The horse cannot be trained by moving it around in a vehicle.
+            session.clearDistance();
             return;
         }
-        PlayerState playerState = getState(player);
-        SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-        if (Util.isTrainable(abstractHorse)) {
-            // NOTE: call onRidden() before observe() for correct dehydration.
-            savedHorse.onRidden(_tickCounter, abstractHorse);
+        PlayerState playerState = session.getPlayerState();
+        SavedHorse savedHorse = session.getSavedHorse();
+        Location location = abstractHorse.getLocation(_moveLocation);
+        if (session.isTrainable()) {
+            // Underwater training (of skeleton horses) counts as speed rather
+            // than jump training, and horses in water don't dehydrate.
+            boolean underWater = Util.isWaterlogged(location);
+
+            // NOTE: call onRidden() before observeLocation() for correct
+            // dehydration.
+            savedHorse.onRidden(_tickCounter, abstractHorse, player, playerState, location, underWater);
 
             // Compute distance moved and update speed or jump depending on
             // whether the horse was on the ground.
-            double tickDistance = playerState.getTickHorizontalDistance();
+            double tickDistance = session.getTickHorizontalDistance(location);
             if (tickDistance > 0 && !savedHorse.isDehydrated()) {
                 // Sanity check: if the distance is so large as to be
                 // unattainable in one tick, then don't apply the distance to
@@ -607,9 +728,6 @@ public class EasyRider extends JavaPlugin implements Listener {
                     getLogger().warning(ownerClause + " horse " + abstractHorse.getUniqueId() +
                                         " moved impossibly fast for its level; ratio: " + (tickDistance / maxSpeed));
                 } else {
-                    // Underwater training (of skeleton horses) counts as
-                    // speed rather than jump training.
-                    boolean underWater = Util.isWaterlogged(abstractHorse.getLocation().getBlock());
                     Ability ability = (abstractHorse.isOnGround() || underWater) ? CONFIG.SPEED
                                                                                  : CONFIG.JUMP;
                     ability.setEffort(savedHorse, ability.getEffort(savedHorse) + tickDistance);
@@ -620,15 +738,18 @@ public class EasyRider extends JavaPlugin implements Listener {
             }
 
             // Update stored location to compute distance in the next tick.
-            playerState.updateRiddenHorse();
+            session.updateLocation(location);
         }
 
-        // Observe the AbstractHorse's new location.
-        DB.observe(savedHorse, abstractHorse);
+        // Observe the AbstractHorse's new location. Its other attributes,
+        // including name, owner and appearance, are only observed when it is
+        // mounted, dismounted or interacted with, so changes made by other
+        // plugins while it is ridden are picked up at the next such event.
+        savedHorse.observeLocation(location);
 
         // If the horse is owned and permission to ride the horse has been
         // retracted, eject the rider.
-        if (abstractHorse.getOwner() != null && !savedHorse.canBeAccessedBy(player) && !playerState.isBypassEnabled()) {
+        if (!session.isPermitted() && !playerState.isBypassEnabled()) {
             player.sendMessage(ChatColor.GOLD + "You no longer have permission to ride this " + Util.entityTypeName(abstractHorse) + ".");
             abstractHorse.eject();
         }
@@ -653,8 +774,12 @@ public class EasyRider extends JavaPlugin implements Listener {
         AbstractHorse abstractHorse = (AbstractHorse) holder;
         if (Util.isTrackable(abstractHorse)) {
             SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-            DB.observe(savedHorse, abstractHorse);
+            if (savedHorse == null) {
+                event.setCancelled(true);
+                return;
+            }
 
+            DB.observe(savedHorse, abstractHorse);
             PlayerState playerState = getState(player);
             if (!isAccessible(savedHorse, abstractHorse, player, playerState)) {
                 event.setCancelled(true);
@@ -730,13 +855,15 @@ public class EasyRider extends JavaPlugin implements Listener {
 
         AbstractHorse abstractHorse = (AbstractHorse) holder;
         SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-        savedHorse.observeInventory(abstractHorse);
+        if (savedHorse != null) {
+            savedHorse.observeInventory(abstractHorse);
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * When a player mounts a horse, clear the recorded location of the horse in
-     * the previous tick.
+     * When a player mounts a horse, start a new {@link RidingSession}, which
+     * clears the recorded location of the horse in the previous tick.
      *
      * Note that players can switch from horse to horse without dismounting,
      * which would mess up distance ridden calculations if we simply stored the
@@ -768,16 +895,20 @@ public class EasyRider extends JavaPlugin implements Listener {
             addState(player);
 
             SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-            DB.observe(savedHorse, abstractHorse);
+            if (savedHorse == null) {
+                event.setCancelled(true);
+                return;
+            }
 
+            DB.observe(savedHorse, abstractHorse);
             PlayerState playerState = getState(player);
-            playerState.clearHorseDistance();
-
             if (!isAccessible(savedHorse, abstractHorse, player, playerState)) {
                 event.setCancelled(true);
                 return;
             }
 
+            beginRidingSession(player, playerState, abstractHorse, savedHorse);
+
             if (Util.isTrainable(abstractHorse) && !CONFIG.VANILLA_STATS) {
                 EasyRider.CONFIG.SPEED.updateAttribute(savedHorse, abstractHorse);
             }
@@ -802,7 +933,8 @@ public class EasyRider extends JavaPlugin implements Listener {
 
     // ------------------------------------------------------------------------
     /**
-     * Update observed horse state on vehicle exit.
+     * Update observed horse state and end the {@link RidingSession} on vehicle
+     * exit.
      * 
      * Include debug logging of vehicle exits.
      */
@@ -811,16 +943,23 @@ public class EasyRider extends JavaPlugin implements Listener {
         if (Util.isTrackable(event.getVehicle()) && event.getExited() instanceof Player) {
             AbstractHorse abstractHorse = (AbstractHorse) event.getVehicle();
             Player player = (Player) event.getExited();
+            RidingSession session = _ridingSessions.get(player.getUniqueId());
+            if (session != null && session.getHorse() == abstractHorse) {
+                endRidingSession(player);
+            }
+
             SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
-            DB.observe(savedHorse, abstractHorse);
+            if (savedHorse != null) {
+                DB.observe(savedHorse, abstractHorse);
 
-            if (Util.isTrainable(abstractHorse) && !CONFIG.VANILLA_STATS) {
-                // Reset horse speed to that dictated by its level. It may have
-                // been limited by a player-specific maximum speed.
-                EasyRider.CONFIG.SPEED.updateAttribute(savedHorse, abstractHorse);
-            }
+                if (Util.isTrainable(abstractHorse) && !CONFIG.VANILLA_STATS) {
+                    // Reset horse speed to that dictated by its level. It may
+                    // have been limited by a player-specific maximum speed.
+                    EasyRider.CONFIG.SPEED.updateAttribute(savedHorse, abstractHorse);
+                }
 
-            handleDrinking(abstractHorse, savedHorse, player);
+                handleDrinking(abstractHorse, savedHorse, player);
+            }
 
             // Clear disguise on dismount.
             if (getDisguiseProvider() != null) {
@@ -830,7 +969,7 @@ public class EasyRider extends JavaPlugin implements Listener {
                 }
             }
 
-            if (CONFIG.DEBUG_EVENTS && savedHorse.isDebug()) {
+            if (CONFIG.DEBUG_EVENTS && savedHorse != null && savedHorse.isDebug()) {
                 debug(abstractHorse, "Vehicle exit: " + player.getName());
             }
         }
@@ -855,11 +994,39 @@ public class EasyRider extends JavaPlugin implements Listener {
         Player player = (Player) passenger;
         SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
 
-        if (CONFIG.DEBUG_EVENTS && savedHorse.isDebug()) {
+        if (CONFIG.DEBUG_EVENTS && savedHorse != null && savedHorse.isDebug()) {
             debug(abstractHorse, "Horse jump: " + player.getName());
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Register AbstractHorses when the entities of a chunk are loaded, and
+     * start loading any that were evicted from the database cache.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent event) {
+        ArrayList<UUID> horseUuids = new ArrayList<UUID>();
+        for (Entity entity : event.getEntities()) {
+            REGISTRY.add(entity);
+            if (Util.isTrackable(entity)) {
+                horseUuids.add(entity.getUniqueId());
+            }
+        }
+        DB.prefetchColdHorses(horseUuids);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Unregister AbstractHorses when the entities of a chunk are unloaded.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent event) {
+        for (Entity entity : event.getEntities()) {
+            REGISTRY.remove(entity);
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * On chunk unload, update database state of horses.
@@ -877,6 +1044,24 @@ public class EasyRider extends JavaPlugin implements Listener {
         }
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * When a world is loaded, cache it for horse locations in that world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        DB.onWorldLoad(event.getWorld());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When a world is unloaded, stop referencing it from horse locations.
+     */
+    @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        DB.onWorldUnload(event.getWorld());
+    }
+
     // ------------------------------------------------------------------------
     /**
      * If a horse teleports and takes a rider with it (is that possible?) clear
@@ -888,8 +1073,10 @@ public class EasyRider extends JavaPlugin implements Listener {
             AbstractHorse abstractHorse = (AbstractHorse) event.getEntity();
             Entity passenger = Util.getPassenger(abstractHorse);
             if (passenger instanceof Player) {
-                Player player = (Player) passenger;
-                getState(player).clearHorseDistance();
+                RidingSession session = _ridingSessions.get(passenger.getUniqueId());
+                if (session != null) {
+                    session.clearDistance();
+                }
             }
         }
     }
@@ -911,7 +1098,10 @@ public class EasyRider extends JavaPlugin implements Listener {
                     if (bedSpawnLoc != null) {
                         event.setCancelled(true);
                         abstractHorse.teleport(bedSpawnLoc);
-                        DB.findOrAddHorse(abstractHorse).setLocation(bedSpawnLoc);
+                        SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
+                        if (savedHorse != null) {
+                            savedHorse.setLocation(bedSpawnLoc);
+                        }
                     }
                 }
             }
@@ -949,6 +1139,75 @@ public class EasyRider extends JavaPlugin implements Listener {
         return _state.get(player.getName());
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link RidingSession} of a player who is riding the specified
+     * vehicle.
+     *
+     * The player's current session is returned if it is for the same vehicle
+     * and its SavedHorse is still current. Otherwise, a new session is started
+     * if the vehicle is a trackable horse, which covers players who were riding
+     * when the plugin was enabled, horses changed without a corresponding
+     * VehicleExitEvent, and horses removed from or reloaded into the database
+     * while ridden.
+     *
+     * @param player the riding player.
+     * @param vehicle the player's vehicle.
+     * @return the session, or null if the vehicle is not a trackable horse,
+     *         or its database state could not be loaded.
+     */
+    protected RidingSession getRidingSession(Player player, Entity vehicle) {
+        RidingSession session = _ridingSessions.get(player.getUniqueId());
+        if (session != null && session.getHorse() == vehicle && session.isCurrent()) {
+            return session;
+        }
+
+        if (!Util.isTrackable(vehicle)) {
+            if (session != null) {
+                endRidingSession(player);
+            }
+            return null;
+        }
+
+        AbstractHorse abstractHorse = (AbstractHorse) vehicle;
+        SavedHorse savedHorse = DB.findOrAddHorse(abstractHorse);
+        if (savedHorse == null) {
+            if (session != null) {
+                endRidingSession(player);
+            }
+            return null;
+        }
+        return beginRidingSession(player, getState(player), abstractHorse, savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a new {@link RidingSession} for a player, replacing any previous
+     * session.
+     *
+     * @param player the riding player.
+     * @param playerState the rider's PlayerState.
+     * @param abstractHorse the ridden horse.
+     * @param savedHorse the database state of the ridden horse.
+     * @return the new session.
+     */
+    protected RidingSession beginRidingSession(Player player, PlayerState playerState,
+                                               AbstractHorse abstractHorse, SavedHorse savedHorse) {
+        RidingSession session = new RidingSession(player, playerState, abstractHorse, savedHorse);
+        _ridingSessions.put(player.getUniqueId(), session);
+        return session;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * End the {@link RidingSession} of the specified player, if any.
+     *
+     * @param player the player.
+     */
+    protected void endRidingSession(Player player) {
+        _ridingSessions.remove(player.getUniqueId());
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Add PlayerState for the specified player.
@@ -1266,11 +1525,23 @@ public class EasyRider extends JavaPlugin implements Listener {
      */
     protected HashMap<String, PlayerState> _state = new HashMap<String, PlayerState>();
 
+    /**
+     * Map from player UUID to the {@link RidingSession} of that player, for
+     * players riding a trackable horse.
+     */
+    protected HashMap<UUID, RidingSession> _ridingSessions = new HashMap<UUID, RidingSession>();
+
     /**
      * Counter updated monotonically every tick.
      */
     protected int _tickCounter;
 
+    /**
+     * Scratch Location reused by onPlayerMove() to avoid an allocation per
+     * movement; only accessed in the main thread.
+     */
+    protected final Location _moveLocation = new Location(null, 0, 0, 0);
+
     /**
      * Provides the disguise facility, or null if disguises are not supported.
      */
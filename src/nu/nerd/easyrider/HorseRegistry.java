@@ -0,0 +1,132 @@
+package nu.nerd.easyrider;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.AbstractHorse;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * A registry of the currently loaded AbstractHorse entities, by UUID.
+ *
+ * The registry is maintained by event handlers in {@link EasyRider}: horses are
+ * added when their chunk's entities are loaded or when they spawn, and removed
+ * when their chunk's entities are unloaded or when they die. Finding a loaded
+ * horse by UUID is therefore a single map lookup, rather than a search through
+ * every loaded entity on the server.
+ *
+ * As a safeguard against missed events, an entry whose entity is no longer
+ * valid is discarded on lookup, and the loaded entities of the configured
+ * worlds are then searched for the horse in the old way.
+ *
+ * This class is not thread-safe; it is only accessed in the main thread.
+ */
+public class HorseRegistry {
+    // ------------------------------------------------------------------------
+    /**
+     * Register all AbstractHorses currently loaded in all worlds.
+     *
+     * This is only necessary when the plugin is enabled after worlds have
+     * loaded, e.g. on reload.
+     */
+    public void addAllLoaded() {
+        for (World world : Bukkit.getWorlds()) {
+            for (AbstractHorse abstractHorse : world.getEntitiesByClass(AbstractHorse.class)) {
+                add(abstractHorse);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Register an entity, if it is trackable.
+     *
+     * @param entity the entity.
+     */
+    public void add(Entity entity) {
+        if (Util.isTrackable(entity)) {
+            _horses.put(entity.getUniqueId(), (AbstractHorse) entity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Unregister an entity.
+     *
+     * The entity is only removed if it is the registered instance, so that the
+     * unloading of a stale entity does not unregister a newer entity with the
+     * same UUID (e.g. after a change of world).
+     *
+     * @param entity the entity.
+     */
+    public void remove(Entity entity) {
+        if (Util.isTrackable(entity)) {
+            _horses.remove(entity.getUniqueId(), entity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the loaded AbstractHorse with the specified UUID.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the AbstractHorse, or null if it is not loaded.
+     */
+    public AbstractHorse find(UUID uuid) {
+        AbstractHorse abstractHorse = _horses.get(uuid);
+        if (abstractHorse == null || abstractHorse.isValid()) {
+            return abstractHorse;
+        }
+
+        // A missed event; fall back to a search of loaded entities.
+        _horses.remove(uuid);
+        if (EasyRider.CONFIG.DEBUG_SCANS) {
+            EasyRider.PLUGIN.getLogger().info("Stale horse registry entry: " + uuid);
+        }
+        for (String worldName : EasyRider.CONFIG.SCAN_WORLD_RADIUS.keySet()) {
+            World world = Bukkit.getWorld(worldName);
+            if (world != null) {
+                for (Entity entity : world.getEntities()) {
+                    if (entity.getUniqueId().equals(uuid) && Util.isTrackable(entity)) {
+                        add(entity);
+                        return (AbstractHorse) entity;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if an AbstractHorse with the specified UUID is registered as
+     * loaded.
+     *
+     * Unlike {@link #find(UUID)}, this does not validate the entity.
+     *
+     * @param uuid the UUID of the horse.
+     * @return true if the horse is registered.
+     */
+    public boolean isLoaded(UUID uuid) {
+        return _horses.containsKey(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of registered horses.
+     *
+     * @return the number of registered horses.
+     */
+    public int size() {
+        return _horses.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from UUID to loaded AbstractHorse.
+     */
+    protected HashMap<UUID, AbstractHorse> _horses = new HashMap<UUID, AbstractHorse>();
+} // class HorseRegistry
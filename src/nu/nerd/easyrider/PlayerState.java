@@ -1,10 +1,7 @@
 package nu.nerd.easyrider;
 
-import org.bukkit.Location;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
-import org.bukkit.entity.AbstractHorse;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 
@@ -113,60 +110,6 @@ public class PlayerState {
         return _neglectful;
     }
 
-    // --------------------------------------------------------------------------
-    /**
-     * Invalidate the stored last location of the ridden horse, clearing the
-     * distance ridden in the last tick to zero.
-     */
-    public void clearHorseDistance() {
-        Entity vehicle = _player.getVehicle();
-        _riddenHorse = (vehicle instanceof AbstractHorse) ? (AbstractHorse) vehicle : null;
-        _riddenHorseLocation = null;
-    }
-
-    // --------------------------------------------------------------------------
-    /**
-     * Update the last location of the currently ridden horse.
-     *
-     * If the player is not riding, or the player is riding a horse that is in
-     * another vehicle, or if the horse has changed since last tick, clear the
-     * location. Otherwise, the player is riding the same horse and its current
-     * location is stored.
-     */
-    public void updateRiddenHorse() {
-        Entity vehicle = _player.getVehicle();
-        if (vehicle instanceof AbstractHorse) {
-            AbstractHorse horse = (AbstractHorse) vehicle;
-            if (horse == null || horse.getVehicle() != null || _riddenHorse != horse) {
-                _riddenHorse = horse;
-                _riddenHorseLocation = null;
-            } else {
-                _riddenHorseLocation = horse.getLocation();
-            }
-        }
-    }
-
-    // --------------------------------------------------------------------------
-    /**
-     * Return the distance travelled horizontally since the last call to
-     * {@link #updateRiddenHorse()}.
-     *
-     * The distance will be 0 if the player was not riding a horse in the
-     * previous tick, if they just mounted the horse, if they changed horse, or
-     * if the horse changed world (e.g. with a portal).
-     *
-     * @return the horizontal distance travelled.
-     */
-    public double getTickHorizontalDistance() {
-        AbstractHorse currentHorse = (_player.getVehicle() instanceof AbstractHorse) ? (AbstractHorse) _player.getVehicle()
-                                                                                     : null;
-        if (currentHorse == null || currentHorse != _riddenHorse || _riddenHorseLocation == null) {
-            return 0;
-        } else {
-            return Util.getHorizontalDistance(_riddenHorseLocation, currentHorse.getLocation());
-        }
-    }
-
     // --------------------------------------------------------------------------
     /**
      * Toggle horse access permission checks.
@@ -225,18 +168,6 @@ public class PlayerState {
      */
     protected IPendingInteraction _pendingInteraction;
 
-    /**
-     * The AbstractHorse being ridden in the most recent call to
-     * {@link #updateRiddenHorse()}.
-     */
-    protected AbstractHorse _riddenHorse;
-
-    /**
-     * When riding a horse, this is the location of the horse in the previous
-     * tick, if the player was riding then too. Otherwise it is null.
-     */
-    protected Location _riddenHorseLocation;
-
     /**
      * The player-set maximum speed that any horse ridden by this player will
      * move, in the natural units of the speed attribute.
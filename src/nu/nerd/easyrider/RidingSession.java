@@ -0,0 +1,245 @@
+package nu.nerd.easyrider;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.AbstractHorse;
+import org.bukkit.entity.Player;
+
+import nu.nerd.easyrider.db.SavedHorse;
+
+// ----------------------------------------------------------------------------
+/**
+ * Transient state of a player riding a specific horse, created when the
+ * player mounts the horse and discarded when they dismount, quit, teleport or
+ * die.
+ *
+ * The session caches everything about the pairing of rider and horse that
+ * does not change from one movement to the next, so that
+ * {@link EasyRider#onPlayerMove(org.bukkit.event.player.PlayerMoveEvent)}
+ * only has to compute the distance moved.
+ *
+ * While riding, only the location of the horse is observed on each movement;
+ * its name, owner and appearance are observed when it is mounted, dismounted
+ * or interacted with. The session's SavedHorse is checked against the
+ * database whenever its access version changes, which includes removal or
+ * eviction from the cache, so that training is never applied to a detached
+ * SavedHorse; see {@link #isCurrent()}.
+ *
+ * Sessions are only accessed in the main thread.
+ */
+public class RidingSession {
+    /**
+     * Constructor.
+     *
+     * @param player the riding player.
+     * @param playerState the rider's PlayerState.
+     * @param horse the ridden horse.
+     * @param savedHorse the database state of the ridden horse.
+     */
+    public RidingSession(Player player, PlayerState playerState, AbstractHorse horse, SavedHorse savedHorse) {
+        _player = player;
+        _playerState = playerState;
+        _horse = horse;
+        _savedHorse = savedHorse;
+        _trainable = Util.isTrainable(horse);
+        updatePermitted();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the riding player.
+     *
+     * @return the riding player.
+     */
+    public Player getPlayer() {
+        return _player;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rider's PlayerState.
+     *
+     * @return the rider's PlayerState.
+     */
+    public PlayerState getPlayerState() {
+        return _playerState;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ridden horse.
+     *
+     * @return the ridden horse.
+     */
+    public AbstractHorse getHorse() {
+        return _horse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the database state of the ridden horse.
+     *
+     * @return the database state of the ridden horse.
+     */
+    public SavedHorse getSavedHorse() {
+        return _savedHorse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the ridden horse can be trained.
+     *
+     * @return true if the ridden horse can be trained.
+     */
+    public boolean isTrainable() {
+        return _trainable;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the session's SavedHorse is still the database state of
+     * the ridden horse.
+     *
+     * The database is only consulted when the access version of the SavedHorse
+     * has changed since it was last checked. If the SavedHorse is current, the
+     * cached access decision is recomputed at the same time.
+     *
+     * @return true if the session's SavedHorse is current; false if it was
+     *         removed or replaced and the session should be restarted.
+     */
+    public boolean isCurrent() {
+        if (_accessVersion != _savedHorse.getAccessVersion()) {
+            if (EasyRider.DB.findHorse(_savedHorse.getUuid()) != _savedHorse) {
+                return false;
+            }
+            updatePermitted();
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the horse is unowned or the rider is allowed to access
+     * it, ignoring bypass mode.
+     *
+     * The decision is cached and only recomputed when the owner, public status
+     * or access list of the horse changes.
+     *
+     * @return true if the rider is permitted to ride the horse.
+     */
+    public boolean isPermitted() {
+        if (_accessVersion != _savedHorse.getAccessVersion()) {
+            updatePermitted();
+        }
+        return _permitted;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Invalidate the stored last location of the ridden horse, clearing the
+     * distance ridden in the last tick to zero.
+     */
+    public void clearDistance() {
+        _lastWorld = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Store the current location of the ridden horse to compute the distance
+     * travelled in the next tick.
+     *
+     * Only the coordinates of the location are copied, so the caller may
+     * reuse the Location instance.
+     *
+     * @param location the current location of the horse.
+     */
+    public void updateLocation(Location location) {
+        _lastWorld = location.getWorld();
+        _lastX = location.getX();
+        _lastZ = location.getZ();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the distance travelled horizontally since the last call to
+     * {@link #updateLocation(Location)}.
+     *
+     * The distance will be 0 if the player just mounted the horse, if the
+     * distance was cleared, or if the horse changed world (e.g. with a
+     * portal).
+     *
+     * @param location the current location of the horse.
+     * @return the horizontal distance travelled.
+     */
+    public double getTickHorizontalDistance(Location location) {
+        if (_lastWorld == null || _lastWorld != location.getWorld()) {
+            return 0;
+        } else {
+            double dx = location.getX() - _lastX;
+            double dz = location.getZ() - _lastZ;
+            return Math.sqrt(dx * dx + dz * dz);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Recompute the cached access decision.
+     */
+    protected void updatePermitted() {
+        _accessVersion = _savedHorse.getAccessVersion();
+        _permitted = (_savedHorse.getOwnerUuid() == null || _savedHorse.canBeAccessedBy(_player));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The riding player.
+     */
+    protected final Player _player;
+
+    /**
+     * The rider's PlayerState.
+     */
+    protected final PlayerState _playerState;
+
+    /**
+     * The ridden horse.
+     */
+    protected final AbstractHorse _horse;
+
+    /**
+     * The database state of the ridden horse.
+     */
+    protected final SavedHorse _savedHorse;
+
+    /**
+     * True if the ridden horse can be trained.
+     */
+    protected final boolean _trainable;
+
+    /**
+     * The SavedHorse access version when _permitted was computed.
+     */
+    protected int _accessVersion;
+
+    /**
+     * The cached access decision; see {@link #isPermitted()}.
+     */
+    protected boolean _permitted;
+
+    /**
+     * The world of the horse in the previous tick, or null if the distance
+     * travelled in the next tick should be zero. If null, the coordinates
+     * below are meaningless.
+     */
+    protected World _lastWorld;
+
+    /**
+     * The X coordinate of the horse in the previous tick.
+     */
+    protected double _lastX;
+
+    /**
+     * The Z coordinate of the horse in the previous tick.
+     */
+    protected double _lastZ;
+} // class RidingSession
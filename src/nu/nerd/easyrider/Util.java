@@ -1,10 +1,10 @@
 package nu.nerd.easyrider;
 
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import nu.nerd.easyrider.db.SavedHorse;
 import org.bukkit.*;
@@ -13,6 +13,7 @@ import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.Waterlogged;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Horse;
 import org.bukkit.entity.Llama;
 import org.bukkit.entity.SkeletonHorse;
@@ -83,7 +84,13 @@ public class Util {
      * @return a human-readable entity type name.
      */
     public static String entityTypeName(Entity entity) {
-        return entity.getType().name().toLowerCase().replace('_', ' ');
+        EntityType type = entity.getType();
+        String name = ENTITY_TYPE_NAMES[type.ordinal()];
+        if (name == null) {
+            name = type.name().toLowerCase().replace('_', ' ');
+            ENTITY_TYPE_NAMES[type.ordinal()] = name;
+        }
+        return name;
     }
 
     // ------------------------------------------------------------------------
@@ -91,9 +98,9 @@ public class Util {
      * Find the AbstractHorse entity with the specified UUID near the specified
      * location.
      *
-     * A square of chunks around the location are loaded if necessary. If that
-     * area does not contain the AbstractHorse, all loaded chunks in all worlds
-     * are searched, starting with the world containing the specified Location.
+     * If the AbstractHorse is already loaded, it is returned from the
+     * {@link HorseRegistry}. Otherwise, a square of chunks around the location
+     * are loaded if necessary and searched.
      *
      * @param uuid the AbstractHorse's UUID.
      * @param loc the Location where the AbstractHorse was last seen; if null,
@@ -108,9 +115,14 @@ public class Util {
             return findHorse(uuid);
         }
 
+        AbstractHorse horse = EasyRider.REGISTRY.find(uuid);
+        if (horse != null) {
+            return horse;
+        }
+
         World centreWorld = loc.getWorld();
         Chunk centreChunk = loc.getChunk();
-        AbstractHorse horse = findHorse(uuid, centreChunk);
+        horse = findHorse(uuid, centreChunk);
         if (horse != null) {
             return horse;
         }
@@ -146,43 +158,22 @@ public class Util {
             }
         }
 
-        // Search loaded chunks, starting with original World.
-        horse = findHorse(uuid, centreWorld);
-        if (horse != null) {
-            return horse;
-        }
-        for (String worldName : EasyRider.CONFIG.SCAN_WORLD_RADIUS.keySet()) {
-            World world = Bukkit.getWorld(worldName);
-            if (world != null && world != centreWorld) {
-                horse = findHorse(uuid, world);
-                if (horse != null) {
-                    return horse;
-                }
-            }
-        }
-
-        return null;
+        // Entities loaded with the searched chunks have been registered.
+        return EasyRider.REGISTRY.find(uuid);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Search all loaded chunks of all configured worlds, in arbitrary order,
-     * for an AbstractHorse with the specified UUID.
+     * Find the loaded AbstractHorse with the specified UUID in any of the
+     * configured worlds.
      *
      * @param uuid the AbstractHorse's UUID.
      * @return the AbstractHorse entity or null if not found.
      */
     public static AbstractHorse findHorse(UUID uuid) {
-        for (String worldName : EasyRider.CONFIG.SCAN_WORLD_RADIUS.keySet()) {
-            World world = Bukkit.getWorld(worldName);
-            if (world != null) {
-                AbstractHorse horse = findHorse(uuid, world);
-                if (horse != null) {
-                    return horse;
-                }
-            }
-        }
-        return null;
+        AbstractHorse horse = EasyRider.REGISTRY.find(uuid);
+        return (horse != null && EasyRider.CONFIG.SCAN_WORLD_RADIUS.containsKey(horse.getWorld().getName())) ? horse
+                                                                                                               : null;
     }
 
     // ------------------------------------------------------------------------
@@ -212,16 +203,12 @@ public class Util {
      * loaded chunks of the specified World.
      *
      * @param uuid the AbstractHorse's UUID.
-     * @param chunk the chunk to search.
+     * @param world the World to search.
      * @return the matching AbstractHorse, if found, or null.
      */
     public static AbstractHorse findHorse(UUID uuid, World world) {
-        for (Entity entity : world.getEntities()) {
-            if (entity.getUniqueId().equals(uuid)) {
-                return (AbstractHorse) entity;
-            }
-        }
-        return null;
+        AbstractHorse horse = EasyRider.REGISTRY.find(uuid);
+        return (horse != null && horse.getWorld().equals(world)) ? horse : null;
     }
 
     // ------------------------------------------------------------------------
@@ -237,27 +224,21 @@ public class Util {
      *         found.
      */
     public static List<SavedHorse> findHorses(OfflinePlayer owner, String identifier) {
-        final String lowerIdent = identifier.toLowerCase();
-
         List<SavedHorse> horses = EasyRider.DB.getOwnedHorses(owner);
         try {
-            int index = Integer.parseInt(lowerIdent);
+            int index = Integer.parseInt(identifier);
             if (index > 0 && index <= horses.size()) {
                 return Collections.singletonList(horses.get(index - 1));
             }
         } catch (NumberFormatException ignored) {
         }
 
-        List<SavedHorse> found = horses.stream()
-                .filter(h -> h.getDisplayName().toLowerCase().startsWith(lowerIdent))
-                .collect(Collectors.toList());
+        List<SavedHorse> found = EasyRider.DB.findOwnedHorsesByName(owner.getUniqueId(), identifier);
         if (!found.isEmpty()) {
             return found;
         }
 
-        found = horses.stream()
-                .filter(h -> h.getUuid().toString().toLowerCase().startsWith(lowerIdent))
-                .collect(Collectors.toList());
+        found = EasyRider.DB.findOwnedHorsesByUUID(owner.getUniqueId(), identifier);
         if (!found.isEmpty()) {
             return found;
         }
@@ -277,12 +258,10 @@ public class Util {
     public static String getAppearance(AbstractHorse abstractHorse) {
         if (abstractHorse instanceof Horse) {
             Horse horse = (Horse) abstractHorse;
-            return COLOR_TO_APPEARANCE[horse.getColor().ordinal()] +
-                   STYLE_TO_APPEARANCE[horse.getStyle().ordinal()];
+            return HORSE_APPEARANCES[horse.getColor().ordinal()][horse.getStyle().ordinal()];
         } else if (abstractHorse instanceof Llama) {
             Llama llama = (Llama) abstractHorse;
-            Llama.Color colour = llama.getColor();
-            return colour.name().toLowerCase() + " llama";
+            return LLAMA_APPEARANCES[llama.getColor().ordinal()];
         } else {
             return entityTypeName(abstractHorse);
         }
@@ -380,6 +359,58 @@ public class Util {
         return blockData instanceof Waterlogged && ((Waterlogged) blockData).isWaterlogged();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the block at the specified location is water or
+     * waterlogged.
+     *
+     * Unlike {@link #isWaterlogged(Block)}, this does not allocate a Block, and
+     * only looks up the BlockData of blocks that can be waterlogged, so that
+     * it can be called on every movement of a ridden horse.
+     *
+     * @param loc the location.
+     * @return true if the block at the location is water or waterlogged.
+     */
+    public static boolean isWaterlogged(Location loc) {
+        World world = loc.getWorld();
+        if (world == null) {
+            return false;
+        }
+
+        int x = loc.getBlockX();
+        int y = loc.getBlockY();
+        int z = loc.getBlockZ();
+        Material type = world.getType(x, y, z);
+        if (type == Material.WATER) {
+            return true;
+        }
+        if (!Waterloggable.MATERIALS.contains(type)) {
+            return false;
+        }
+
+        BlockData blockData = world.getBlockData(x, y, z);
+        return blockData instanceof Waterlogged && ((Waterlogged) blockData).isWaterlogged();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Holds the set of block materials whose BlockData is Waterlogged.
+     *
+     * The set is computed when first used by
+     * {@link Util#isWaterlogged(Location)}, rather than when Util is
+     * initialised. Registry.MATERIAL excludes legacy materials.
+     */
+    private static final class Waterloggable {
+        static final EnumSet<Material> MATERIALS = EnumSet.noneOf(Material.class);
+        static {
+            for (Material material : Registry.MATERIAL) {
+                if (material.isBlock() && material.createBlockData() instanceof Waterlogged) {
+                    MATERIALS.add(material);
+                }
+            }
+        }
+    } // class Waterloggable
+
     // ------------------------------------------------------------------------
     /**
      * The string form of Horse.Color constants as returned by getAppearance(),
@@ -396,4 +427,34 @@ public class Util {
     private static final String[] STYLE_TO_APPEARANCE = {
         "", ", socks", ", whitefield", ", white dots", ", black dots" };
 
+    /**
+     * Horse appearances returned by getAppearance(), indexed by Horse.Color
+     * and Horse.Style ordinal, so that no String is built per call.
+     */
+    private static final String[][] HORSE_APPEARANCES = new String[COLOR_TO_APPEARANCE.length][STYLE_TO_APPEARANCE.length];
+    static {
+        for (int color = 0; color < COLOR_TO_APPEARANCE.length; ++color) {
+            for (int style = 0; style < STYLE_TO_APPEARANCE.length; ++style) {
+                HORSE_APPEARANCES[color][style] = COLOR_TO_APPEARANCE[color] + STYLE_TO_APPEARANCE[style];
+            }
+        }
+    }
+
+    /**
+     * Llama appearances returned by getAppearance(), indexed by Llama.Color
+     * ordinal.
+     */
+    private static final String[] LLAMA_APPEARANCES = new String[Llama.Color.values().length];
+    static {
+        for (Llama.Color colour : Llama.Color.values()) {
+            LLAMA_APPEARANCES[colour.ordinal()] = colour.name().toLowerCase() + " llama";
+        }
+    }
+
+    /**
+     * Names returned by entityTypeName(), indexed by EntityType ordinal and
+     * filled in on first use.
+     */
+    private static final String[] ENTITY_TYPE_NAMES = new String[EntityType.values().length];
+
 } // class Util
\ No newline at end of file
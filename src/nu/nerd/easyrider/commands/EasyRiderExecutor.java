@@ -1,10 +1,14 @@
 package nu.nerd.easyrider.commands;
 
+import java.util.Arrays;
+
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 
+import nu.nerd.easyrider.Ability;
 import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.db.HorseStats;
 
 // ----------------------------------------------------------------------------
 /**
@@ -16,7 +20,7 @@ public class EasyRiderExecutor extends ExecutorBase {
      * Default constructor.
      */
     public EasyRiderExecutor() {
-        super("easyrider", "reload", "migrate", "help");
+        super("easyrider", "reload", "migrate", "stats", "help");
     }
 
     // ------------------------------------------------------------------------
@@ -35,9 +39,52 @@ public class EasyRiderExecutor extends ExecutorBase {
         } else if (args.length == 2 && args[0].equalsIgnoreCase("migrate")) {
             EasyRider.DB.migrate(sender, args[1]);
             return true;
+        } else if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            showStats(sender);
+            return true;
         } else {
             sender.sendMessage(ChatColor.RED + "Invalid command. Type \"/" + getName().toLowerCase() + " help\" for help.");
             return true;
         }
     }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show statistics of all horses in the database.
+     *
+     * @param sender the command sender.
+     */
+    protected void showStats(CommandSender sender) {
+        long start = System.nanoTime();
+        HorseStats stats = EasyRider.DB.getStats();
+        int[] speedLevels = stats.getLevelColumn(EasyRider.CONFIG.SPEED);
+        int trainable = stats.count(slot -> speedLevels[slot] > 0);
+        int owners = stats.countOwners();
+        long abandonedMillis = EasyRider.CONFIG.ABANDONED_DAYS * 24L * 60 * 60 * 1000;
+        int abandoned = stats.countAbandoned(System.currentTimeMillis(), abandonedMillis);
+
+        sender.sendMessage(ChatColor.GOLD + "Horses: " + ChatColor.YELLOW + stats.size() +
+                           ChatColor.GOLD + " (" + ChatColor.YELLOW + trainable + ChatColor.GOLD + " trainable), owners: " +
+                           ChatColor.YELLOW + owners + ChatColor.GOLD + ", abandoned: " + ChatColor.YELLOW + abandoned);
+        int coldHorses = EasyRider.DB.getColdHorseCount();
+        if (coldHorses != 0) {
+            sender.sendMessage(ChatColor.GOLD + "Evicted from memory (included above): " + ChatColor.YELLOW + coldHorses);
+        }
+        for (Ability ability : Arrays.asList(EasyRider.CONFIG.SPEED, EasyRider.CONFIG.JUMP, EasyRider.CONFIG.HEALTH)) {
+            int[] histogram = stats.getLevelHistogram(ability);
+            StringBuilder message = new StringBuilder();
+            message.append(ChatColor.GOLD).append(ability.getDisplayName()).append(" levels:");
+            for (int level = 1; level < histogram.length; ++level) {
+                if (histogram[level] != 0) {
+                    message.append(' ').append(ChatColor.YELLOW).append(level);
+                    message.append(ChatColor.GOLD).append('x').append(histogram[level]);
+                }
+            }
+            sender.sendMessage(message.toString());
+        }
+
+        if (EasyRider.CONFIG.DEBUG_SCANS) {
+            EasyRider.PLUGIN.getLogger().info("Stats scan took " + (System.nanoTime() - start) * 0.001 + " microseconds.");
+        }
+    }
 } // class EasyRiderExecutor
\ No newline at end of file
@@ -3,6 +3,7 @@ package nu.nerd.easyrider.commands;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 import org.bukkit.command.Command;
@@ -11,6 +12,9 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 
+import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.db.SavedHorse;
+
 // ----------------------------------------------------------------------------
 /**
  * Abstract base class for command executors.
@@ -78,6 +82,54 @@ public abstract class ExecutorBase implements CommandExecutor, TabCompleter {
         return completions;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Add completions of the names of a player's horses to a list.
+     *
+     * Horse names may contain spaces, so the name is taken to be all arguments
+     * from the specified index to the end, and only the part of each matching
+     * name that replaces the last argument is added.
+     *
+     * @param completions the list of completions.
+     * @param ownerUuid the owning player's UUID.
+     * @param args the command arguments.
+     * @param firstArg the index of the first argument that is part of the
+     *        name.
+     * @param allowSpaces if false, names containing spaces are not completed.
+     */
+    protected static void completeHorseNames(List<String> completions, UUID ownerUuid, String[] args,
+                                             int firstArg, boolean allowSpaces) {
+        if (args.length <= firstArg) {
+            return;
+        }
+
+        String typed = String.join(" ", Arrays.copyOfRange(args, firstArg, args.length));
+        int offset = typed.length() - args[args.length - 1].length();
+        for (SavedHorse savedHorse : EasyRider.DB.findOwnedHorsesByName(ownerUuid, typed)) {
+            String name = savedHorse.getDisplayName();
+            if ((allowSpaces || name.indexOf(' ') < 0) && name.length() >= offset) {
+                String completion = name.substring(offset);
+                if (!completions.contains(completion)) {
+                    completions.add(completion);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add completions of the UUIDs of a player's horses to a list.
+     *
+     * @param completions the list of completions.
+     * @param ownerUuid the owning player's UUID.
+     * @param prefix the UUID prefix typed so far.
+     */
+    protected static void completeHorseUuids(List<String> completions, UUID ownerUuid, String prefix) {
+        for (SavedHorse savedHorse : EasyRider.DB.findOwnedHorsesByUUID(ownerUuid, prefix)) {
+            completions.add(savedHorse.getUuid().toString());
+        }
+    }
+
     // ------------------------------------------------------------------------
     /**
      * The name of this command, without the /.
@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -211,4 +212,24 @@ public class HorseAccessExecutor extends ExecutorBase {
                                       ChatColor.GRAY + String.join(" ", savedHorse.getAccessList()));
         }
     }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.commands.ExecutorBase#onTabComplete(org.bukkit.command.CommandSender,
+     *      org.bukkit.command.Command, java.lang.String, java.lang.String[])
+     *
+     *      Complete the single word names and UUIDs of the sender's horses as
+     *      the first argument.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = super.onTabComplete(sender, command, alias, args);
+        if (sender instanceof Player && args.length == 1 &&
+            !args[0].startsWith("+") && !args[0].startsWith("-")) {
+            UUID ownerUuid = ((Player) sender).getUniqueId();
+            completeHorseNames(completions, ownerUuid, args, 0, false);
+            completeHorseUuids(completions, ownerUuid, args[0]);
+        }
+        return completions;
+    }
 } // class HorseAccessExecutor
@@ -1,8 +1,6 @@
 package nu.nerd.easyrider.commands;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -101,10 +99,7 @@ public class HorseFreeExecutor extends ExecutorBase {
                 uuidArg = args[0];
             }
 
-            ArrayList<SavedHorse> horses = EasyRider.DB.getOwnedHorses(owningPlayer);
-            List<SavedHorse> found = horses.stream()
-            .filter(h -> h.getUuid().toString().toLowerCase().startsWith(uuidArg))
-            .collect(Collectors.toList());
+            List<SavedHorse> found = EasyRider.DB.findOwnedHorsesByUUID(owningPlayer.getUniqueId(), uuidArg);
             if (found.size() == 0) {
                 sender.sendMessage(ChatColor.RED + owningPlayer.getName() +
                                    " doesn't own an animal with a UUID that begins with \"" + uuidArg + "\".");
@@ -124,4 +119,28 @@ public class HorseFreeExecutor extends ExecutorBase {
 
         return true;
     }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.commands.ExecutorBase#onTabComplete(org.bukkit.command.CommandSender,
+     *      org.bukkit.command.Command, java.lang.String, java.lang.String[])
+     *
+     *      Complete the UUIDs of the sender's horses, or those of the specified
+     *      online player if the sender has permission to free them.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = super.onTabComplete(sender, command, alias, args);
+        if (sender instanceof Player) {
+            if (args.length == 1) {
+                completeHorseUuids(completions, ((Player) sender).getUniqueId(), args[0]);
+            } else if (args.length == 2 && sender.hasPermission("easyrider.free-player")) {
+                Player owner = Bukkit.getPlayerExact(args[0]);
+                if (owner != null) {
+                    completeHorseUuids(completions, owner.getUniqueId(), args[1]);
+                }
+            }
+        }
+        return completions;
+    }
 } // class HorseFreeExecutor
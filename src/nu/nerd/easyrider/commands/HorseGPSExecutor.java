@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -188,6 +189,26 @@ public class HorseGPSExecutor extends ExecutorBase {
         }
     } // pointTo
 
+    // ------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.commands.ExecutorBase#onTabComplete(org.bukkit.command.CommandSender,
+     *      org.bukkit.command.Command, java.lang.String, java.lang.String[])
+     *
+     *      Complete the names and UUIDs of the sender's horses.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = super.onTabComplete(sender, command, alias, args);
+        if (sender instanceof Player) {
+            UUID ownerUuid = ((Player) sender).getUniqueId();
+            completeHorseNames(completions, ownerUuid, args, 0, true);
+            if (args.length == 1) {
+                completeHorseUuids(completions, ownerUuid, args[0]);
+            }
+        }
+        return completions;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Set of default (vanilla Minecraft) worlds.
@@ -196,5 +217,4 @@ public class HorseGPSExecutor extends ExecutorBase {
      * it is implied by the dimension.
      */
     protected Set<String> DEFAULT_WORLD_NAMES = new HashSet<String>(Arrays.asList("world", "world_nether", "world_the_end"));
-
 } // class HorseGPSExecutor
@@ -84,6 +84,12 @@ public class HorseInfoExecutor extends ExecutorBase {
      */
     protected void showLevels(Player player, AbstractHorse abstractHorse) {
         SavedHorse savedHorse = EasyRider.DB.findOrAddHorse(abstractHorse);
+        if (savedHorse == null) {
+            player.sendMessage(ChatColor.RED + "That " + Util.entityTypeName(abstractHorse) +
+                               " could not be loaded from the database. Try again later.");
+            return;
+        }
+
         String type = Util.capitalise(Util.entityTypeName(abstractHorse));
         player.sendMessage(ChatColor.GOLD + type + ": " + ChatColor.YELLOW + abstractHorse.getUniqueId());
         AnimalTamer owner = abstractHorse.getOwner();
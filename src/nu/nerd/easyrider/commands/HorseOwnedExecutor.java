@@ -1,8 +1,8 @@
 package nu.nerd.easyrider.commands;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -118,11 +118,11 @@ public class HorseOwnedExecutor extends ExecutorBase {
      *
      * @param sender the command sender that receives the results.
      * @param owner the owner of the horses.
-     * @param savedHorses the horses, sorted by UUID.
+     * @param savedHorses the horses, in display order.
      * @param page the 1-based page to show.
      */
     protected void listHorses(CommandSender sender, OfflinePlayer owner,
-                              ArrayList<SavedHorse> savedHorses, final int page) {
+                              List<SavedHorse> savedHorses, final int page) {
         final int PAGE_SIZE = 4;
         final int start = (page - 1) * PAGE_SIZE;
         final int end = Math.min(savedHorses.size(), start + PAGE_SIZE);
@@ -65,6 +65,8 @@ public class HorseSwapExecutor extends ExecutorBase {
                                 // attributes will be updated at that time.
                                 originalHorse.setOutdatedAttributes(true);
                                 newHorse.swapTrainingStats(originalHorse);
+                                EasyRider.DB.updateRankings(newHorse);
+                                EasyRider.DB.updateRankings(originalHorse);
                                 newHorse.updateAllAttributes((AbstractHorse) event.getRightClicked());
                                 sender.sendMessage(ChatColor.GOLD + "Horse " +
                                                    originalHorse.getUuid() + " has swapped stats with " +
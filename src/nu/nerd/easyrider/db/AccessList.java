@@ -0,0 +1,255 @@
+package nu.nerd.easyrider.db;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable set of the UUIDs of players permitted to access a horse.
+ *
+ * The UUIDs are stored as a sorted array of (most significant bits, least
+ * significant bits) pairs, so that membership is tested with a binary search
+ * over primitive longs.
+ *
+ * Instances are interned: all horses with identical access lists share the
+ * same instance, which is typical when an owner grants the same friends access
+ * to all of their horses. Modifications return a different (interned)
+ * instance rather than changing the original. The pool only weakly references
+ * its instances, so lists that are no longer used are reclaimed.
+ *
+ * Instances can be created and queried from any thread.
+ */
+public final class AccessList {
+    /**
+     * The empty access list.
+     */
+    public static final AccessList EMPTY = new AccessList(new long[0]);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the interned access list containing the specified UUIDs.
+     *
+     * @param uuids the player UUIDs; duplicates are ignored.
+     * @return the interned access list.
+     */
+    public static AccessList of(Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] bits = new long[2 * uuids.size()];
+        int count = 0;
+        for (UUID uuid : uuids) {
+            bits[2 * count] = uuid.getMostSignificantBits();
+            bits[2 * count + 1] = uuid.getLeastSignificantBits();
+            ++count;
+        }
+        return intern(sortUnique(bits, count));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified player UUID is in this list.
+     *
+     * @param uuid the player's UUID.
+     * @return true if the specified player UUID is in this list.
+     */
+    public boolean contains(UUID uuid) {
+        return indexOf(_bits, _bits.length / 2, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of UUIDs in this list.
+     *
+     * @return the number of UUIDs in this list.
+     */
+    public int size() {
+        return _bits.length / 2;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this list is empty.
+     *
+     * @return true if this list is empty.
+     */
+    public boolean isEmpty() {
+        return _bits.length == 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an access list containing the UUIDs in this list and the
+     * specified UUIDs.
+     *
+     * @param uuids the UUIDs to add.
+     * @return the interned access list.
+     */
+    public AccessList with(Collection<UUID> uuids) {
+        ArrayList<UUID> all = new ArrayList<UUID>(toList());
+        all.addAll(uuids);
+        return of(all);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an access list containing the UUIDs in this list, except for the
+     * specified UUIDs.
+     *
+     * @param uuids the UUIDs to remove.
+     * @return the interned access list.
+     */
+    public AccessList without(Collection<UUID> uuids) {
+        ArrayList<UUID> remaining = new ArrayList<UUID>(toList());
+        remaining.removeAll(uuids);
+        return of(remaining);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUIDs in this list in ascending order.
+     *
+     * @return the UUIDs in this list in ascending order.
+     */
+    public List<UUID> toList() {
+        ArrayList<UUID> uuids = new ArrayList<UUID>(size());
+        for (int i = 0; i < _bits.length; i += 2) {
+            uuids.add(new UUID(_bits[i], _bits[i + 1]));
+        }
+        return uuids;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return _hashCode;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || (obj instanceof AccessList && Arrays.equals(_bits, ((AccessList) obj)._bits));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the canonical instance equal to a new list.
+     *
+     * @param bits the sorted, unique UUID bits.
+     * @return the interned access list.
+     */
+    private static AccessList intern(long[] bits) {
+        AccessList list = new AccessList(bits);
+        synchronized (POOL) {
+            WeakReference<AccessList> ref = POOL.get(list);
+            AccessList existing = (ref != null) ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+            POOL.put(list, new WeakReference<AccessList>(list));
+            return list;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sort UUID bit pairs and remove duplicates.
+     *
+     * @param bits the UUID bit pairs.
+     * @param count the number of pairs.
+     * @return a new array of sorted, unique pairs.
+     */
+    private static long[] sortUnique(long[] bits, int count) {
+        // Lists are short, so an insertion sort is fine.
+        long[] sorted = new long[2 * count];
+        int size = 0;
+        for (int i = 0; i < count; ++i) {
+            long msb = bits[2 * i];
+            long lsb = bits[2 * i + 1];
+            int index = indexOf(sorted, size, msb, lsb);
+            if (index < 0) {
+                int insert = -(index + 1);
+                System.arraycopy(sorted, 2 * insert, sorted, 2 * insert + 2, 2 * (size - insert));
+                sorted[2 * insert] = msb;
+                sorted[2 * insert + 1] = lsb;
+                ++size;
+            }
+        }
+        return (size == count) ? sorted : Arrays.copyOf(sorted, 2 * size);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Binary search for a UUID in sorted bit pairs.
+     *
+     * UUIDs are ordered by signed comparison of their bits, consistent with
+     * {@link UUID#compareTo(UUID)}.
+     *
+     * @param bits the sorted bit pairs.
+     * @param size the number of pairs to search.
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the index of the pair, or -(insertion point + 1) if not found.
+     */
+    private static int indexOf(long[] bits, int size, long msb, long lsb) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Long.compare(bits[2 * mid], msb);
+            if (cmp == 0) {
+                cmp = Long.compare(bits[2 * mid + 1], lsb);
+            }
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param bits the sorted, unique UUID bit pairs.
+     */
+    private AccessList(long[] bits) {
+        _bits = bits;
+        _hashCode = Arrays.hashCode(bits);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pool of interned instances, guarded by its own lock.
+     *
+     * Both keys and values are weakly referenced, so that an access list is
+     * dropped from the pool once no horse uses it.
+     */
+    private static final WeakHashMap<AccessList, WeakReference<AccessList>> POOL = new WeakHashMap<AccessList, WeakReference<AccessList>>();
+
+    /**
+     * Sorted (most significant bits, least significant bits) pairs.
+     */
+    private final long[] _bits;
+
+    /**
+     * Cached hash code.
+     */
+    private final int _hashCode;
+} // class AccessList
@@ -1,21 +1,35 @@
 package nu.nerd.easyrider.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.AbstractHorse;
 import org.bukkit.entity.AnimalTamer;
 import org.bukkit.entity.ChestedHorse;
 import org.bukkit.inventory.ItemStack;
 
+import nu.nerd.easyrider.Ability;
 import nu.nerd.easyrider.EasyRider;
 import nu.nerd.easyrider.Util;
 
@@ -23,17 +37,79 @@ import nu.nerd.easyrider.Util;
 /**
  * Encapsulates {@link SavedHorse} database access.
  * 
- * The current implementation makes no effort to save the database until the
- * save() method is called when the plugin is disabled.
+ * The database is saved periodically (if configured) and when the plugin is
+ * disabled. Only horses with unsaved changes are written on each save, along
+ * with the deletion of any horses removed since the previous save.
+ *
+ * Saves are performed in two stages: a snapshot (clone) of the changed horses
+ * is taken in the main thread, and then the snapshot is serialised and written
+ * to disk by a dedicated I/O thread. The {@link IHorseDBImpl} is only
+ * accessed by the I/O thread after the initial load.
+ *
+ * Between saves, changed horses are periodically appended to a
+ * {@link HorseJournal}, which is replayed on load after a crash and truncated
+ * after each successful save. If any write of a save fails, the snapshot of
+ * that save is appended to the journal instead, so that it can be replayed,
+ * and the affected horses are marked dirty again in the main thread, to be
+ * retried by the next save. The journal is not truncated until every failed
+ * write has been retried successfully.
+ *
+ * Removed horses are deleted from the database in batches, periodically and
+ * whenever a full batch is pending, so that the number of removed horses held
+ * in memory stays bounded.
+ *
+ * Migration to a different implementation is performed in the background by a
+ * {@link HorseMigration}, during which all writes go to both implementations.
+ *
+ * If the implementation is an {@link IPagedHorseDBImpl} and the cache limits
+ * are configured, the cache is tiered: horses that have been idle for longer
+ * than the configured time, or the least recently active horses in excess of
+ * the configured maximum, are evicted from memory after each periodic save
+ * (see {@link #evictIdleHorses()}), unless their entity is loaded or their
+ * owner is online. Evicted ("cold") horses are faulted back in from the
+ * database when they are looked up in the main thread by
+ * {@link #findHorse(AbstractHorse)}, by owner or by UUID prefix, and are
+ * prefetched in the I/O thread when their entities load (see
+ * {@link #prefetchColdHorses(Collection)}). A horse that cannot be read stays
+ * cold; it is never replaced by a new horse.
+ * Until the writes queued before an eviction have completed, evicted horses
+ * are retained in a pending map, so that they are never faulted in from stale
+ * rows. Cold horses keep their entries in the rankings and the statistics
+ * store, which hold only their UUIDs and statistics, but are not included in
+ * snapshots.
+ *
+ * Code that needs to read many horses outside of the main thread should use a
+ * {@link HorseSnapshot}. Each horse in the cache has a change listener that
+ * records it the first time it is changed after a snapshot, so publishing the
+ * next snapshot only clones the changed horses and derives a new
+ * {@link PersistentHorseMap} from the previous one.
+ *
+ * Thread safety: HorseDB is confined to the main (server) thread, and is not
+ * synchronised. All methods that change horses or the indexes, and all
+ * methods not listed below, must only be called in the main thread. The
+ * exceptions, which may be called from any thread without locking, are:
+ * <ul>
+ * <li>{@link #findHorse(AbstractHorse)}, since the cache is a
+ * {@link UuidHorseMap}; cold horses are only faulted in when it is called in
+ * the main thread, and</li>
+ * <li>{@link #getOwnedHorses(UUID)}, which returns an immutable snapshot
+ * published by the main thread, excluding cold horses when called in another
+ * thread, and</li>
+ * <li>{@link #getSnapshot()}.</li>
+ * </ul>
+ * The state of a SavedHorse returned by those methods is only consistent in
+ * the main thread. Other threads should work on clones taken in the main
+ * thread, as saves do. The I/O thread only accesses the
+ * {@link IHorseDBImpl}, the {@link HorseJournal} and such clones.
  */
 public class HorseDB {
     // ------------------------------------------------------------------------
     /**
      * Constructor.
      *
-     * @param implType identifies the database implementation; one of "sqlite",
-     *        "yaml" or "sqlite+yaml". If an invalid identifier is specified,
-     *        the implementation defaults to "yaml".
+     * @param implType identifies the database implementation; one of "yaml",
+     *        "sqlite" or "binary". If an invalid identifier is specified, the
+     *        implementation defaults to "yaml".
      */
     public HorseDB(String implType) {
         _impl = makeHorseDBImpl(implType);
@@ -42,20 +118,39 @@ public class HorseDB {
             EasyRider.PLUGIN.getLogger().severe("Invalid database implementation: \"" +
                                                 implType + "\" defaulting to \"yaml\".");
         }
+        _journal = new HorseJournal(new File(EasyRider.PLUGIN.getDataFolder(), "horses.journal").toPath(),
+                                   EasyRider.PLUGIN.getLogger());
+        for (Ability ability : new Ability[] { EasyRider.CONFIG.SPEED, EasyRider.CONFIG.JUMP, EasyRider.CONFIG.HEALTH }) {
+            _rankings.put(ability, new HorseRanking(ability));
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
      * Find the specified AbstractHorse in the database cache, adding it as
      * necessary.
+     *
+     * A horse that has been evicted from the cache, but could not be read back
+     * from the database, is not added, since saving a new horse would
+     * overwrite its row.
      * 
      * @param abstractHorse the AbstractHorse entity.
+     * @return the database state of the horse, or null if it is evicted and
+     *         could not be loaded.
      */
-    public synchronized SavedHorse findOrAddHorse(AbstractHorse abstractHorse) {
+    public SavedHorse findOrAddHorse(AbstractHorse abstractHorse) {
         SavedHorse savedHorse = findHorse(abstractHorse);
-        if (savedHorse == null) {
+        if (savedHorse == null && !isCold(abstractHorse.getUniqueId())) {
             savedHorse = new SavedHorse(abstractHorse);
-            _cache.put(savedHorse.getUuid(), savedHorse);
+            _cache.put(savedHorse);
+            _uuidIndex.add(savedHorse);
+            _stats.add(savedHorse);
+            savedHorse.setChangeListener(_snapshotChangeListener);
+            savedHorse.notifyChanged();
+
+            // A horse re-added before its pending deletion must not be deleted.
+            _removedHorses.remove(savedHorse.getUuid());
+            _journalRemovals.remove(savedHorse.getUuid());
 
             savedHorse.setDistanceTravelled(0);
             savedHorse.setDistanceJumped(0);
@@ -68,6 +163,8 @@ public class HorseDB {
             if (trainable) {
                 savedHorse.updateAllAttributes(abstractHorse);
             }
+            addOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+            updateRankings(savedHorse);
         }
         return savedHorse;
     }
@@ -77,11 +174,37 @@ public class HorseDB {
      * Return the SavedHorse corresponding to the in-game AbstractHorse entity,
      * or null if not stored in the database.
      * 
+     * This method may be called from any thread, but a horse that has been
+     * evicted from the cache is only loaded back in when it is called in the
+     * main thread.
+     *
      * @param abstractHorse the AbstractHorse to find.
-     * @return the corresponding database entry, or null if never saved.
+     * @return the corresponding database entry, or null if never saved or if
+     *         evicted and not loaded.
+     */
+    public SavedHorse findHorse(AbstractHorse abstractHorse) {
+        return findHorse(abstractHorse.getUniqueId());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the SavedHorse with the specified UUID, or null if not stored in
+     * the database.
+     *
+     * This method may be called from any thread, but a horse that has been
+     * evicted from the cache is only loaded back in when it is called in the
+     * main thread.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the corresponding database entry, or null if never saved or if
+     *         evicted and not loaded.
      */
-    public synchronized SavedHorse findHorse(AbstractHorse abstractHorse) {
-        return _cache.get(abstractHorse.getUniqueId());
+    public SavedHorse findHorse(UUID uuid) {
+        SavedHorse savedHorse = _cache.get(uuid);
+        if (savedHorse == null && Bukkit.isPrimaryThread()) {
+            savedHorse = loadColdHorse(uuid);
+        }
+        return savedHorse;
     }
 
     // --------------------------------------------------------------------------
@@ -89,16 +212,13 @@ public class HorseDB {
      * Return a list of all horses whose UUID begins with the specified prefix.
      *
      * @param uuidPrefix the case insensitive UUID prefix to search for.
-     * @return a list of all horses whose UUID begins with the specified prefix.
+     * @return a list of all horses whose UUID begins with the specified
+     *         prefix, in ascending UUID order.
      */
-    public synchronized List<SavedHorse> findHorsesByUUID(String uuidPrefix) {
-        uuidPrefix = uuidPrefix.toLowerCase();
+    public List<SavedHorse> findHorsesByUUID(String uuidPrefix) {
+        loadColdHorsesByUUID(uuidPrefix);
         ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
-        for (SavedHorse savedHorse : _cache.values()) {
-            if (savedHorse.getUuid().toString().startsWith(uuidPrefix)) {
-                matches.add(savedHorse);
-            }
-        }
+        _uuidIndex.findByPrefix(uuidPrefix, matches);
         return matches;
     }
 
@@ -106,78 +226,259 @@ public class HorseDB {
     /**
      * Return a deep copy of all SavedHorses in arbitrary order.
      *
-     * The returned list can be acted upon in other threads.
+     * This method must be called in the main thread, but the returned list can
+     * be acted upon in other threads. Code that only reads the horses should
+     * prefer {@link #getSnapshot()}, which doesn't copy every horse.
      *
      * @return a deep copy of all SavedHorses in arbitrary order.
      */
-    public synchronized ArrayList<SavedHorse> cloneAllHorses() {
+    public ArrayList<SavedHorse> cloneAllHorses() {
         ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>(_cache.size());
-        for (SavedHorse savedHorse : _cache.values()) {
+        _cache.forEach(savedHorse -> {
             try {
                 horses.add((SavedHorse) savedHorse.clone());
             } catch (CloneNotSupportedException ex) {
                 // Should never happen.
             }
-        }
+        });
         return horses;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the columnar store of the statistics of all horses, including
+     * cold horses, for whole-database scans and aggregates.
+     *
+     * The store must only be used in the main thread.
+     *
+     * @return the columnar statistics store.
+     */
+    public HorseStats getStats() {
+        return _stats;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the most recently published snapshot of all horses.
+     *
+     * This method may be called from any thread. Snapshots are published
+     * whenever the database is saved or the journal is flushed, and on demand
+     * by {@link #publishSnapshot()}.
+     *
+     * @return the most recently published snapshot of all horses.
+     */
+    public HorseSnapshot getSnapshot() {
+        return _snapshot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Publish a snapshot of the current state of all horses, and return it.
+     *
+     * This method must be called in the main thread. Only the horses changed,
+     * added or removed since the previous snapshot are examined, and the new
+     * snapshot shares everything else with the previous one. If nothing has
+     * changed, the previous snapshot is returned.
+     *
+     * @return the new snapshot.
+     */
+    public HorseSnapshot publishSnapshot() {
+        if (_snapshotChanges.isEmpty()) {
+            return _snapshot;
+        }
+
+        PersistentHorseMap horses = _snapshot.getHorses();
+        for (SavedHorse savedHorse : _snapshotChanges) {
+            savedHorse.clearChangeNotified();
+
+            // A horse that was removed and then re-added is a different
+            // instance, which is also in the list of changes.
+            SavedHorse current = _cache.get(savedHorse.getUuid());
+            if (current == savedHorse) {
+                try {
+                    horses = horses.put((SavedHorse) savedHorse.clone());
+                } catch (CloneNotSupportedException ex) {
+                    // Should never happen.
+                }
+            } else if (current == null) {
+                horses = horses.remove(savedHorse.getUuid());
+            }
+        }
+        _snapshotChanges.clear();
+        _snapshot = new HorseSnapshot(horses, _snapshot.getVersion() + 1, System.currentTimeMillis());
+        return _snapshot;
+    }
+
     // --------------------------------------------------------------------------
     /**
      * Remove the specified horse from the cache, and queue up deletion from the
      * database.
      *
+     * If a full batch of deletions is pending, it is purged immediately.
+     *
      * @param savedHorse the database state of the horse.
      */
-    public synchronized void removeHorse(SavedHorse savedHorse) {
+    public void removeHorse(SavedHorse savedHorse) {
         _cache.remove(savedHorse.getUuid());
+        _uuidIndex.remove(savedHorse.getUuid());
+        _stats.remove(savedHorse);
+        savedHorse.notifyChanged();
+        savedHorse.detach();
+        for (HorseRanking ranking : _rankings.values()) {
+            ranking.remove(savedHorse.getUuid());
+        }
         _removedHorses.put(savedHorse.getUuid(), savedHorse);
+        _journalRemovals.add(savedHorse.getUuid());
         removeOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+        if (_removedHorses.size() >= getPurgeBatchSize()) {
+            purgeRemovedHorses();
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return a non-null ArrayList<> of the horses owned by a player.
+     * Return a non-null, immutable list of the horses owned by a player.
      *
      * @param player the player.
-     * @return a non-null ArrayList<> of the horses owned by a player.
+     * @return a non-null, immutable list of the horses owned by a player.
      */
-    public ArrayList<SavedHorse> getOwnedHorses(OfflinePlayer player) {
+    public List<SavedHorse> getOwnedHorses(OfflinePlayer player) {
         return getOwnedHorses(player.getUniqueId());
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return a non-null ArrayList<> of the horses owned by the player with the
-     * specified UUID.
+     * Return a non-null, immutable list of the horses owned by the player with
+     * the specified UUID.
      *
      * The horses are ordered firstly by trainability (all trainable horses
      * before llamas), then by tamed time stamp (longest tamed first) and
-     * finally, all else being equal (unlikely) by UUID.
+     * finally, all else being equal (unlikely) by UUID. See
+     * {@link OwnedHorses#DISPLAY_ORDER}.
+     *
+     * The list is a snapshot that is not affected by subsequent changes of
+     * ownership. This method may be called from any thread, but the player's
+     * evicted horses are only loaded back in when it is called in the main
+     * thread.
      *
      * @param ownerUuid the owning player's UUID.
      * @return the horses owned by the player with the specified UUID.
      */
-    public ArrayList<SavedHorse> getOwnedHorses(UUID ownerUuid) {
-        // Remove horses that have changed to a different owner.
-        TreeSet<SavedHorse> horses = getOwnedHorsesSet(ownerUuid);
-        for (Iterator<SavedHorse> it = horses.iterator(); it.hasNext();) {
-            SavedHorse savedHorse = it.next();
-            if (!ownerUuid.equals(savedHorse.getOwnerUuid())) {
-                it.remove();
-            }
+    public List<SavedHorse> getOwnedHorses(UUID ownerUuid) {
+        if (Bukkit.isPrimaryThread()) {
+            loadOwnedHorses(ownerUuid);
         }
+        OwnedHorses horses = _ownedHorses.get(ownerUuid);
+        return (horses != null) ? horses.getView() : Collections.<SavedHorse> emptyList();
+    }
 
-        ArrayList<SavedHorse> sorted = new ArrayList<SavedHorse>(horses);
-        sorted.sort((h1, h2) -> {
-            if (h1.isTrainable() == h2.isTrainable()) {
-                int tamedComparison = Long.compare(h1.getLastTamed(), h2.getLastTamed());
-                return (tamedComparison == 0) ? h1.getUuid().compareTo(h2.getUuid()) : tamedComparison;
-            } else {
-                return h1.isTrainable() ? -1 : 1;
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horses owned by the player with the specified UUID whose
+     * display names begin with the specified prefix, ignoring case.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @param namePrefix the name prefix.
+     * @return the matching horses, in name order.
+     */
+    public List<SavedHorse> findOwnedHorsesByName(UUID ownerUuid, String namePrefix) {
+        loadOwnedHorses(ownerUuid);
+        ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
+        OwnedHorses horses = _ownedHorses.get(ownerUuid);
+        if (horses != null) {
+            horses.findByName(namePrefix, matches);
+        }
+        return matches;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horses owned by the player with the specified UUID whose
+     * UUIDs begin with the specified prefix, ignoring case.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @param uuidPrefix the UUID prefix.
+     * @return the matching horses, in UUID order.
+     */
+    public List<SavedHorse> findOwnedHorsesByUUID(UUID ownerUuid, String uuidPrefix) {
+        loadOwnedHorses(ownerUuid);
+        ArrayList<SavedHorse> matches = new ArrayList<SavedHorse>();
+        OwnedHorses horses = _ownedHorses.get(ownerUuid);
+        if (horses != null) {
+            horses.findByUuid(uuidPrefix, matches);
+        }
+        return matches;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ranking of all trainable horses by the specified ability.
+     *
+     * The ranking includes cold horses; use {@link #findHorse(UUID)} to load
+     * a ranked horse.
+     *
+     * The ranking must only be accessed in the main thread.
+     *
+     * @param ability the ability.
+     * @return the ranking, or null if the ability is not ranked.
+     */
+    public HorseRanking getRanking(Ability ability) {
+        return _rankings.get(ability);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the best rank in the specified ability of any horse owned by the
+     * player with the specified UUID.
+     *
+     * @param ability the ability.
+     * @param ownerUuid the owning player's UUID.
+     * @return the 0-based rank of the player's best horse, or -1 if the player
+     *         owns no ranked horses.
+     */
+    public int getBestRank(Ability ability, UUID ownerUuid) {
+        HorseRanking ranking = _rankings.get(ability);
+        int bestRank = -1;
+        if (ranking != null) {
+            for (SavedHorse savedHorse : getOwnedHorses(ownerUuid)) {
+                int rank = ranking.getRank(savedHorse.getUuid());
+                if (rank >= 0 && (bestRank < 0 || rank < bestRank)) {
+                    bestRank = rank;
+                }
             }
-        });
-        return sorted;
+        }
+        return bestRank;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the rank of a horse in the specified ability after its training
+     * effort has changed.
+     *
+     * Horses that are not trainable are not ranked. A horse that is not in the
+     * cache keeps the rank it had when it was evicted.
+     *
+     * @param ability the ability.
+     * @param savedHorse the database state of the horse.
+     */
+    public void updateRanking(Ability ability, SavedHorse savedHorse) {
+        HorseRanking ranking = _rankings.get(ability);
+        if (ranking != null && savedHorse.isTrainable() && _cache.get(savedHorse.getUuid()) == savedHorse) {
+            ranking.update(savedHorse);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Update the rank of a horse in all abilities, e.g. after its training
+     * stats have been swapped with another horse.
+     *
+     * @param savedHorse the database state of the horse.
+     */
+    public void updateRankings(SavedHorse savedHorse) {
+        for (Ability ability : _rankings.keySet()) {
+            updateRanking(ability, savedHorse);
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -241,191 +542,1206 @@ public class HorseDB {
         if (oldOwnerUuid != null && !oldOwnerUuid.equals(newOwnerUuid)) {
             removeOwnedHorse(oldOwnerUuid, savedHorse);
         }
-        addOwnedHorse(newOwnerUuid, savedHorse);
+
+        // Observing a change of owner updates the tamed time stamp, which
+        // determines the position of the horse in its new owner's index.
         savedHorse.observe(abstractHorse);
+        addOwnedHorse(newOwnerUuid, savedHorse);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Make a backup of the database, if that is possible (e.g. backed by a
-     * file).
+     * Ensure that all horses owned by the player with the specified UUID are
+     * in the cache, loading any that have been evicted.
+     *
+     * This is done when the player joins, so that the player's horses are
+     * resident while the player is online.
+     *
+     * @param ownerUuid the owning player's UUID.
      */
-    public synchronized void backup() {
-        _impl.backup();
+    public void loadOwnedHorses(UUID ownerUuid) {
+        if (!_coldOwnedCounts.containsKey(ownerUuid)) {
+            return;
+        }
+
+        // Evicted horses that may not have been written yet are taken from
+        // the pending map in preference to the database.
+        for (SavedHorse pending : new ArrayList<SavedHorse>(_pendingEvictions.values())) {
+            if (ownerUuid.equals(pending.getOwnerUuid())) {
+                loadColdHorse(pending.getUuid());
+            }
+        }
+        try {
+            for (SavedHorse savedHorse : ((IPagedHorseDBImpl) _impl).loadOwnedBy(ownerUuid)) {
+                // A horse still pending eviction now belongs to someone else.
+                if (isCold(savedHorse.getUuid()) && !_pendingEvictions.containsKey(savedHorse.getUuid())) {
+                    addColdHorseToCache(savedHorse);
+                }
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to load evicted horses of " + ownerUuid + ": " + ex.getMessage());
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Load all horses into the in-memory cache.
-     * 
-     * On the first run, initialise the schema.
+     * Load evicted horses back into the cache in the background, in
+     * anticipation of their being looked up.
      *
-     * Ownerless, abandoned horses are queued for removal from the database and
-     * are not loaded into the cache.
+     * This is done when their entities are loaded. Horses still in the pending
+     * map are reinstated immediately. The others are read in the I/O thread,
+     * after all writes queued so far, and added to the cache in a later tick,
+     * so that the main thread does not wait on the database. A horse that
+     * cannot be read stays cold, to be loaded on demand.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param uuids the UUIDs of the horses, which need not be cold.
      */
-    public synchronized void load() {
-        long now = System.currentTimeMillis();
-        for (SavedHorse savedHorse : _impl.loadAll()) {
-            if (savedHorse.isAbandoned() && savedHorse.getOwnerUuid() == null) {
-                _removedHorses.put(savedHorse.getUuid(), savedHorse);
-            } else {
-                _cache.put(savedHorse.getUuid(), savedHorse);
-                addOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+    public void prefetchColdHorses(Collection<UUID> uuids) {
+        if (_coldHorses.isEmpty()) {
+            return;
+        }
+
+        ArrayList<UUID> coldUuids = new ArrayList<UUID>();
+        for (UUID uuid : uuids) {
+            if (_pendingEvictions.containsKey(uuid)) {
+                loadColdHorse(uuid);
+            } else if (isCold(uuid)) {
+                coldUuids.add(uuid);
             }
         }
+        if (coldUuids.isEmpty()) {
+            return;
+        }
 
-        long millis = System.currentTimeMillis() - now;
-        EasyRider.PLUGIN.getLogger().info("Database load time: " + millis + " ms");
+        IPagedHorseDBImpl impl = (IPagedHorseDBImpl) _impl;
+        _ioExecutor.execute(() -> {
+            try {
+                Collection<SavedHorse> horses = impl.load(coldUuids);
+                if (!EasyRider.PLUGIN.isEnabled()) {
+                    return;
+                }
+                Bukkit.getScheduler().runTask(EasyRider.PLUGIN, () -> {
+                    // Horses loaded on demand in the meantime are no longer
+                    // cold. A horse that has since been evicted again is in
+                    // the pending map until after this task runs.
+                    for (SavedHorse savedHorse : horses) {
+                        if (isCold(savedHorse.getUuid()) && !_pendingEvictions.containsKey(savedHorse.getUuid())) {
+                            addColdHorseToCache(savedHorse);
+                        }
+                    }
+                });
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to prefetch evicted horses: " + ex.getMessage());
+            }
+        });
     }
 
-    // --------------------------------------------------------------------------
+    // ------------------------------------------------------------------------
     /**
-     * Save all updated horses to the database.
+     * Load the cold horses among the specified horses back into the cache,
+     * reading the database with a single batched query.
+     *
+     * Cold horses that are missing from the database are forgotten. This
+     * method must be called in the main thread.
+     *
+     * @param uuids the UUIDs of the horses, which need not be cold.
+     * @return true if the database was read; false if it could not be read,
+     *         in which case the horses not yet loaded remain cold.
      */
-    public synchronized void save() {
-        long start = System.currentTimeMillis();
-        _impl.saveAll(_cache.values());
+    public boolean loadColdHorses(Collection<UUID> uuids) {
+        if (_coldHorses.isEmpty()) {
+            return true;
+        }
 
-        long millis = System.currentTimeMillis() - start;
-        EasyRider.PLUGIN.getLogger().info("Database save time: " + millis + " ms");
-    }
+        ArrayList<UUID> coldUuids = new ArrayList<UUID>();
+        for (UUID uuid : uuids) {
+            if (_pendingEvictions.containsKey(uuid)) {
+                loadColdHorse(uuid);
+            } else if (isCold(uuid)) {
+                coldUuids.add(uuid);
+            }
+        }
+        if (coldUuids.isEmpty()) {
+            return true;
+        }
 
-    // --------------------------------------------------------------------------
-    /**
-     * Delete all removed horses from the database.
-     */
-    public synchronized void purgeAllRemovedHorses() {
-        long start = System.nanoTime();
-        _impl.delete(_removedHorses.values());
-        _removedHorses.clear();
+        try {
+            for (SavedHorse savedHorse : ((IPagedHorseDBImpl) _impl).load(coldUuids)) {
+                addColdHorseToCache(savedHorse);
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to load evicted horses: " + ex.getMessage());
+            return false;
+        }
 
-        double millis = 1e-6 * (System.nanoTime() - start);
-        EasyRider.PLUGIN.getLogger().info("Database purge time: " + millis + " ms");
+        for (UUID uuid : coldUuids) {
+            if (isCold(uuid)) {
+                EasyRider.PLUGIN.getLogger().warning("Evicted horse " + uuid + " is missing from the database.");
+                dropColdHorse(uuid);
+            }
+        }
+        return true;
     }
 
-    // --------------------------------------------------------------------------
+    // ------------------------------------------------------------------------
     /**
-     * Migrate the database to the specified implementation.
+     * Evict idle horses from the cache, if the cache is limited and the
+     * database implementation supports loading horses on demand.
      *
-     * @param sender the command sender.
-     * @param string the database implementation type identifier.
+     * A horse is evicted if it has no unsaved changes, its entity is not
+     * loaded, its owner (if any) is offline and either it has not been
+     * observed or accessed for the configured idle time, or the number of
+     * cached horses exceeds the configured maximum. When the maximum is
+     * exceeded, the least recently active horses are evicted first. Horses are
+     * not evicted while a migration is in progress.
+     *
+     * This method must be called in the main thread, after a save, since only
+     * saved horses are evicted.
      */
-    public synchronized void migrate(CommandSender sender, String implType) {
-        String oldImplType = _impl.getType();
-        if (oldImplType.equals(implType)) {
-            sender.sendMessage(ChatColor.RED + "The database implementation is already: " + implType);
-            return;
-        }
-
-        IHorseDBImpl newImpl = makeHorseDBImpl(implType);
-        if (newImpl == null) {
-            sender.sendMessage(ChatColor.RED + "Invalid database implementation specified: " + implType);
+    public void evictIdleHorses() {
+        if (!isCacheLimited() || !(_impl instanceof IPagedHorseDBImpl) || _migration != null) {
             return;
         }
 
-        // Write current implementation to disk.
-        // Equivalent to save() and purgeAllRemovedHorses():
-        _impl.saveAll(_cache.values());
-        _impl.delete(_removedHorses.values());
-        _removedHorses.clear();
-
-        // Clear out any existing contents of the new database.
-        newImpl.delete(newImpl.loadAll());
+        long start = System.nanoTime();
+        ArrayList<SavedHorse> candidates = new ArrayList<SavedHorse>();
+        _cache.forEach(savedHorse -> {
+            if (!savedHorse.isNew() && !savedHorse.isDirty() &&
+                !EasyRider.REGISTRY.isLoaded(savedHorse.getUuid()) &&
+                (savedHorse.getOwnerUuid() == null || Bukkit.getPlayer(savedHorse.getOwnerUuid()) == null)) {
+                candidates.add(savedHorse);
+            }
+        });
+        candidates.sort((h1, h2) -> Long.compare(getLastActive(h1), getLastActive(h2)));
 
-        // Mark all horses in the cache as new (to be inserted), then save.
-        for (SavedHorse savedHorse : _cache.values()) {
-            savedHorse.setNew();
+        long idleMillis = EasyRider.CONFIG.CACHE_IDLE_HOURS * 60L * 60 * 1000;
+        long idleBefore = (idleMillis > 0) ? System.currentTimeMillis() - idleMillis : Long.MIN_VALUE;
+        int excess = (EasyRider.CONFIG.CACHE_MAX_HORSES > 0) ? _cache.size() - EasyRider.CONFIG.CACHE_MAX_HORSES : 0;
+        ArrayList<SavedHorse> evicted = new ArrayList<SavedHorse>();
+        for (SavedHorse savedHorse : candidates) {
+            if (getLastActive(savedHorse) >= idleBefore && evicted.size() >= excess) {
+                break;
+            }
+            evictHorse(savedHorse);
+            evicted.add(savedHorse);
         }
-        newImpl.saveAll(_cache.values());
 
-        // Update implementation reference and config setting.
-        _impl = newImpl;
-        EasyRider.CONFIG.DATABASE_IMPLEMENTATION = implType;
-        EasyRider.CONFIG.save();
+        if (!evicted.isEmpty()) {
+            // Once all writes queued so far are done, the database is up to
+            // date for these horses, unless they have since been reloaded and
+            // evicted again as different instances.
+            _ioExecutor.execute(() -> Bukkit.getScheduler().runTask(EasyRider.PLUGIN, () -> {
+                for (SavedHorse savedHorse : evicted) {
+                    if (_pendingEvictions.get(savedHorse.getUuid()) == savedHorse) {
+                        _pendingEvictions.remove(savedHorse.getUuid());
+                    }
+                }
+            }));
+        }
 
-        sender.sendMessage(ChatColor.GOLD + "Database migrated from " + oldImplType + " to " + implType + ".");
-    } // migrate
+        if (EasyRider.CONFIG.DEBUG_SAVES) {
+            double millis = 1e-6 * (System.nanoTime() - start);
+            EasyRider.PLUGIN.getLogger().info("Cache eviction time: " + millis + " ms, horses evicted: " +
+                                              evicted.size() + ", cached: " + _cache.size() +
+                                              ", evicted in total: " + _coldHorses.size());
+        }
+    }
 
     // ------------------------------------------------------------------------
     /**
-     * Create a database implementation of the specified type.
-     * 
-     * @param implType identifies the database implementation; one of "sqlite",
-     *        "yaml" or "sqlite+yaml".
-     * @return the implementation, or null if the type is invalid.
+     * Return the number of horses that have been evicted from the cache and
+     * not yet loaded back in.
+     *
+     * @return the number of evicted horses.
      */
-    protected synchronized IHorseDBImpl makeHorseDBImpl(String implType) {
-        switch (implType) {
-        case "yaml":
-            return new HorseDBImplWithYAML();
-        default:
-            return null;
-        }
+    public int getColdHorseCount() {
+        return _coldHorses.size();
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return a non-null reference to the mutable set of SavedHorses belonging
-     * to the player with the specified UUID.
-     * 
-     * We can't enforce ordering based on tamed time stamp here because that
-     * mutates and would necessitate periodically reindexing the tree.
-     * 
-     * @param ownerUuid the UUID of the owning player.
-     * @return the corresponding set of owned SavedHorses, which may be empty
-     *         but will never be null.
+     * Make a backup of the database, if that is possible (e.g. backed by a
+     * file).
+     *
+     * The backup is made in the I/O thread, after any pending writes, so that
+     * the caller does not wait for the database file to be copied.
      */
-    protected TreeSet<SavedHorse> getOwnedHorsesSet(UUID ownerUuid) {
-        TreeSet<SavedHorse> horses = _ownedHorses.get(ownerUuid);
-        if (horses == null) {
-            horses = new TreeSet<SavedHorse>((h1, h2) -> h1.getUuid().compareTo(h2.getUuid()));
-            _ownedHorses.put(ownerUuid, horses);
-        }
-        return horses;
+    public void backup() {
+        _ioExecutor.execute(() -> _impl.backup());
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Add the horse to the set of horses attributed to the owner.
+     * Load all horses into the in-memory cache.
+     * 
+     * On the first run, initialise the schema.
      *
-     * @param ownerUuid the owning player's UUID.
-     * @param savedHorse the database horse.
+     * Horses may be decoded in parallel by the implementation; the world
+     * lookups that must happen in the main thread are then done here, in one
+     * pass. Changes recorded in the journal since the last
+     * save are replayed on top of the loaded horses.
+     *
+     * Ownerless, abandoned horses are queued for removal from the database and
+     * are not loaded into the cache.
+     *
+     * If the cache is limited and the implementation can load horses on
+     * demand, only the horses that would not be evicted straight away, and
+     * those with journal records, are loaded in full; see
+     * {@link #loadActiveHorses(IPagedHorseDBImpl, Map)}.
      */
-    protected void addOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
-        if (ownerUuid == null) {
-            return;
+    public void load() {
+        long now = System.currentTimeMillis();
+        HashMap<UUID, SavedHorse> loaded = new HashMap<UUID, SavedHorse>();
+        if (!isCacheLimited() || !(_impl instanceof IPagedHorseDBImpl) ||
+            !loadActiveHorses((IPagedHorseDBImpl) _impl, loaded)) {
+            for (SavedHorse savedHorse : _impl.loadAll()) {
+                loaded.put(savedHorse.getUuid(), savedHorse);
+            }
+        }
+        int replayed = _journal.replay(loaded, _removedHorses);
+        if (replayed != 0) {
+            EasyRider.PLUGIN.getLogger().info("Replayed " + replayed + " journal records.");
+        }
+
+        _cache.ensureCapacity(loaded.size());
+        for (SavedHorse savedHorse : loaded.values()) {
+            savedHorse.resolveDeferred();
+            if (savedHorse.isAbandoned() && savedHorse.getOwnerUuid() == null) {
+                _removedHorses.put(savedHorse.getUuid(), savedHorse);
+            } else {
+                addToCache(savedHorse);
+            }
+        }
+
+        long millis = System.currentTimeMillis() - now;
+        EasyRider.PLUGIN.getLogger().info("Database load time: " + millis + " ms" +
+                                          (_coldHorses.isEmpty() ? "" : ", horses left evicted: " + _coldHorses.size()));
+        if (isCacheLimited() && !(_impl instanceof IPagedHorseDBImpl)) {
+            EasyRider.PLUGIN.getLogger().warning("The " + _impl.getType() +
+                                                 " database does not support cache limits; all horses will be kept in memory.");
         }
 
-        getOwnedHorsesSet(ownerUuid).add(savedHorse);
+        // Abandoned horses are deleted in the background.
+        purgeRemovedHorses();
+        publishSnapshot();
     }
 
-    // ------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
     /**
-     * Remove the specified horse from the set of horses recorded as owned by
-     * its current owner.
+     * Load in full only the horses that the cache limits would keep in
+     * memory, and record the rest as evicted.
      *
-     * @param ownerUuid the owning player's UUID.
-     * @param savedHorse the database horse.
+     * A summary of every horse is loaded to populate the statistics and the
+     * rankings, and to select the horses to keep: those active within the
+     * idle time, most recently active first, up to the maximum cached horses.
+     * Horses with journal records are always loaded, so that the journal can
+     * be replayed on top of them. Ownerless, abandoned horses that are not
+     * loaded are queued for removal.
+     *
+     * @param impl the implementation.
+     * @param loaded map from UUID to horses to add the fully loaded horses to.
+     * @return true if the horses were loaded; false if the database could not
+     *         be read, in which case the error has been logged and nothing has
+     *         been changed.
      */
-    protected void removeOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
-        if (ownerUuid == null) {
-            return;
+    protected boolean loadActiveHorses(IPagedHorseDBImpl impl, Map<UUID, SavedHorse> loaded) {
+        ArrayList<SavedHorse> summaries;
+        Collection<SavedHorse> active;
+        ArrayList<SavedHorse> inactive = new ArrayList<SavedHorse>();
+        try {
+            summaries = new ArrayList<SavedHorse>(impl.loadSummaries());
+
+            long idleMillis = EasyRider.CONFIG.CACHE_IDLE_HOURS * 60L * 60 * 1000;
+            long idleBefore = (idleMillis > 0) ? System.currentTimeMillis() - idleMillis : Long.MIN_VALUE;
+            int maxActive = (EasyRider.CONFIG.CACHE_MAX_HORSES > 0) ? EasyRider.CONFIG.CACHE_MAX_HORSES : Integer.MAX_VALUE;
+            Set<UUID> journalled = _journal.getUuids();
+            ArrayList<UUID> activeUuids = new ArrayList<UUID>(journalled);
+            summaries.sort((h1, h2) -> Long.compare(getLastActive(h2), getLastActive(h1)));
+            for (SavedHorse summary : summaries) {
+                if (journalled.contains(summary.getUuid())) {
+                    continue;
+                }
+                if (activeUuids.size() - journalled.size() < maxActive && getLastActive(summary) >= idleBefore) {
+                    activeUuids.add(summary.getUuid());
+                } else {
+                    inactive.add(summary);
+                }
+            }
+            active = impl.load(activeUuids);
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to load active horses, loading all horses: " + ex.getMessage());
+            return false;
         }
 
-        getOwnedHorsesSet(ownerUuid).remove(savedHorse);
-        savedHorse.clearPermittedPlayers();
+        for (SavedHorse savedHorse : active) {
+            loaded.put(savedHorse.getUuid(), savedHorse);
+        }
+        for (SavedHorse summary : inactive) {
+            if (summary.isAbandoned() && summary.getOwnerUuid() == null) {
+                _removedHorses.put(summary.getUuid(), summary);
+            } else {
+                addColdSummary(summary);
+            }
+        }
+        return true;
     }
 
-    // ------------------------------------------------------------------------
+    // --------------------------------------------------------------------------
     /**
-     * Database implementation.
+     * Record a horse that was not loaded at startup as evicted.
+     *
+     * Its entries in the statistics store and the rankings are made from its
+     * summary, which is not retained.
+     *
+     * @param summary the summary of the horse, from
+     *        {@link IPagedHorseDBImpl#loadSummaries()}.
      */
-    protected IHorseDBImpl _impl;
+    protected void addColdSummary(SavedHorse summary) {
+        UUID uuid = summary.getUuid();
+        UUID ownerUuid = summary.getOwnerUuid();
+        _stats.add(summary);
+        _stats.evict(summary);
+        if (summary.isTrainable()) {
+            for (HorseRanking ranking : _rankings.values()) {
+                ranking.update(summary);
+            }
+        }
+        _coldHorses.put(uuid, ownerUuid);
+        if (ownerUuid != null) {
+            _coldOwnedCounts.merge(ownerUuid, 1, Integer::sum);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Update the cached World used for horse locations in a world that has
+     * just been loaded.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param world the world.
+     */
+    public void onWorldLoad(World world) {
+        WorldIds.onWorldLoad(world);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Drop the cached World used for horse locations in a world that is being
+     * unloaded.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param world the world.
+     */
+    public void onWorldUnload(World world) {
+        WorldIds.onWorldUnload(world);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Save all updated horses to the database and delete all removed horses.
+     *
+     * Only horses that are new or have unsaved changes are written; they are
+     * found among the horses changed since the last save, without examining
+     * the rest of the cache. This method must be called in the main thread. It takes a snapshot of the changed
+     * horses and then hands them off to the I/O thread to be written. If the
+     * write fails, the horses are marked dirty again by
+     * {@link #retryFailedWrite(List, List)}.
+     */
+    public void save() {
+        long start = System.nanoTime();
+        publishSnapshot();
+        int retriedWrites = _retriedWrites;
+        _retriedWrites = 0;
+        HorseMigration migration = _migration;
+        IHorseDBImpl migrationTarget = flushMigration();
+        ArrayList<SavedHorse> dirtyHorses = new ArrayList<SavedHorse>();
+        for (SavedHorse savedHorse : _unsavedHorses) {
+            if (_cache.get(savedHorse.getUuid()) == savedHorse && (savedHorse.isNew() || savedHorse.isDirty())) {
+                try {
+                    dirtyHorses.add((SavedHorse) savedHorse.clone());
+                } catch (CloneNotSupportedException ex) {
+                    // Should never happen.
+                }
+                savedHorse.setClean();
+            }
+        }
+        _unsavedHorses.clear();
+
+        // Saved horses are also journal clean.
+        _unjournalledHorses.clear();
+        ArrayList<SavedHorse> removedHorses = new ArrayList<SavedHorse>(_removedHorses.values());
+        _removedHorses.clear();
+        _journalRemovals.clear();
+
+        double snapshotMillis = 1e-6 * (System.nanoTime() - start);
+        _ioExecutor.execute(() -> {
+            long writeStart = System.nanoTime();
+            boolean saved = _impl.write(dirtyHorses, removedHorses);
+            if (migrationTarget != null && !migrationTarget.write(dirtyHorses, removedHorses)) {
+                migration.setFailed();
+                saved = false;
+            }
+
+            if (EasyRider.CONFIG.DEBUG_SAVES) {
+                double writeMillis = 1e-6 * (System.nanoTime() - writeStart);
+                EasyRider.PLUGIN.getLogger().info("Database save snapshot time: " + snapshotMillis +
+                                                  " ms, write time: " + writeMillis + " ms, horses written: " +
+                                                  dirtyHorses.size() + ", horses removed: " + removedHorses.size());
+            }
+
+            // Failed writes retried by this save are resolved either way: if
+            // this save failed too, it will be retried in turn.
+            _failedWrites -= retriedWrites;
+            if (!saved) {
+                ++_failedWrites;
+                scheduleRetry(dirtyHorses, removedHorses);
+            }
+
+            if (saved && _failedWrites == 0) {
+                // The journal records changes up to the snapshot, now saved.
+                _journal.truncate();
+            } else {
+                // The journal may lag the snapshot; bring it up to date so
+                // that replaying it after a crash restores the snapshot.
+                journalSnapshot(dirtyHorses, removedHorses);
+            }
+        });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Schedule a call to {@link #retryFailedWrite(List, List)} in the main
+     * thread, after a write has failed.
+     *
+     * This method is called in the I/O thread.
+     *
+     * @param changedHorses snapshots of the horses that were not saved.
+     * @param removedHorses the horses that were not deleted.
+     */
+    protected void scheduleRetry(List<SavedHorse> changedHorses, List<SavedHorse> removedHorses) {
+        if (EasyRider.PLUGIN.isEnabled()) {
+            Bukkit.getScheduler().runTask(EasyRider.PLUGIN, () -> retryFailedWrite(changedHorses, removedHorses));
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Arrange for the horses of a failed write to be written by the next save.
+     *
+     * Horses that are still cached, or pending eviction, are marked dirty
+     * again. Horses whose deletion failed are queued for deletion again,
+     * unless they have since been re-added.
+     *
+     * This method is called in the main thread.
+     *
+     * @param changedHorses snapshots of the horses that were not saved.
+     * @param removedHorses the horses that were not deleted.
+     */
+    protected void retryFailedWrite(List<SavedHorse> changedHorses, List<SavedHorse> removedHorses) {
+        for (SavedHorse failed : changedHorses) {
+            UUID uuid = failed.getUuid();
+            SavedHorse savedHorse = _cache.get(uuid);
+            if (savedHorse == null && _pendingEvictions.containsKey(uuid)) {
+                // Its database row is stale, so it must not stay evicted.
+                savedHorse = loadColdHorse(uuid);
+            }
+            if (savedHorse != null) {
+                savedHorse.setDirty();
+            }
+        }
+        for (SavedHorse removed : removedHorses) {
+            if (_cache.get(removed.getUuid()) == null) {
+                _removedHorses.putIfAbsent(removed.getUuid(), removed);
+            }
+        }
+        ++_retriedWrites;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Append the state of horses whose save failed, and the removal of horses
+     * whose deletion failed, to the journal.
+     *
+     * This method is called in the I/O thread, with snapshots of the horses.
+     *
+     * @param changedHorses the changed horses.
+     * @param removedHorses the removed horses.
+     */
+    protected void journalSnapshot(List<SavedHorse> changedHorses, List<SavedHorse> removedHorses) {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        for (SavedHorse savedHorse : changedHorses) {
+            batch.addUpdate(savedHorse);
+        }
+        for (SavedHorse savedHorse : removedHorses) {
+            batch.addRemove(savedHorse.getUuid());
+        }
+        if (batch.getRecordCount() != 0) {
+            _journal.append(batch);
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Append the state of all horses changed since the last save or journal
+     * flush to the journal, and the UUIDs of all removed horses.
+     *
+     * This method must be called in the main thread. The records are written
+     * and synced to disk in the I/O thread as a single group commit. If the
+     * journal has grown past the configured size, the database is saved, which
+     * truncates the journal.
+     */
+    public void flushJournal() {
+        if (_journal.size() > EasyRider.CONFIG.JOURNAL_COMPACT_BYTES) {
+            save();
+            return;
+        }
+
+        publishSnapshot();
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        for (SavedHorse savedHorse : _unjournalledHorses) {
+            if (_cache.get(savedHorse.getUuid()) == savedHorse && savedHorse.isJournalDirty()) {
+                batch.addUpdate(savedHorse);
+                savedHorse.setJournalClean();
+            }
+        }
+        _unjournalledHorses.clear();
+        for (UUID uuid : _journalRemovals) {
+            batch.addRemove(uuid);
+        }
+        _journalRemovals.clear();
+
+        if (batch.getRecordCount() != 0) {
+            _ioExecutor.execute(() -> _journal.append(batch));
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Delete all removed horses from the database.
+     *
+     * This method must be called in the main thread. If the implementation
+     * (and migration target, if any) delete incrementally, the pending
+     * deletions are split into batches of at most the configured purge batch
+     * size, and each batch is deleted by a separate task in the I/O thread, so
+     * that other writes are not held up behind one large deletion. Otherwise,
+     * each batch would rewrite the whole database, so all pending deletions
+     * are written by one task.
+     */
+    public void purgeRemovedHorses() {
+        if (_removedHorses.isEmpty()) {
+            return;
+        }
+
+        HorseMigration migration = _migration;
+        IHorseDBImpl migrationTarget = flushMigration();
+        boolean incremental = _impl.hasIncrementalDeletes() &&
+                              (migrationTarget == null || migrationTarget.hasIncrementalDeletes());
+        int batchSize = incremental ? getPurgeBatchSize() : Integer.MAX_VALUE;
+        Iterator<SavedHorse> it = _removedHorses.values().iterator();
+        while (it.hasNext()) {
+            ArrayList<SavedHorse> batch = new ArrayList<SavedHorse>(Math.min(batchSize, _removedHorses.size()));
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+                it.remove();
+            }
+
+            _ioExecutor.execute(() -> {
+                long start = System.nanoTime();
+                if (!_impl.delete(batch)) {
+                    ++_failedWrites;
+                    journalSnapshot(Collections.<SavedHorse> emptyList(), batch);
+                    scheduleRetry(Collections.<SavedHorse> emptyList(), batch);
+                }
+                if (migrationTarget != null && !migrationTarget.delete(batch)) {
+                    migration.setFailed();
+                }
+
+                if (EasyRider.CONFIG.DEBUG_PURGES) {
+                    double millis = 1e-6 * (System.nanoTime() - start);
+                    EasyRider.PLUGIN.getLogger().info("Database purge time: " + millis + " ms, horses removed: " +
+                                                      batch.size());
+                }
+            });
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Save all changes and wait for all pending database writes to complete.
+     *
+     * This method is called when the plugin is disabled. No further saves are
+     * possible afterwards.
+     */
+    public void shutdown() {
+        save();
+        IHorseDBImpl migrationTarget = null;
+        if (_migration != null) {
+            EasyRider.PLUGIN.getLogger().warning("Migration to " + _migration.getTarget().getType() +
+                                                 " was interrupted; the database remains " +
+                                                 _migration.getSourceType() + ".");
+            migrationTarget = _migration.getTarget();
+            _migration = null;
+        }
+        _ioExecutor.shutdown();
+        try {
+            if (!_ioExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                EasyRider.PLUGIN.getLogger().severe("Timed out waiting for database writes to complete.");
+            }
+        } catch (InterruptedException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Interrupted waiting for database writes to complete.");
+            Thread.currentThread().interrupt();
+        }
+        _impl.close();
+        if (migrationTarget != null) {
+            migrationTarget.close();
+        }
+        _journal.close();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Migrate the database to the specified implementation.
+     *
+     * Horses are copied to the new implementation in the background, in time
+     * limited steps in the main thread and batched writes in the I/O thread,
+     * while all saves and deletions are written to both implementations. The
+     * sender is notified of progress and when the migration is complete.
+     *
+     * @param sender the command sender.
+     * @param string the database implementation type identifier.
+     */
+    public void migrate(CommandSender sender, String implType) {
+        if (_migration != null) {
+            sender.sendMessage(ChatColor.RED + "A migration to " + _migration.getTarget().getType() +
+                               " is already in progress.");
+            return;
+        }
+
+        String oldImplType = _impl.getType();
+        if (oldImplType.equals(implType)) {
+            sender.sendMessage(ChatColor.RED + "The database implementation is already: " + implType);
+            return;
+        }
+
+        IHorseDBImpl newImpl = makeHorseDBImpl(implType);
+        if (newImpl == null) {
+            sender.sendMessage(ChatColor.RED + "Invalid database implementation specified: " + implType);
+            return;
+        }
+
+        // The migration copies the cache, so it must contain every horse.
+        if (!loadAllColdHorses()) {
+            sender.sendMessage(ChatColor.RED + "Evicted horses could not be loaded; see the server log. " +
+                               "The database remains " + oldImplType + ".");
+            return;
+        }
+
+        // Flush pending changes to the current implementation.
+        save();
+
+        _migration = new HorseMigration(this, newImpl, sender);
+        _migration.start();
+    } // migrate
+
+    // --------------------------------------------------------------------------
+    /**
+     * Complete a migration once all horses have been copied.
+     *
+     * Outstanding changes are saved to both implementations, then the I/O
+     * thread switches to the new implementation after all previously queued
+     * writes, unless any write to the new implementation failed. This method
+     * is called in the main thread by the migration.
+     *
+     * @param migration the completed migration.
+     */
+    protected void finishMigration(HorseMigration migration) {
+        if (_migration != migration) {
+            return;
+        }
+
+        save();
+        _migration = null;
+
+        IHorseDBImpl oldImpl = _impl;
+        IHorseDBImpl newImpl = migration.getTarget();
+        String oldImplType = migration.getSourceType();
+        CommandSender sender = migration.getSender();
+        _ioExecutor.execute(() -> {
+            if (migration.isFailed()) {
+                Bukkit.getScheduler().runTask(EasyRider.PLUGIN, () -> {
+                    newImpl.close();
+                    sender.sendMessage(ChatColor.RED + "Migration to " + newImpl.getType() +
+                                       " failed; see the server log. The database remains " + oldImplType + ".");
+                });
+                return;
+            }
+
+            // Subsequent writes, queued after this task, use the new
+            // implementation.
+            _impl = newImpl;
+
+            Bukkit.getScheduler().runTask(EasyRider.PLUGIN, () -> {
+                oldImpl.close();
+                EasyRider.CONFIG.DATABASE_IMPLEMENTATION = newImpl.getType();
+                EasyRider.CONFIG.save();
+                sender.sendMessage(ChatColor.GOLD + "Database migrated from " + oldImplType + " to " +
+                                   newImpl.getType() + ".");
+            });
+        });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * If a migration is in progress, queue its partially filled batch of
+     * copied horses for writing, ahead of any other writes.
+     *
+     * @return the implementation being migrated to, which must also receive
+     *         all writes, or null if no migration is in progress.
+     */
+    protected IHorseDBImpl flushMigration() {
+        if (_migration == null) {
+            return null;
+        }
+        _migration.flushBatch();
+        return _migration.getTarget();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a database implementation of the specified type.
+     * 
+     * @param implType identifies the database implementation; one of "yaml",
+     *        "sqlite" or "binary".
+     * @return the implementation, or null if the type is invalid.
+     */
+    protected IHorseDBImpl makeHorseDBImpl(String implType) {
+        switch (implType) {
+        case "yaml":
+            return new HorseDBImplWithYAML();
+        case "sqlite":
+            return new HorseDBImplWithSQLite();
+        case "binary":
+            return new HorseDBImplWithBinary();
+        default:
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum number of horses deleted from the database in one
+     * batch.
+     *
+     * @return the maximum number of horses deleted in one batch; at least 1.
+     */
+    protected static int getPurgeBatchSize() {
+        return Math.max(1, EasyRider.CONFIG.PURGE_BATCH_SIZE);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the cache is configured to be limited in size or by idle
+     * time.
+     *
+     * @return true if the cache is configured to be limited.
+     */
+    protected static boolean isCacheLimited() {
+        return EasyRider.CONFIG.CACHE_IDLE_HOURS > 0 || EasyRider.CONFIG.CACHE_MAX_HORSES > 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time that a horse was last observed or accessed, whichever
+     * is later.
+     *
+     * @param savedHorse the horse.
+     * @return the time the horse was last active, per
+     *         System.currentTimeMillis().
+     */
+    protected static long getLastActive(SavedHorse savedHorse) {
+        return Math.max(savedHorse.getLastObserved(), savedHorse.getLastAccessed());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the horse with the specified UUID has been evicted from
+     * the cache and not yet loaded back in.
+     *
+     * @param uuid the UUID of the horse.
+     * @return true if the horse is cold.
+     */
+    protected boolean isCold(UUID uuid) {
+        return _coldHorses.containsKey(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse to the cache and all indexes.
+     *
+     * @param savedHorse the horse.
+     */
+    protected void addToCache(SavedHorse savedHorse) {
+        _cache.put(savedHorse);
+        _uuidIndex.add(savedHorse);
+        _stats.add(savedHorse);
+        savedHorse.setChangeListener(_snapshotChangeListener);
+        savedHorse.notifyChanged();
+        updateRankings(savedHorse);
+        addOwnedHorse(savedHorse.getOwnerUuid(), savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a horse from the cache and the indexes of SavedHorses, and record
+     * it as cold.
+     *
+     * Unlike {@link #removeHorse(SavedHorse)}, the horse is not changed and
+     * remains in the database. It is retained in the pending map until the
+     * writes queued before its eviction are done. The rankings and the
+     * statistics store keep the horse's entries, which do not reference the
+     * SavedHorse.
+     *
+     * @param savedHorse the horse.
+     */
+    protected void evictHorse(SavedHorse savedHorse) {
+        UUID uuid = savedHorse.getUuid();
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        _cache.remove(uuid);
+        _uuidIndex.remove(uuid);
+        _stats.evict(savedHorse);
+        savedHorse.notifyChanged();
+        savedHorse.detach();
+        unindexOwnedHorse(ownerUuid, savedHorse);
+
+        _coldHorses.put(uuid, ownerUuid);
+        if (ownerUuid != null) {
+            _coldOwnedCounts.merge(ownerUuid, 1, Integer::sum);
+        }
+        _pendingEvictions.put(uuid, savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a cold horse loaded from the database or the pending map back into
+     * the cache.
+     *
+     * @param savedHorse the horse.
+     */
+    protected void addColdHorseToCache(SavedHorse savedHorse) {
+        forgetColdHorse(savedHorse.getUuid());
+        savedHorse.resolveDeferred();
+        addToCache(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop recording the horse with the specified UUID as cold.
+     *
+     * @param uuid the UUID of the horse.
+     */
+    protected void forgetColdHorse(UUID uuid) {
+        UUID ownerUuid = _coldHorses.remove(uuid);
+        if (ownerUuid != null) {
+            _coldOwnedCounts.computeIfPresent(ownerUuid, (owner, count) -> (count > 1) ? count - 1 : null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Forget a cold horse that is missing from the database, removing its
+     * entries from the rankings and the statistics store.
+     *
+     * @param uuid the UUID of the horse.
+     */
+    protected void dropColdHorse(UUID uuid) {
+        forgetColdHorse(uuid);
+        _stats.removeEvicted(uuid);
+        for (HorseRanking ranking : _rankings.values()) {
+            ranking.remove(uuid);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the cold horse with the specified UUID back into the cache.
+     *
+     * A horse that is still in the pending map is reinstated as a clone, so
+     * that if it is evicted again, the new eviction is distinguishable from
+     * the old one.
+     *
+     * If the database cannot be read, the horse remains cold, so that it is
+     * not replaced by a new horse and can be loaded by a later attempt.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the horse, or null if it is not cold or could not be loaded.
+     */
+    protected SavedHorse loadColdHorse(UUID uuid) {
+        if (!isCold(uuid)) {
+            return null;
+        }
+
+        SavedHorse savedHorse = _pendingEvictions.remove(uuid);
+        if (savedHorse != null) {
+            try {
+                savedHorse = (SavedHorse) savedHorse.clone();
+            } catch (CloneNotSupportedException ex) {
+                // Should never happen.
+            }
+        } else {
+            try {
+                savedHorse = ((IPagedHorseDBImpl) _impl).load(uuid);
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Unable to load evicted horse " + uuid + ": " + ex.getMessage());
+                return null;
+            }
+        }
+
+        if (savedHorse == null) {
+            EasyRider.PLUGIN.getLogger().warning("Evicted horse " + uuid + " is missing from the database.");
+            dropColdHorse(uuid);
+            return null;
+        }
+        addColdHorseToCache(savedHorse);
+        return savedHorse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load all cold horses whose UUIDs begin with the specified prefix back
+     * into the cache.
+     *
+     * The UUIDs of cold horses are all in memory, so they are matched against
+     * the prefix without reading the database, which is only read, in one
+     * batched query by primary key, if any match.
+     *
+     * @param uuidPrefix the case insensitive UUID prefix.
+     */
+    protected void loadColdHorsesByUUID(String uuidPrefix) {
+        if (_coldHorses.isEmpty()) {
+            return;
+        }
+        long[] range = HorseUuidIndex.getPrefixRange(uuidPrefix);
+        if (range == null) {
+            return;
+        }
+
+        ArrayList<UUID> matches = new ArrayList<UUID>();
+        for (UUID uuid : _coldHorses.keySet()) {
+            if (HorseUuidIndex.isInPrefixRange(uuid, range)) {
+                matches.add(uuid);
+            }
+        }
+        if (!matches.isEmpty()) {
+            loadColdHorses(matches);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load all cold horses back into the cache.
+     *
+     * @return true if the database was read; false if it could not be read,
+     *         in which case the horses not yet loaded remain cold.
+     * @see #loadColdHorses(Collection)
+     */
+    protected boolean loadAllColdHorses() {
+        return loadColdHorses(new ArrayList<UUID>(_coldHorses.keySet()));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the horse to the set of horses attributed to the owner.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @param savedHorse the database horse.
+     */
+    protected void addOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
+        if (ownerUuid == null) {
+            return;
+        }
+
+        OwnedHorses horses = _ownedHorses.get(ownerUuid);
+        if (horses == null) {
+            horses = new OwnedHorses();
+            _ownedHorses.put(ownerUuid, horses);
+        }
+        horses.add(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the specified horse from the set of horses recorded as owned by
+     * its current owner.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @param savedHorse the database horse.
+     */
+    protected void removeOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
+        if (ownerUuid == null) {
+            return;
+        }
+
+        unindexOwnedHorse(ownerUuid, savedHorse);
+        savedHorse.clearPermittedPlayers();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the specified horse from the set of horses attributed to the
+     * owner, without changing the horse.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @param savedHorse the database horse.
+     */
+    protected void unindexOwnedHorse(UUID ownerUuid, SavedHorse savedHorse) {
+        if (ownerUuid == null) {
+            return;
+        }
+
+        OwnedHorses horses = _ownedHorses.get(ownerUuid);
+        if (horses != null) {
+            horses.remove(savedHorse);
+            if (horses.isEmpty()) {
+                _ownedHorses.remove(ownerUuid);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Maximum time to wait for pending database writes when shutting down.
+     */
+    protected static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Database implementation.
+     *
+     * Written by the I/O thread when migrating, hence volatile.
+     */
+    protected volatile IHorseDBImpl _impl;
+
+    /**
+     * The migration in progress, or null if none.
+     */
+    protected HorseMigration _migration;
+
+    /**
+     * Journal of changes since the last save.
+     */
+    protected HorseJournal _journal;
+
+    /**
+     * The number of failed writes whose horses have not yet been passed to a
+     * later save. The journal is only truncated when this is zero.
+     *
+     * Only accessed in the I/O thread.
+     */
+    protected int _failedWrites;
+
+    /**
+     * The number of failed writes whose horses have been queued for the next
+     * save by {@link #retryFailedWrite(List, List)}.
+     *
+     * Only accessed in the main thread.
+     */
+    protected int _retriedWrites;
+
+    /**
+     * UUIDs of horses removed since the last journal flush.
+     */
+    protected ArrayList<UUID> _journalRemovals = new ArrayList<UUID>();
+
+    /**
+     * Single thread that performs all database writes, in submission order.
+     */
+    protected ExecutorService _ioExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EasyRider-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Known horses.
      */
-    protected HashMap<UUID, SavedHorse> _cache = new HashMap<UUID, SavedHorse>();
+    protected UuidHorseMap _cache = new UuidHorseMap(0);
+
+    /**
+     * Horses in _cache, or removed from it, that have changed since the last
+     * snapshot was published; each horse is listed at most once.
+     */
+    protected ArrayList<SavedHorse> _snapshotChanges = new ArrayList<SavedHorse>();
+
+    /**
+     * Horses changed since the last save, which {@link #save()} examines
+     * instead of the whole cache. Horses that have since been removed or
+     * evicted, or saved by a previous save, are skipped.
+     *
+     * SavedHorse.hashCode() depends on mutable state, so this is an identity
+     * set.
+     */
+    protected Set<SavedHorse> _unsavedHorses = Collections.newSetFromMap(new IdentityHashMap<SavedHorse, Boolean>());
+
+    /**
+     * Horses changed since the last save or journal flush, which
+     * {@link #flushJournal()} examines instead of the whole cache.
+     */
+    protected Set<SavedHorse> _unjournalledHorses = Collections.newSetFromMap(new IdentityHashMap<SavedHorse, Boolean>());
+
+    /**
+     * The change listener of all horses in _cache.
+     *
+     * It is notified at most once per published snapshot, so every change to
+     * a horse reaches the sets of changed horses before the next save or
+     * journal flush, which publish a snapshot first.
+     */
+    protected Consumer<SavedHorse> _snapshotChangeListener = savedHorse -> {
+        _snapshotChanges.add(savedHorse);
+        _unsavedHorses.add(savedHorse);
+        _unjournalledHorses.add(savedHorse);
+    };
+
+    /**
+     * The most recently published snapshot.
+     */
+    protected volatile HorseSnapshot _snapshot = HorseSnapshot.EMPTY;
+
+    /**
+     * Columnar statistics of the horses in _cache and the cold horses.
+     */
+    protected HorseStats _stats = new HorseStats();
+
+    /**
+     * Index of the horses in _cache, by UUID prefix.
+     */
+    protected HorseUuidIndex _uuidIndex = new HorseUuidIndex();
+
+    /**
+     * Map from ability to the ranking of all trainable horses, in _cache or
+     * cold, by that ability.
+     */
+    protected HashMap<Ability, HorseRanking> _rankings = new HashMap<Ability, HorseRanking>();
+
+    /**
+     * Map from the UUID of each horse evicted from _cache to its owner's UUID
+     * (or null).
+     */
+    protected HashMap<UUID, UUID> _coldHorses = new HashMap<UUID, UUID>();
+
+    /**
+     * Map from owner UUID to the number of that player's horses in
+     * _coldHorses.
+     */
+    protected HashMap<UUID, Integer> _coldOwnedCounts = new HashMap<UUID, Integer>();
+
+    /**
+     * Evicted horses whose state may not yet have been written to the
+     * database, by UUID.
+     */
+    protected HashMap<UUID, SavedHorse> _pendingEvictions = new HashMap<UUID, SavedHorse>();
 
     /**
      * Horses that must be removed from the database.
@@ -433,12 +1749,12 @@ public class HorseDB {
     protected HashMap<UUID, SavedHorse> _removedHorses = new HashMap<UUID, SavedHorse>();
 
     /**
-     * Map from owner UUID to the set of horses owned by that player.
+     * Map from owner UUID to the horses owned by that player, in display order.
      *
-     * Each set of horses is a TreeSet<> that orders the entries in ascending
-     * order by AbstractHorse Entity UUID. The set may be transiently incorrect
-     * when ownership changes. Extra horses will be removed from the set when
-     * returned by {#link getOwnedHorses()}.
+     * Entries are updated whenever HorseDB observes or makes a change of
+     * ownership, and removed when the player owns no horses. The map is
+     * concurrent so that {@link #getOwnedHorses(UUID)} can be called from any
+     * thread.
      */
-    protected HashMap<UUID, TreeSet<SavedHorse>> _ownedHorses = new HashMap<UUID, TreeSet<SavedHorse>>();
+    protected ConcurrentHashMap<UUID, OwnedHorses> _ownedHorses = new ConcurrentHashMap<UUID, OwnedHorses>();
 } // class HorseDB
\ No newline at end of file
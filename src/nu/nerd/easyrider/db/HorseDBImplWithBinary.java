@@ -0,0 +1,663 @@
+package nu.nerd.easyrider.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * Storage of all horses in a compact, versioned binary snapshot file.
+ *
+ * The file layout (all values big-endian) is:
+ * <ul>
+ * <li>Header: magic number, format version, horse count and string count.</li>
+ * <li>String table: each string as a length followed by UTF-8 bytes. Names,
+ * display names, appearances and world names are stored here once and
+ * referenced from records by index, with -1 signifying null.</li>
+ * <li>Records: one fixed-width record per horse holding all numeric fields,
+ * string indices and the offset of the horse's variable length data.</li>
+ * <li>Variable length data: per horse, the permitted player UUIDs and the
+ * length-prefixed, compressed inventory blob (see
+ * {@link InventorySerializer}).</li>
+ * </ul>
+ *
+ * The file is read with positional reads rather than mapped, so that it can be
+ * replaced at any time. Each write streams a new snapshot: unchanged records
+ * and their variable length data are copied from the current file and only
+ * the saved horses are encoded, so no copy of the database is kept in memory.
+ */
+public class HorseDBImplWithBinary extends HorseDBImplWithFile {
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     */
+    @Override
+    public String getType() {
+        return "binary";
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
+     */
+    @Override
+    public Path getDBFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), "horses.dat").toPath();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     */
+    @Override
+    public Collection<SavedHorse> loadAll() {
+        ArrayList<SavedHorse> result = new ArrayList<SavedHorse>();
+        Path file = getDBFile();
+        if (!Files.exists(file)) {
+            return result;
+        }
+
+        Logger logger = EasyRider.PLUGIN.getLogger();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                logger.severe("Not a horse database: " + file);
+                return result;
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                logger.severe("Unsupported horse database version " + version + ": " + file);
+                return result;
+            }
+            int horseCount = buffer.getInt();
+            int stringCount = buffer.getInt();
+
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; ++i) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            // Records are decoded in parallel, each through its own view of
+            // the file contents.
+            int recordsStart = buffer.position();
+            int varStart = recordsStart + horseCount * RECORD_SIZE;
+            ArrayList<Integer> recordIndices = new ArrayList<Integer>(horseCount);
+            for (int i = 0; i < horseCount; ++i) {
+                recordIndices.add(i);
+            }
+            ForkJoinPool pool = makeLoadPool();
+            try {
+                result.addAll(decodeAll(pool, recordIndices, i -> {
+                    try {
+                        ByteBuffer record = buffer.duplicate();
+                        record.position(recordsStart + i * RECORD_SIZE);
+                        SavedHorse savedHorse = decodeHorse(record, strings, varStart);
+                        savedHorse.setClean();
+                        return savedHorse;
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage.
+                        logger.severe("Failed to load horse record " + i + ": " + ex.getMessage());
+                        return null;
+                    }
+                }));
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+        } catch (Exception ex) {
+            logger.severe("Unable to read binary database: " + file + ": " + ex.getMessage());
+        }
+        return result;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     */
+    @Override
+    public boolean saveAll(Collection<SavedHorse> collection) {
+        return write(collection, Collections.emptyList());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     */
+    @Override
+    public boolean delete(Collection<SavedHorse> collection) {
+        return write(Collections.emptyList(), collection);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#write(java.util.Collection,
+     *      java.util.Collection)
+     *
+     *      The file is written once for both the changes and the deletions.
+     */
+    @Override
+    public boolean write(Collection<SavedHorse> changed, Collection<SavedHorse> removed) {
+        try {
+            writeToDisk(changed, removed);
+            for (SavedHorse savedHorse : changed) {
+                savedHorse.setClean();
+            }
+            return true;
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to write binary database: " + getDBFile().toString() +
+                                                ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write a new snapshot comprising the records of the current file, except
+     * those of changed or removed horses, followed by the changed horses.
+     *
+     * Only the changed horses are encoded. The records and variable length
+     * data of the other horses are copied from the current file, with their
+     * string indices and variable length data offsets rewritten, so that the
+     * new string table contains only strings that are still referenced.
+     *
+     * @param changed the horses to save.
+     * @param removed the horses to delete.
+     * @throws IOException if the current file cannot be read or the new one
+     *         cannot be written.
+     */
+    protected void writeToDisk(Collection<SavedHorse> changed, Collection<SavedHorse> removed) throws IOException {
+        HashSet<UUID> replaced = new HashSet<UUID>();
+        for (SavedHorse savedHorse : changed) {
+            replaced.add(savedHorse.getUuid());
+        }
+        for (SavedHorse savedHorse : removed) {
+            replaced.add(savedHorse.getUuid());
+        }
+
+        Path file = getDBFile();
+        Path tempFile = getTempFile();
+        try (FileChannel oldChannel = Files.exists(file) ? FileChannel.open(file, StandardOpenOption.READ) : null;
+             FileChannel newChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE,
+                                                       StandardOpenOption.CREATE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Read the header and string table of the current file.
+            int oldCount = 0;
+            String[] oldStrings = new String[0];
+            long oldRecordsStart = HEADER_SIZE;
+            if (oldChannel != null) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(oldChannel)));
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("not a horse database");
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported version " + version);
+                }
+                oldCount = in.readInt();
+                oldStrings = new String[in.readInt()];
+                for (int i = 0; i < oldStrings.length; ++i) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    oldStrings[i] = new String(bytes, StandardCharsets.UTF_8);
+                    oldRecordsStart += 4 + bytes.length;
+                }
+            }
+            long oldVarStart = oldRecordsStart + (long) oldCount * RECORD_SIZE;
+            long oldVarSize = (oldChannel != null) ? oldChannel.size() - oldVarStart : 0;
+
+            // First pass: find the records to keep and intern the strings
+            // they reference, then those of the changed horses.
+            ArrayList<String> strings = new ArrayList<String>();
+            HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+            long[] oldVarOffsets = new long[oldCount];
+            BitSet kept = new BitSet(oldCount);
+            ByteBuffer chunk = ByteBuffer.allocate(RECORDS_PER_READ * RECORD_SIZE);
+            for (int first = 0; first < oldCount; first += RECORDS_PER_READ) {
+                int count = readRecords(oldChannel, chunk, oldRecordsStart, first, oldCount);
+                for (int i = 0; i < count; ++i) {
+                    int base = i * RECORD_SIZE;
+                    oldVarOffsets[first + i] = chunk.getLong(base + OFFSET_VAR);
+                    if (!replaced.contains(new UUID(chunk.getLong(base), chunk.getLong(base + 8)))) {
+                        kept.set(first + i);
+                        for (int s = 0; s < STRING_FIELDS; ++s) {
+                            intern(lookup(oldStrings, chunk.getInt(base + OFFSET_STRINGS + 4 * s)), strings, stringIndices);
+                        }
+                    }
+                }
+            }
+            for (SavedHorse savedHorse : changed) {
+                intern(savedHorse.getName(), strings, stringIndices);
+                intern(savedHorse.getDisplayName(), strings, stringIndices);
+                intern(savedHorse.getAppearance(), strings, stringIndices);
+                intern(savedHorse.getWorldName(), strings, stringIndices);
+            }
+
+            // Second pass: write the header, string table and records.
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(newChannel)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(kept.cardinality() + changed.size());
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            long varOffset = 0;
+            for (int first = 0; first < oldCount; first += RECORDS_PER_READ) {
+                int count = readRecords(oldChannel, chunk, oldRecordsStart, first, oldCount);
+                for (int i = 0; i < count; ++i) {
+                    int index = first + i;
+                    if (kept.get(index)) {
+                        int base = i * RECORD_SIZE;
+                        for (int s = 0; s < STRING_FIELDS; ++s) {
+                            int stringField = base + OFFSET_STRINGS + 4 * s;
+                            chunk.putInt(stringField,
+                                         intern(lookup(oldStrings, chunk.getInt(stringField)), strings, stringIndices));
+                        }
+                        chunk.putLong(base + OFFSET_VAR, varOffset);
+                        out.write(chunk.array(), base, RECORD_SIZE);
+                        varOffset += varLength(oldVarOffsets, index, oldVarSize);
+                    }
+                }
+            }
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (SavedHorse savedHorse : changed) {
+                record.clear();
+                encodeRecord(savedHorse, record, varOffset, strings, stringIndices);
+                out.write(record.array());
+                varOffset += varLength(savedHorse);
+            }
+
+            // Copy the variable length data of kept records in runs of
+            // consecutive records, then encode that of the changed horses.
+            out.flush();
+            for (int start = kept.nextSetBit(0); start >= 0;) {
+                int end = kept.nextClearBit(start);
+                long from = oldVarOffsets[start];
+                long to = (end < oldCount) ? oldVarOffsets[end] : oldVarSize;
+                transferFully(oldChannel, oldVarStart + from, to - from, newChannel);
+                start = kept.nextSetBit(end);
+            }
+            for (SavedHorse savedHorse : changed) {
+                encodeVar(savedHorse, out);
+            }
+            out.flush();
+            newChannel.force(false);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+        replaceWithTempFile(tempFile);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Read a chunk of at most {@link #RECORDS_PER_READ} consecutive records
+     * into a buffer.
+     *
+     * @param channel the file.
+     * @param chunk the buffer, with capacity for {@link #RECORDS_PER_READ}
+     *        records; the records are read from index 0.
+     * @param recordsStart the offset of the first record in the file.
+     * @param first the index of the first record to read.
+     * @param count the total number of records in the file.
+     * @return the number of records read.
+     * @throws IOException if the records cannot be read.
+     */
+    protected static int readRecords(FileChannel channel, ByteBuffer chunk, long recordsStart, int first, int count)
+    throws IOException {
+        int records = Math.min(RECORDS_PER_READ, count - first);
+        chunk.clear();
+        chunk.limit(records * RECORD_SIZE);
+        readFully(channel, chunk, recordsStart + (long) first * RECORD_SIZE);
+        return records;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Fill the remaining space in a buffer from a file.
+     *
+     * @param channel the file.
+     * @param buffer the buffer.
+     * @param position the offset in the file to read from.
+     * @throws IOException if the file cannot be read or is truncated.
+     */
+    protected static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException("truncated file");
+            }
+            position += count;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Append a range of one file to another.
+     *
+     * @param source the file to copy from.
+     * @param position the offset of the range in the source file.
+     * @param length the length of the range.
+     * @param destination the file to append to.
+     * @throws IOException if the range cannot be copied.
+     */
+    protected static void transferFully(FileChannel source, long position, long length, FileChannel destination)
+    throws IOException {
+        while (length > 0) {
+            long count = source.transferTo(position, length, destination);
+            if (count <= 0) {
+                throw new EOFException("truncated file");
+            }
+            position += count;
+            length -= count;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the length of the variable length data of a record in the
+     * current file.
+     *
+     * Variable length data is written in record order, so it extends to the
+     * start of the next record's data.
+     *
+     * @param varOffsets the variable length data offsets of all records.
+     * @param index the index of the record.
+     * @param varSize the total size of the variable length data.
+     * @return the length in bytes.
+     */
+    protected static long varLength(long[] varOffsets, int index, long varSize) {
+        long end = (index + 1 < varOffsets.length) ? varOffsets[index + 1] : varSize;
+        return end - varOffsets[index];
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the length of the variable length data of a horse, as written by
+     * {@link #encodeVar(SavedHorse, DataOutputStream)}.
+     *
+     * @param savedHorse the horse.
+     * @return the length in bytes.
+     */
+    protected static long varLength(SavedHorse savedHorse) {
+        return 4 + 16L * savedHorse.getPermittedPlayerUuids().size() +
+               4 + savedHorse.getObservedInventoryData().length;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Encode a horse as a fixed-width record.
+     *
+     * @param savedHorse the horse.
+     * @param record the buffer to write the record to.
+     * @param varOffset the offset of the horse's variable length data.
+     * @param strings the string table.
+     * @param stringIndices map from string to index in the string table.
+     */
+    protected static void encodeRecord(SavedHorse savedHorse, ByteBuffer record, long varOffset,
+                                       List<String> strings, HashMap<String, Integer> stringIndices) {
+        int flags = 0;
+        UUID uuid = savedHorse.getUuid();
+        record.putLong(uuid.getMostSignificantBits());
+        record.putLong(uuid.getLeastSignificantBits());
+
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        if (ownerUuid != null) {
+            flags |= FLAG_OWNED;
+            record.putLong(ownerUuid.getMostSignificantBits());
+            record.putLong(ownerUuid.getLeastSignificantBits());
+        } else {
+            record.putLong(0);
+            record.putLong(0);
+        }
+
+        record.putInt(intern(savedHorse.getName(), strings, stringIndices));
+        record.putInt(intern(savedHorse.getDisplayName(), strings, stringIndices));
+        record.putInt(intern(savedHorse.getAppearance(), strings, stringIndices));
+
+        String worldName = savedHorse.getWorldName();
+        if (worldName != null) {
+            flags |= FLAG_LOCATION;
+            record.putInt(intern(worldName, strings, stringIndices));
+            record.putDouble(savedHorse.getX());
+            record.putDouble(savedHorse.getY());
+            record.putDouble(savedHorse.getZ());
+            record.putFloat(savedHorse.getYaw());
+            record.putFloat(savedHorse.getPitch());
+        } else {
+            record.putInt(-1);
+            record.putDouble(0);
+            record.putDouble(0);
+            record.putDouble(0);
+            record.putFloat(0);
+            record.putFloat(0);
+        }
+
+        record.putInt(savedHorse.getEquipment());
+        record.putDouble(savedHorse.getDistanceTravelled());
+        record.putDouble(savedHorse.getDistanceJumped());
+        record.putInt(savedHorse.getNuggetsEaten());
+        record.putInt(savedHorse.getSpeedLevel());
+        record.putInt(savedHorse.getJumpLevel());
+        record.putInt(savedHorse.getHealthLevel());
+        record.putDouble(savedHorse.getHydration());
+        record.putLong(savedHorse.getLastAccessed());
+        record.putLong(savedHorse.getLastObserved());
+        record.putLong(savedHorse.getLastTamed());
+        if (savedHorse.getPublicHorse()) {
+            flags |= FLAG_PUBLIC;
+        }
+        record.putInt(flags);
+        record.putLong(varOffset);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Encode the variable length data of a horse.
+     *
+     * @param savedHorse the horse.
+     * @param var the stream of variable length data.
+     * @throws IOException if the data cannot be written.
+     */
+    protected static void encodeVar(SavedHorse savedHorse, DataOutputStream var) throws IOException {
+        List<UUID> permittedUuids = savedHorse.getPermittedPlayerUuids();
+        var.writeInt(permittedUuids.size());
+        for (UUID playerUuid : permittedUuids) {
+            var.writeLong(playerUuid.getMostSignificantBits());
+            var.writeLong(playerUuid.getLeastSignificantBits());
+        }
+        byte[] inventory = savedHorse.getObservedInventoryData();
+        var.writeInt(inventory.length);
+        var.write(inventory);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Decode a horse from the fixed-width record at the current position of
+     * the buffer, and its variable length data.
+     *
+     * This method may be called from any thread. The location's world is bound
+     * later, in the main thread.
+     *
+     * @param buffer the file contents.
+     * @param strings the string table.
+     * @param varStart the offset of the variable length data in the file.
+     * @return the horse.
+     * @throws IOException if the inventory cannot be decoded.
+     */
+    protected static SavedHorse decodeHorse(ByteBuffer buffer, String[] strings, int varStart) throws IOException {
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(new UUID(buffer.getLong(), buffer.getLong()));
+        UUID ownerUuid = new UUID(buffer.getLong(), buffer.getLong());
+        String name = lookup(strings, buffer.getInt());
+        String displayName = lookup(strings, buffer.getInt());
+        String appearance = lookup(strings, buffer.getInt());
+        String worldName = lookup(strings, buffer.getInt());
+        double x = buffer.getDouble();
+        double y = buffer.getDouble();
+        double z = buffer.getDouble();
+        float yaw = buffer.getFloat();
+        float pitch = buffer.getFloat();
+        savedHorse.setEquipment(buffer.getInt());
+        savedHorse.setDistanceTravelled(buffer.getDouble());
+        savedHorse.setDistanceJumped(buffer.getDouble());
+        savedHorse.setNuggetsEaten(buffer.getInt());
+        savedHorse.setSpeedLevel(buffer.getInt());
+        savedHorse.setJumpLevel(buffer.getInt());
+        savedHorse.setHealthLevel(buffer.getInt());
+        savedHorse.setHydration(buffer.getDouble());
+        savedHorse.setLastAccessed(buffer.getLong());
+        savedHorse.setLastObserved(buffer.getLong());
+        long lastTamed = buffer.getLong();
+        int flags = buffer.getInt();
+        long varOffset = buffer.getLong();
+
+        savedHorse.setOwnerUuid((flags & FLAG_OWNED) != 0 ? ownerUuid : null);
+        savedHorse.setLastTamed(lastTamed);
+        savedHorse.setName(name);
+        savedHorse.setDisplayName(displayName);
+        savedHorse.setAppearance(appearance);
+        if ((flags & FLAG_LOCATION) != 0) {
+            savedHorse.setUnboundLocation(worldName, x, y, z, yaw, pitch);
+        }
+        savedHorse.setPublicHorse((flags & FLAG_PUBLIC) != 0);
+
+        buffer.position(varStart + (int) varOffset);
+        int permittedCount = buffer.getInt();
+        ArrayList<UUID> permittedUuids = new ArrayList<UUID>(permittedCount);
+        for (int i = 0; i < permittedCount; ++i) {
+            permittedUuids.add(new UUID(buffer.getLong(), buffer.getLong()));
+        }
+        savedHorse.setPermittedPlayerUuids(permittedUuids);
+
+        byte[] inventory = new byte[buffer.getInt()];
+        buffer.get(inventory);
+        savedHorse.setObservedInventoryData(inventory);
+        return savedHorse;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the index of a string in the string table, adding it if
+     * necessary.
+     *
+     * @param s the string, or null.
+     * @param strings the string table.
+     * @param stringIndices map from string to index in the string table.
+     * @return the index, or -1 if the string is null.
+     */
+    protected static int intern(String s, List<String> strings, HashMap<String, Integer> stringIndices) {
+        if (s == null) {
+            return -1;
+        }
+        Integer index = stringIndices.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndices.put(s, index);
+        }
+        return index;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the string with the specified index in the string table.
+     *
+     * @param strings the string table.
+     * @param index the index, or -1 for null.
+     * @return the string, or null.
+     */
+    protected static String lookup(String[] strings, int index) {
+        return (index < 0) ? null : strings[index];
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Magic number at the start of the file: "ERHB".
+     */
+    protected static final int MAGIC = 0x45524842;
+
+    /**
+     * Current file format version.
+     */
+    protected static final int VERSION = 1;
+
+    /**
+     * Size of the file header in bytes.
+     */
+    protected static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of a fixed-width horse record in bytes.
+     */
+    protected static final int RECORD_SIZE = 160;
+
+    /**
+     * Offset in a record of the name, display name, appearance and world name
+     * string indices, which are consecutive.
+     */
+    protected static final int OFFSET_STRINGS = 32;
+
+    /**
+     * The number of string indices in a record.
+     */
+    protected static final int STRING_FIELDS = 4;
+
+    /**
+     * Offset in a record of the offset of the variable length data.
+     */
+    protected static final int OFFSET_VAR = 152;
+
+    /**
+     * The number of records read at once when rewriting the file.
+     */
+    protected static final int RECORDS_PER_READ = 256;
+
+    /**
+     * Record flag: the horse has an owner.
+     */
+    protected static final int FLAG_OWNED = 1;
+
+    /**
+     * Record flag: the horse has a known location.
+     */
+    protected static final int FLAG_LOCATION = 2;
+
+    /**
+     * Record flag: the horse is public.
+     */
+    protected static final int FLAG_PUBLIC = 4;
+
+} // class HorseDBImplWithBinary
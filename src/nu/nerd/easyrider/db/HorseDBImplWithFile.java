@@ -1,20 +1,31 @@
 package nu.nerd.easyrider.db;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import nu.nerd.easyrider.EasyRider;
 
@@ -32,6 +43,100 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
      */
     public abstract Path getDBFile();
 
+    // --------------------------------------------------------------------------
+    /**
+     * Create the thread pool used to decode horses in parallel when loading
+     * the database.
+     *
+     * The number of threads is set by the configuration, defaulting to the
+     * number of available processors.
+     *
+     * @return the pool, or null if horses should be decoded sequentially.
+     */
+    protected static ForkJoinPool makeLoadPool() {
+        int threads = EasyRider.CONFIG.LOAD_THREADS;
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return (threads > 1) ? new ForkJoinPool(threads) : null;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Decode a list of encoded horses, in parallel if a pool is specified.
+     *
+     * The decoder must not call any Bukkit API that requires the main thread.
+     * See {@link SavedHorse#resolveDeferred()}.
+     *
+     * @param pool the pool from {@link #makeLoadPool()}, or null to decode
+     *        sequentially.
+     * @param encoded the encoded horses.
+     * @param decoder a function that decodes one horse, returning null if it
+     *        could not be decoded.
+     * @return the decoded horses, in the same order as the encoded ones, with
+     *         failures omitted.
+     */
+    protected static <T> List<SavedHorse> decodeAll(ForkJoinPool pool, List<T> encoded,
+                                                    Function<T, SavedHorse> decoder) {
+        if (pool != null) {
+            try {
+                return pool.submit(() -> encoded.parallelStream().map(decoder)
+                .filter(Objects::nonNull).collect(Collectors.toList())).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Parallel load failed, loading sequentially: " + ex.getMessage());
+            }
+        }
+        return encoded.stream().map(decoder).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Replace the contents of the database file atomically.
+     *
+     * The data is written to a temporary file in the same directory, which is
+     * then renamed over the database file, so that a crash part way through
+     * the write leaves the previous database intact.
+     *
+     * @param data the new contents of the database file.
+     * @throws IOException if the file could not be written.
+     */
+    protected void writeAtomically(byte[] data) throws IOException {
+        Path tempFile = getTempFile();
+        Files.write(tempFile, data);
+        replaceWithTempFile(tempFile);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the path of the temporary file used to write a new version of the
+     * database file.
+     *
+     * @return the path of the temporary file.
+     */
+    protected Path getTempFile() {
+        Path databaseFile = getDBFile();
+        return databaseFile.resolveSibling(databaseFile.getFileName().toString() + ".tmp");
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Atomically rename the completely written temporary file over the
+     * database file.
+     *
+     * @param tempFile the temporary file, from {@link #getTempFile()}.
+     * @throws IOException if the file could not be renamed.
+     */
+    protected void replaceWithTempFile(Path tempFile) throws IOException {
+        Path databaseFile = getDBFile();
+        try {
+            Files.move(tempFile, databaseFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, databaseFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.IHorseDBImpl#backup()
@@ -40,7 +145,13 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
      *      the last hour.
      *
      *      The backup file will be called
-     *      "backups/<database-file>.yyyy-MM-dd-HH".
+     *      "backups/<database-file>.yyyy-MM-dd-HH.gz" and is a gzip-compressed
+     *      copy of the database file. If the database file has not changed
+     *      since the previous backup, the new backup is a hard link to the
+     *      previous one rather than another compressed copy.
+     *
+     *      This method is called in the HorseDB I/O thread, so the database
+     *      file is not written while it is being copied.
      */
     @Override
     public void backup() {
@@ -65,13 +176,40 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
         }
 
         Path databaseFile = getDBFile();
+        if (!Files.exists(databaseFile)) {
+            return;
+        }
+
         String baseName = databaseFile.getFileName().toString();
         Calendar date = Calendar.getInstance();
         try {
             String formattedDate = new SimpleDateFormat(".yyyy-MM-dd-HH").format(date.getTime());
-            Path backupFile = backupsDir.resolve(baseName + formattedDate);
+            Path backupFile = backupsDir.resolve(baseName + formattedDate + ".gz");
             if (!Files.exists(backupFile)) {
-                Files.copy(databaseFile, backupFile, StandardCopyOption.COPY_ATTRIBUTES);
+                long start = System.nanoTime();
+                long size = Files.size(databaseFile);
+                FileTime modified = Files.getLastModifiedTime(databaseFile);
+                boolean linked = false;
+                if (_lastBackupFile != null && Files.exists(_lastBackupFile) &&
+                    size == _lastBackupSize && modified.equals(_lastBackupModified)) {
+                    try {
+                        Files.createLink(backupFile, _lastBackupFile);
+                        linked = true;
+                    } catch (UnsupportedOperationException | IOException ex) {
+                        // Fall back to a compressed copy.
+                    }
+                }
+                if (!linked) {
+                    writeCompressedCopy(databaseFile, backupFile);
+                }
+
+                _lastBackupFile = backupFile;
+                _lastBackupSize = size;
+                _lastBackupModified = modified;
+                logger.info((linked ? "Linked unchanged database backup " : "Backed up database to ") +
+                            backupFile.getFileName() + ": " + size + " bytes" +
+                            (linked ? "" : " compressed to " + Files.size(backupFile) + " bytes") +
+                            " in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
             }
         } catch (Exception ex) {
             logger.severe("Error backing up database: " + ex.getMessage());
@@ -81,7 +219,7 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
         // Group backup files into one set per day based on filename.
         final int datedFilenameLength = baseName.length() + 11;
         TreeMap<String, TreeSet<File>> backupFilesByDate = new TreeMap<String, TreeSet<File>>();
-        Pattern p = Pattern.compile(baseName + "\\.\\d{4}-\\d{2}-\\d{2}-\\d{2}");
+        Pattern p = Pattern.compile(Pattern.quote(baseName) + "\\.\\d{4}-\\d{2}-\\d{2}-\\d{2}(\\.gz)?");
         for (File file : backupsDir.toFile().listFiles()) {
             String fileName = file.getName();
             Matcher m = p.matcher(fileName);
@@ -123,4 +261,44 @@ public abstract class HorseDBImplWithFile implements IHorseDBImpl {
             }
         }
     }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Write a gzip-compressed copy of a file.
+     *
+     * The copy is written to a temporary file that is renamed into place once
+     * complete, so that an interrupted backup is not mistaken for a good one.
+     *
+     * @param source the file to copy.
+     * @param destination the compressed copy.
+     * @throws IOException if the copy could not be written.
+     */
+    protected static void writeCompressedCopy(Path source, Path destination) throws IOException {
+        Path tempFile = destination.resolveSibling(destination.getFileName().toString() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile), 64 * 1024)) {
+            Files.copy(source, out);
+        } catch (IOException ex) {
+            Files.deleteIfExists(tempFile);
+            throw ex;
+        }
+        Files.move(tempFile, destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * The most recent backup file written by this instance, or null if none
+     * has been written yet.
+     */
+    protected Path _lastBackupFile;
+
+    /**
+     * The size of the database file when {@link #_lastBackupFile} was written.
+     */
+    protected long _lastBackupSize;
+
+    /**
+     * The modification time of the database file when
+     * {@link #_lastBackupFile} was written.
+     */
+    protected FileTime _lastBackupModified;
 } // class HorseDBImplWithFile
\ No newline at end of file
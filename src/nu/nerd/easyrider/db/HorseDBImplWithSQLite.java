@@ -0,0 +1,800 @@
+package nu.nerd.easyrider.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+
+import nu.nerd.easyrider.EasyRider;
+
+// --------------------------------------------------------------------------
+/**
+ * Storage of all horses in an SQLite database.
+ *
+ * The schema is normalised into three tables:
+ * <ul>
+ * <li>horses - one row per horse, holding all scalar attributes.</li>
+ * <li>permitted_players - one row per (horse, permitted player) pair.</li>
+ * <li>inventories - the observed inventory of each horse, as a compressed
+ * blob (see {@link InventorySerializer}).</li>
+ * </ul>
+ *
+ * Only the rows of the horses passed to {@link #saveAll(Collection)} are
+ * written, using batched prepared statements in a single transaction. New
+ * horses are inserted; other horses are updated, falling back to an insert if
+ * the row does not exist.
+ *
+ * Horses can also be loaded individually, in batches, by owner or by UUID
+ * prefix, so that idle horses can be evicted from the HorseDB cache (see
+ * {@link IPagedHorseDBImpl}). Loads in the main thread share one connection,
+ * and writes in the HorseDB I/O thread share another; both are kept open until
+ * {@link #close()}. The database uses write-ahead
+ * logging and a busy timeout, so that those loads and the writes in the I/O
+ * thread do not fail on each other's locks.
+ *
+ * The SQLite JDBC driver is provided by the server.
+ */
+public class HorseDBImplWithSQLite extends HorseDBImplWithFile implements IPagedHorseDBImpl {
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#getType()
+     */
+    @Override
+    public String getType() {
+        return "sqlite";
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.HorseDBImplWithFile#getDBFile()
+     */
+    @Override
+    public Path getDBFile() {
+        return new File(EasyRider.PLUGIN.getDataFolder(), "horses.db").toPath();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     */
+    @Override
+    public Collection<SavedHorse> loadAll() {
+        try {
+            return read(connection -> loadWhere(connection, null));
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe(ex.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IPagedHorseDBImpl#load(java.util.UUID)
+     */
+    @Override
+    public SavedHorse load(UUID uuid) throws IOException {
+        Collection<SavedHorse> horses = read(connection -> loadWhere(connection, "uuid = ?", uuid.toString()));
+        return horses.isEmpty() ? null : horses.iterator().next();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IPagedHorseDBImpl#load(java.util.Collection)
+     *
+     *      The horses are selected in batches of at most
+     *      {@link #LOAD_BATCH_SIZE} UUIDs.
+     */
+    @Override
+    public Collection<SavedHorse> load(Collection<UUID> uuids) throws IOException {
+        if (uuids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return read(connection -> {
+            ArrayList<SavedHorse> result = new ArrayList<SavedHorse>(uuids.size());
+            ArrayList<String> batch = new ArrayList<String>(LOAD_BATCH_SIZE);
+            Iterator<UUID> it = uuids.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next().toString());
+                if (batch.size() == LOAD_BATCH_SIZE || !it.hasNext()) {
+                    String placeholders = String.join(", ", Collections.nCopies(batch.size(), "?"));
+                    result.addAll(loadWhere(connection, "uuid IN (" + placeholders + ")",
+                                            batch.toArray(new String[batch.size()])));
+                    batch.clear();
+                }
+            }
+            return result;
+        });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IPagedHorseDBImpl#loadOwnedBy(java.util.UUID)
+     */
+    @Override
+    public Collection<SavedHorse> loadOwnedBy(UUID ownerUuid) throws IOException {
+        return read(connection -> loadWhere(connection, "owner_uuid = ?", ownerUuid.toString()));
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IPagedHorseDBImpl#loadSummaries()
+     *
+     *      Only the horses table is read.
+     */
+    @Override
+    public Collection<SavedHorse> loadSummaries() throws IOException {
+        return read(connection -> {
+            Logger logger = EasyRider.PLUGIN.getLogger();
+            ArrayList<SavedHorse> horses = new ArrayList<SavedHorse>();
+            try (PreparedStatement selectHorses = connection.prepareStatement("SELECT * FROM horses");
+                ResultSet rs = selectHorses.executeQuery()) {
+                while (rs.next()) {
+                    String uuid = rs.getString("uuid");
+                    try {
+                        SavedHorse savedHorse = loadHorse(rs);
+                        savedHorse.setClean();
+                        horses.add(savedHorse);
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage.
+                        logger.severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+                    }
+                }
+            }
+            return horses;
+        });
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#hasIncrementalDeletes()
+     */
+    @Override
+    public boolean hasIncrementalDeletes() {
+        return true;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#close()
+     */
+    @Override
+    public void close() {
+        closeReadConnection();
+        closeWriteConnection();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Close the connection of the HorseDB I/O thread, if open.
+     */
+    protected void closeWriteConnection() {
+        if (_writeConnection != null) {
+            try {
+                _writeConnection.close();
+            } catch (SQLException ex) {
+                // Nothing else to do.
+            }
+            _writeConnection = null;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Close the connection used for loads in the main thread, if open.
+     */
+    protected void closeReadConnection() {
+        if (_readConnection != null) {
+            try {
+                _readConnection.close();
+            } catch (SQLException ex) {
+                // Nothing else to do.
+            }
+            _readConnection = null;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * A database operation performed on a connection.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    protected interface Query<T> {
+        /**
+         * Perform the operation.
+         *
+         * @param connection the connection.
+         * @return the result.
+         * @throws SQLException if the operation failed.
+         */
+        T run(Connection connection) throws SQLException;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Run a read-only query on the connection owned by the calling thread: the
+     * connection kept open for loads in the main thread, or the writer
+     * connection in the HorseDB I/O thread.
+     *
+     * A query that fails because the database is busy is retried, up to
+     * {@link #BUSY_RETRIES} attempts in all. If the query still fails, the
+     * connection is closed, so that the next query opens a new one.
+     *
+     * @param query the query.
+     * @return the result of the query.
+     * @throws IOException if the database could not be read.
+     */
+    protected <T> T read(Query<T> query) throws IOException {
+        boolean mainThread = Bukkit.isPrimaryThread();
+        for (int attempt = 1;; ++attempt) {
+            try {
+                return query.run(mainThread ? getReadConnection() : getWriteConnection());
+            } catch (SQLException ex) {
+                if (isBusy(ex) && attempt < BUSY_RETRIES) {
+                    continue;
+                }
+                if (mainThread) {
+                    closeReadConnection();
+                } else {
+                    closeWriteConnection();
+                }
+                throw new IOException("Unable to read SQLite database: " + getDBFile().toString() + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the connection kept open for loads in the main thread, opening
+     * it if necessary.
+     *
+     * @return the connection.
+     * @throws SQLException if the database could not be opened.
+     */
+    protected Connection getReadConnection() throws SQLException {
+        if (_readConnection == null) {
+            _readConnection = openConnection(READ_BUSY_TIMEOUT_MILLIS);
+        }
+        return _readConnection;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return the connection kept open for the HorseDB I/O thread, opening it
+     * if necessary.
+     *
+     * @return the connection.
+     * @throws SQLException if the database could not be opened.
+     */
+    protected Connection getWriteConnection() throws SQLException {
+        if (_writeConnection == null) {
+            _writeConnection = openConnection();
+        }
+        return _writeConnection;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Load the horses matching a condition on the horses table, along with
+     * their permitted players and inventories.
+     *
+     * Horses whose rows cannot be decoded are logged and skipped, but a
+     * failed query is thrown to the caller, rather than returning only the
+     * horses read so far.
+     *
+     * @param connection the connection.
+     * @param condition the SQL condition, with ? placeholders for the
+     *        arguments, or null to load all horses.
+     * @param args the String arguments bound to the placeholders.
+     * @return the horses.
+     * @throws SQLException if the database could not be read.
+     */
+    protected Collection<SavedHorse> loadWhere(Connection connection, String condition, String... args) throws SQLException {
+        Logger logger = EasyRider.PLUGIN.getLogger();
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        String horseFilter = (condition != null) ? " WHERE " + condition : "";
+        String relatedFilter = (condition != null) ? " WHERE horse_uuid IN (SELECT uuid FROM horses" + horseFilter + ")" : "";
+        try (PreparedStatement selectHorses = prepare(connection, "SELECT * FROM horses" + horseFilter, args);
+            PreparedStatement selectPermitted = prepare(connection, "SELECT horse_uuid, player_uuid FROM permitted_players" +
+                                                                    relatedFilter, args);
+            PreparedStatement selectInventories = prepare(connection, "SELECT horse_uuid, contents FROM inventories" +
+                                                                      relatedFilter, args)) {
+            try (ResultSet rs = selectHorses.executeQuery()) {
+                while (rs.next()) {
+                    String uuid = rs.getString("uuid");
+                    try {
+                        SavedHorse savedHorse = loadHorse(rs);
+                        horses.put(savedHorse.getUuid(), savedHorse);
+                    } catch (Exception ex) {
+                        // Should not happen. Mitigate the damage.
+                        logger.severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+                    }
+                }
+            }
+
+            HashMap<UUID, ArrayList<UUID>> permittedUuids = new HashMap<UUID, ArrayList<UUID>>();
+            try (ResultSet rs = selectPermitted.executeQuery()) {
+                while (rs.next()) {
+                    String horseUuid = rs.getString("horse_uuid");
+                    String playerUuid = rs.getString("player_uuid");
+                    try {
+                        SavedHorse savedHorse = horses.get(UUID.fromString(horseUuid));
+                        if (savedHorse == null) {
+                            continue;
+                        }
+                        permittedUuids.computeIfAbsent(savedHorse.getUuid(), h -> new ArrayList<UUID>()).add(UUID.fromString(playerUuid));
+                    } catch (IllegalArgumentException ex) {
+                        logger.warning("Horse " + horseUuid + " could not load permitted player " + playerUuid);
+                    }
+                }
+            }
+
+            permittedUuids.forEach((uuid, playerUuids) -> horses.get(uuid).setPermittedPlayerUuids(playerUuids));
+
+            try (ResultSet rs = selectInventories.executeQuery()) {
+                while (rs.next()) {
+                    String horseUuid = rs.getString("horse_uuid");
+                    try {
+                        SavedHorse savedHorse = horses.get(UUID.fromString(horseUuid));
+                        if (savedHorse != null) {
+                            savedHorse.setObservedInventoryData(rs.getBytes("contents"));
+                        }
+                    } catch (Exception ex) {
+                        logger.warning("Horse " + horseUuid + " could not load inventory: " + ex.getMessage());
+                    }
+                }
+            }
+        }
+
+        for (SavedHorse savedHorse : horses.values()) {
+            savedHorse.setClean();
+        }
+        return horses.values();
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
+     */
+    @Override
+    public boolean saveAll(Collection<SavedHorse> collection) {
+        if (collection.isEmpty()) {
+            return true;
+        }
+
+        Logger logger = EasyRider.PLUGIN.getLogger();
+        try {
+            Connection connection = getWriteConnection();
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertHorse = connection.prepareStatement(INSERT_HORSE);
+                PreparedStatement updateHorse = connection.prepareStatement(UPDATE_HORSE);
+                PreparedStatement deletePermitted = connection.prepareStatement("DELETE FROM permitted_players WHERE horse_uuid = ?");
+                PreparedStatement insertPermitted = connection.prepareStatement("INSERT OR IGNORE INTO permitted_players (horse_uuid, player_uuid) VALUES (?, ?)");
+                PreparedStatement insertInventory = connection.prepareStatement("INSERT OR REPLACE INTO inventories (horse_uuid, contents) VALUES (?, ?)")) {
+
+                // Update existing horses first; any that turn out not to exist
+                // are inserted along with the new ones.
+                ArrayList<SavedHorse> updated = new ArrayList<SavedHorse>();
+                ArrayList<SavedHorse> inserted = new ArrayList<SavedHorse>();
+                for (SavedHorse savedHorse : collection) {
+                    if (savedHorse.isNew()) {
+                        inserted.add(savedHorse);
+                    } else {
+                        updated.add(savedHorse);
+                        bindHorse(updateHorse, savedHorse);
+                        updateHorse.addBatch();
+                    }
+                }
+                if (!updated.isEmpty()) {
+                    int[] counts = updateHorse.executeBatch();
+                    for (int i = 0; i < counts.length; ++i) {
+                        if (counts[i] == 0) {
+                            inserted.add(updated.get(i));
+                        }
+                    }
+                }
+
+                for (SavedHorse savedHorse : inserted) {
+                    bindHorse(insertHorse, savedHorse);
+                    insertHorse.addBatch();
+                }
+                if (!inserted.isEmpty()) {
+                    insertHorse.executeBatch();
+                }
+
+                for (SavedHorse savedHorse : collection) {
+                    String uuid = savedHorse.getUuid().toString();
+                    deletePermitted.setString(1, uuid);
+                    deletePermitted.addBatch();
+                    for (UUID playerUuid : savedHorse.getPermittedPlayerUuids()) {
+                        insertPermitted.setString(1, uuid);
+                        insertPermitted.setString(2, playerUuid.toString());
+                        insertPermitted.addBatch();
+                    }
+
+                    insertInventory.setString(1, uuid);
+                    insertInventory.setBytes(2, savedHorse.getObservedInventoryData());
+                    insertInventory.addBatch();
+                }
+                deletePermitted.executeBatch();
+                insertPermitted.executeBatch();
+                insertInventory.executeBatch();
+                connection.commit();
+
+                for (SavedHorse savedHorse : collection) {
+                    savedHorse.setClean();
+                }
+                return true;
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            logger.severe("Unable to write SQLite database: " + getDBFile().toString() + ": " + ex.getMessage());
+            closeWriteConnection();
+            return false;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
+     */
+    @Override
+    public boolean delete(Collection<SavedHorse> collection) {
+        if (collection.isEmpty()) {
+            return true;
+        }
+
+        try {
+            Connection connection = getWriteConnection();
+            connection.setAutoCommit(false);
+            try (PreparedStatement deleteHorse = connection.prepareStatement("DELETE FROM horses WHERE uuid = ?");
+                PreparedStatement deletePermitted = connection.prepareStatement("DELETE FROM permitted_players WHERE horse_uuid = ?");
+                PreparedStatement deleteInventory = connection.prepareStatement("DELETE FROM inventories WHERE horse_uuid = ?")) {
+                for (SavedHorse savedHorse : collection) {
+                    String uuid = savedHorse.getUuid().toString();
+                    deleteHorse.setString(1, uuid);
+                    deleteHorse.addBatch();
+                    deletePermitted.setString(1, uuid);
+                    deletePermitted.addBatch();
+                    deleteInventory.setString(1, uuid);
+                    deleteInventory.addBatch();
+                }
+                deleteHorse.executeBatch();
+                deletePermitted.executeBatch();
+                deleteInventory.executeBatch();
+                connection.commit();
+                return true;
+            } catch (SQLException ex) {
+                connection.rollback();
+                throw ex;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to delete from SQLite database: " + getDBFile().toString() +
+                                                ": " + ex.getMessage());
+            closeWriteConnection();
+            return false;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Open a connection to the database, creating the schema on first use.
+     *
+     * The database is switched to write-ahead logging, so that reads in the
+     * main thread are not blocked by writes in the I/O thread, and the
+     * connection waits up to {@link #BUSY_TIMEOUT_MILLIS} for a lock held by
+     * another connection, rather than failing immediately.
+     *
+     * @return the connection.
+     * @throws SQLException if the database could not be opened.
+     */
+    protected Connection openConnection() throws SQLException {
+        return openConnection(BUSY_TIMEOUT_MILLIS);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Open a connection to the database with the specified busy timeout,
+     * creating the schema on first use.
+     *
+     * @param busyTimeoutMillis the time in milliseconds that the connection
+     *        waits for a lock held by another connection.
+     * @return the connection.
+     * @throws SQLException if the database could not be opened.
+     * @see #openConnection()
+     */
+    protected Connection openConnection(int busyTimeoutMillis) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + getDBFile().toString());
+        try {
+            configureConnection(connection, busyTimeoutMillis);
+        } catch (SQLException ex) {
+            connection.close();
+            throw ex;
+        }
+        return connection;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Set the per-connection options of a new connection, and create the
+     * schema and enable write-ahead logging if not yet done.
+     *
+     * @param connection the connection.
+     * @param busyTimeoutMillis the busy timeout in milliseconds.
+     * @throws SQLException if the connection could not be configured.
+     */
+    protected void configureConnection(Connection connection, int busyTimeoutMillis) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA busy_timeout = " + busyTimeoutMillis);
+        }
+        if (!_schemaCreated) {
+            try (Statement statement = connection.createStatement()) {
+                // The journal mode is persistent, so this only needs to be
+                // done once per database file.
+                statement.execute("PRAGMA journal_mode = WAL");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS horses (" +
+                                        "uuid TEXT PRIMARY KEY NOT NULL, " +
+                                        "owner_uuid TEXT, " +
+                                        "name TEXT, " +
+                                        "display_name TEXT, " +
+                                        "appearance TEXT, " +
+                                        "world TEXT, " +
+                                        "x REAL, y REAL, z REAL, yaw REAL, pitch REAL, " +
+                                        "equipment INTEGER NOT NULL, " +
+                                        "distance_travelled REAL NOT NULL, " +
+                                        "distance_jumped REAL NOT NULL, " +
+                                        "nuggets_eaten INTEGER NOT NULL, " +
+                                        "speed_level INTEGER NOT NULL, " +
+                                        "jump_level INTEGER NOT NULL, " +
+                                        "health_level INTEGER NOT NULL, " +
+                                        "hydration REAL NOT NULL, " +
+                                        "last_accessed INTEGER NOT NULL, " +
+                                        "last_observed INTEGER NOT NULL, " +
+                                        "last_tamed INTEGER NOT NULL, " +
+                                        "public_horse INTEGER NOT NULL)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS horses_owner ON horses (owner_uuid)");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS permitted_players (" +
+                                        "horse_uuid TEXT NOT NULL, " +
+                                        "player_uuid TEXT NOT NULL, " +
+                                        "PRIMARY KEY (horse_uuid, player_uuid))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS inventories (" +
+                                        "horse_uuid TEXT PRIMARY KEY NOT NULL, " +
+                                        "contents BLOB NOT NULL)");
+            }
+            _schemaCreated = true;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Return true if an exception reports that the database was locked by
+     * another connection for longer than the busy timeout.
+     *
+     * Such a failure is transient: the operation can be retried.
+     *
+     * @param ex the exception.
+     * @return true if the database was busy or locked.
+     */
+    protected static boolean isBusy(SQLException ex) {
+        // Extended result codes keep the primary code in the low byte.
+        int code = ex.getErrorCode() & 0xff;
+        return code == SQLITE_BUSY || code == SQLITE_LOCKED;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Prepare a statement and bind String arguments to its placeholders.
+     *
+     * @param connection the connection.
+     * @param sql the SQL.
+     * @param args the arguments.
+     * @return the statement.
+     * @throws SQLException if the statement could not be prepared.
+     */
+    protected static PreparedStatement prepare(Connection connection, String sql, String... args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; i < args.length; ++i) {
+            statement.setString(i + 1, args[i]);
+        }
+        return statement;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Bind the attributes of a horse to the parameters of {@link #INSERT_HORSE}
+     * or {@link #UPDATE_HORSE}.
+     *
+     * Both statements list the UUID last, so that it can be the key of the
+     * WHERE clause of the update.
+     *
+     * @param statement the statement.
+     * @param savedHorse the horse.
+     * @throws SQLException if a parameter could not be bound.
+     */
+    protected static void bindHorse(PreparedStatement statement, SavedHorse savedHorse) throws SQLException {
+        int i = 1;
+        UUID ownerUuid = savedHorse.getOwnerUuid();
+        statement.setString(i++, (ownerUuid != null) ? ownerUuid.toString() : null);
+        statement.setString(i++, savedHorse.getName());
+        statement.setString(i++, savedHorse.getDisplayName());
+        statement.setString(i++, savedHorse.getAppearance());
+
+        String worldName = savedHorse.getWorldName();
+        if (worldName != null) {
+            statement.setString(i++, worldName);
+            statement.setDouble(i++, savedHorse.getX());
+            statement.setDouble(i++, savedHorse.getY());
+            statement.setDouble(i++, savedHorse.getZ());
+            statement.setFloat(i++, savedHorse.getYaw());
+            statement.setFloat(i++, savedHorse.getPitch());
+        } else {
+            statement.setNull(i++, Types.VARCHAR);
+            for (int j = 0; j < 5; ++j) {
+                statement.setNull(i++, Types.REAL);
+            }
+        }
+
+        statement.setInt(i++, savedHorse.getEquipment());
+        statement.setDouble(i++, savedHorse.getDistanceTravelled());
+        statement.setDouble(i++, savedHorse.getDistanceJumped());
+        statement.setInt(i++, savedHorse.getNuggetsEaten());
+        statement.setInt(i++, savedHorse.getSpeedLevel());
+        statement.setInt(i++, savedHorse.getJumpLevel());
+        statement.setInt(i++, savedHorse.getHealthLevel());
+        statement.setDouble(i++, savedHorse.getHydration());
+        statement.setLong(i++, savedHorse.getLastAccessed());
+        statement.setLong(i++, savedHorse.getLastObserved());
+        statement.setLong(i++, savedHorse.getLastTamed());
+        statement.setInt(i++, savedHorse.getPublicHorse() ? 1 : 0);
+        statement.setString(i++, savedHorse.getUuid().toString());
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Load a horse from the current row of the horses table.
+     *
+     * The permitted players and inventory are loaded separately.
+     *
+     * @param rs the result set.
+     * @return the horse.
+     * @throws SQLException if a column could not be read.
+     */
+    protected static SavedHorse loadHorse(ResultSet rs) throws SQLException {
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(UUID.fromString(rs.getString("uuid")));
+        String ownerUuid = rs.getString("owner_uuid");
+        savedHorse.setOwnerUuid((ownerUuid != null) ? UUID.fromString(ownerUuid) : null);
+        savedHorse.setLastTamed(rs.getLong("last_tamed"));
+        savedHorse.setName(rs.getString("name"));
+        savedHorse.setDisplayName(rs.getString("display_name"));
+        savedHorse.setAppearance(rs.getString("appearance"));
+
+        String worldName = rs.getString("world");
+        if (worldName != null) {
+            savedHorse.setUnboundLocation(worldName, rs.getDouble("x"), rs.getDouble("y"), rs.getDouble("z"),
+                                          rs.getFloat("yaw"), rs.getFloat("pitch"));
+        }
+
+        savedHorse.setEquipment(rs.getInt("equipment"));
+        savedHorse.setDistanceTravelled(rs.getDouble("distance_travelled"));
+        savedHorse.setDistanceJumped(rs.getDouble("distance_jumped"));
+        savedHorse.setNuggetsEaten(rs.getInt("nuggets_eaten"));
+        savedHorse.setSpeedLevel(rs.getInt("speed_level"));
+        savedHorse.setJumpLevel(rs.getInt("jump_level"));
+        savedHorse.setHealthLevel(rs.getInt("health_level"));
+        savedHorse.setHydration(rs.getDouble("hydration"));
+        savedHorse.setLastAccessed(rs.getLong("last_accessed"));
+        savedHorse.setLastObserved(rs.getLong("last_observed"));
+        savedHorse.setPublicHorse(rs.getInt("public_horse") != 0);
+        return savedHorse;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Columns of the horses table, excluding the UUID.
+     */
+    protected static final String HORSE_COLUMNS[] = {
+        "owner_uuid", "name", "display_name", "appearance",
+        "world", "x", "y", "z", "yaw", "pitch",
+        "equipment", "distance_travelled", "distance_jumped", "nuggets_eaten",
+        "speed_level", "jump_level", "health_level", "hydration",
+        "last_accessed", "last_observed", "last_tamed", "public_horse" };
+
+    /**
+     * Statement to insert (or replace) a horse row.
+     */
+    protected static final String INSERT_HORSE = "INSERT OR REPLACE INTO horses (" +
+                                                 String.join(", ", HORSE_COLUMNS) + ", uuid) VALUES (" +
+                                                 String.join(", ", Collections.nCopies(HORSE_COLUMNS.length + 1, "?")) +
+                                                 ")";
+
+    /**
+     * Statement to update an existing horse row.
+     */
+    protected static final String UPDATE_HORSE = "UPDATE horses SET " +
+                                                 String.join(" = ?, ", HORSE_COLUMNS) + " = ? WHERE uuid = ?";
+
+    /**
+     * Maximum number of UUIDs selected by one query of
+     * {@link #load(Collection)}, well within SQLite's limit on the number of
+     * statement parameters.
+     */
+    protected static final int LOAD_BATCH_SIZE = 500;
+
+    /**
+     * Time in milliseconds that a connection waits for a lock held by another
+     * connection before failing with SQLITE_BUSY.
+     */
+    protected static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Busy timeout in milliseconds of the connection used in the main thread,
+     * which must not stall the server for long. With write-ahead logging,
+     * readers only wait for locks in rare cases, such as a checkpoint.
+     */
+    protected static final int READ_BUSY_TIMEOUT_MILLIS = 200;
+
+    /**
+     * Number of attempts made to load horses when the database is busy.
+     */
+    protected static final int BUSY_RETRIES = 3;
+
+    /**
+     * SQLite primary result code: the database file is locked.
+     */
+    protected static final int SQLITE_BUSY = 5;
+
+    /**
+     * SQLite primary result code: a table in the database is locked.
+     */
+    protected static final int SQLITE_LOCKED = 6;
+
+    /**
+     * True once the tables have been created (if necessary).
+     *
+     * Connections are opened by both the I/O thread and, when loading horses
+     * on demand, the main thread, hence volatile.
+     */
+    protected volatile boolean _schemaCreated;
+
+    /**
+     * The connection kept open for loading horses in the main thread, or null
+     * if not yet opened.
+     *
+     * Only accessed in the main thread.
+     */
+    protected Connection _readConnection;
+
+    /**
+     * The connection kept open for writes, and loads, in the HorseDB I/O
+     * thread, or null if not yet opened.
+     *
+     * Only accessed in the I/O thread, and by {@link #close()} once no writes
+     * are pending.
+     */
+    protected Connection _writeConnection;
+
+} // class HorseDBImplWithSQLite
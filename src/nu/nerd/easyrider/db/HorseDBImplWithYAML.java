@@ -1,11 +1,23 @@
 package nu.nerd.easyrider.db;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
 
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.YamlConfiguration;
 
 import nu.nerd.easyrider.EasyRider;
@@ -13,6 +25,13 @@ import nu.nerd.easyrider.EasyRider;
 // --------------------------------------------------------------------------
 /**
  * Storage of all horses in a YAML file.
+ *
+ * The file is a mapping from horse UUID to a section of horse attributes. It
+ * is never held in memory as a whole. The loader parses one horse section at a
+ * time. Saves stream the existing file into a new one, replacing the sections
+ * of changed horses, omitting deleted horses and copying all other sections
+ * verbatim, and then rename the new file over the old one. A horse that
+ * cannot be serialised keeps its previous section.
  */
 public class HorseDBImplWithYAML extends HorseDBImplWithFile {
     // --------------------------------------------------------------------------
@@ -36,39 +55,88 @@ public class HorseDBImplWithYAML extends HorseDBImplWithFile {
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.IHorseDBImpl#loadAll()
+     *
+     *      Blocks are read in chunks of {@link #LOAD_CHUNK_SIZE} and each chunk
+     *      is parsed in parallel, so that only one chunk of text is held in
+     *      memory at a time.
      */
     @Override
     public Collection<SavedHorse> loadAll() {
         ArrayList<SavedHorse> result = new ArrayList<SavedHorse>();
-        _config = YamlConfiguration.loadConfiguration(getDBFile().toFile());
-        for (String uuid : _config.getKeys(false)) {
-            SavedHorse savedHorse = new SavedHorse();
-            try {
-                savedHorse.load(_config.getConfigurationSection(uuid));
-            } catch (Exception ex) {
-                // Should not happen. Mitigate the damage.
-                EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+        if (!Files.exists(getDBFile())) {
+            return result;
+        }
+
+        ForkJoinPool pool = makeLoadPool();
+        try (BlockReader reader = new BlockReader(getDBFile())) {
+            ArrayList<SimpleImmutableEntry<String, String>> chunk = new ArrayList<SimpleImmutableEntry<String, String>>();
+            boolean more;
+            do {
+                more = reader.next();
+                if (more) {
+                    chunk.add(new SimpleImmutableEntry<String, String>(reader.getKey(), reader.getText()));
+                }
+                if (chunk.size() == LOAD_CHUNK_SIZE || (!more && !chunk.isEmpty())) {
+                    result.addAll(decodeAll(pool, chunk, block -> decodeHorse(block.getKey(), block.getValue())));
+                    chunk.clear();
+                }
+            } while (more);
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to read YAML database: " + getDBFile().toString());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
-            result.add(savedHorse);
         }
         return result;
     }
 
+    // --------------------------------------------------------------------------
+    /**
+     * Parse one horse from the text of its YAML block.
+     *
+     * This method may be called from any thread.
+     *
+     * @param uuid the UUID of the horse; the key of the block.
+     * @param text the text of the block.
+     * @return the horse, or null if it could not be parsed, in which case the
+     *         error has been logged and the block is omitted by
+     *         {@link #decodeAll}.
+     */
+    protected static SavedHorse decodeHorse(String uuid, String text) {
+        try {
+            // Older versions stored the location as a serialised Location,
+            // which would be deserialised by looking up its world.
+            if (text.contains(LEGACY_LOCATION_TAG)) {
+                text = LEGACY_LOCATION_TAG_LINE.matcher(text).replaceAll("");
+            }
+            YamlConfiguration config = new YamlConfiguration();
+            config.loadFromString(text);
+            ConfigurationSection section = config.getConfigurationSection(uuid);
+            if (section == null) {
+                throw new IllegalArgumentException("no horse section");
+            }
+            SavedHorse savedHorse = new SavedHorse();
+            savedHorse.load(section);
+            return savedHorse;
+        } catch (Exception ex) {
+            // Should not happen. Mitigate the damage.
+            EasyRider.PLUGIN.getLogger().severe("Failed to load horse " + uuid + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
     // --------------------------------------------------------------------------
     /**
      * @see nu.nerd.easyrider.db.IHorseDBImpl#saveAll(java.util.Collection)
      */
     @Override
-    public void saveAll(Collection<SavedHorse> collection) {
+    public boolean saveAll(Collection<SavedHorse> collection) {
+        LinkedHashMap<String, SavedHorse> changed = new LinkedHashMap<String, SavedHorse>();
         for (SavedHorse savedHorse : collection) {
-            try {
-                savedHorse.save(_config);
-            } catch (Exception ex) {
-                // Should not happen. Mitigate the damage.
-                EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + savedHorse.getUuid() + ": " + ex.getMessage());
-            }
+            changed.put(savedHorse.getUuid().toString(), savedHorse);
         }
-        writeToDisk();
+        return rewrite(changed, Collections.emptySet());
     }
 
     // --------------------------------------------------------------------------
@@ -76,29 +144,260 @@ public class HorseDBImplWithYAML extends HorseDBImplWithFile {
      * @see nu.nerd.easyrider.db.IHorseDBImpl#delete(java.util.Collection)
      */
     @Override
-    public void delete(Collection<SavedHorse> collection) {
+    public boolean delete(Collection<SavedHorse> collection) {
+        HashSet<String> deleted = new HashSet<String>();
         for (SavedHorse savedHorse : collection) {
-            _config.set(savedHorse.getUuid().toString(), null);
+            deleted.add(savedHorse.getUuid().toString());
+        }
+        return rewrite(new LinkedHashMap<String, SavedHorse>(), deleted);
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @see nu.nerd.easyrider.db.IHorseDBImpl#write(java.util.Collection,
+     *      java.util.Collection)
+     *
+     *      The file is rewritten once for both the changes and the deletions.
+     */
+    @Override
+    public boolean write(Collection<SavedHorse> changed, Collection<SavedHorse> removed) {
+        LinkedHashMap<String, SavedHorse> changedByUuid = new LinkedHashMap<String, SavedHorse>();
+        for (SavedHorse savedHorse : changed) {
+            changedByUuid.put(savedHorse.getUuid().toString(), savedHorse);
+        }
+        HashSet<String> deleted = new HashSet<String>();
+        for (SavedHorse savedHorse : removed) {
+            deleted.add(savedHorse.getUuid().toString());
         }
-        writeToDisk();
+        return rewrite(changedByUuid, deleted);
     }
 
     // --------------------------------------------------------------------------
     /**
-     * Write the YAML file to disk.
+     * Write a new version of the YAML file with the specified changes.
+     *
+     * @param changed map from UUID string to horses to write; entries are
+     *        removed from the map as they are written.
+     * @param deleted UUID strings of horses to omit.
+     * @return true if the file was written with all changes; false if it was
+     *         not written, or if any horse could not be serialised.
      */
-    protected void writeToDisk() {
+    protected boolean rewrite(LinkedHashMap<String, SavedHorse> changed, Set<String> deleted) {
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return true;
+        }
+
+        boolean encodedAll = true;
+        Path tempFile = getTempFile();
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            if (Files.exists(getDBFile())) {
+                try (BlockReader reader = new BlockReader(getDBFile())) {
+                    while (reader.next()) {
+                        String uuid = reader.getKey();
+                        if (deleted.contains(uuid)) {
+                            continue;
+                        }
+
+                        // If the horse cannot be serialised, keep the previous
+                        // version rather than dropping it from the file.
+                        SavedHorse savedHorse = changed.remove(uuid);
+                        String text = (savedHorse != null) ? encodeHorse(savedHorse) : null;
+                        if (text != null) {
+                            writer.write(text);
+                        } else {
+                            encodedAll &= (savedHorse == null);
+                            writer.write(reader.getText());
+                        }
+                    }
+                }
+            }
+
+            // Horses not already in the file.
+            for (SavedHorse savedHorse : changed.values()) {
+                String text = encodeHorse(savedHorse);
+                if (text != null) {
+                    writer.write(text);
+                } else {
+                    encodedAll = false;
+                }
+            }
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Unable to write YAML database: " + getDBFile().toString());
+            return false;
+        }
+
         try {
-            _config.save(getDBFile().toFile());
+            replaceWithTempFile(tempFile);
+            return encodedAll;
         } catch (IOException ex) {
             EasyRider.PLUGIN.getLogger().severe("Unable to write YAML database: " + getDBFile().toString());
+            return false;
         }
     }
 
     // --------------------------------------------------------------------------
     /**
-     * The YAML file containing the horses.
+     * Serialise the YAML section of one horse.
+     *
+     * @param savedHorse the horse.
+     * @return the text of the section, or null if the horse could not be
+     *         serialised.
      */
-    protected YamlConfiguration _config = new YamlConfiguration();
+    protected static String encodeHorse(SavedHorse savedHorse) {
+        try {
+            YamlConfiguration config = new YamlConfiguration();
+            savedHorse.save(config);
+            return config.saveToString();
+        } catch (Exception ex) {
+            // Should not happen. Mitigate the damage.
+            EasyRider.PLUGIN.getLogger().severe("Failed to save horse " + savedHorse.getUuid() + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Number of horse blocks parsed in parallel as a unit when loading.
+     */
+    protected static final int LOAD_CHUNK_SIZE = 4096;
+
+    /**
+     * The class name in the type tag of a serialised Location.
+     */
+    protected static final String LEGACY_LOCATION_TAG = "org.bukkit.Location";
+
+    /**
+     * Matches a line holding the type tag of a serialised Location.
+     */
+    protected static final Pattern LEGACY_LOCATION_TAG_LINE =
+        Pattern.compile("^[ \\t]*['\"]?==['\"]?: *['\"]?" + Pattern.quote(LEGACY_LOCATION_TAG) + "['\"]?[ \\t]*\\r?\\n",
+                        Pattern.MULTILINE);
+
+    // --------------------------------------------------------------------------
+    /**
+     * Reads the YAML file one top level block at a time.
+     *
+     * Each block begins with a line in column 0 holding a key (a horse UUID)
+     * and extends up to the next such line. Indented lines, blank lines and
+     * comments belong to the current block.
+     */
+    protected static class BlockReader implements AutoCloseable {
+        // ----------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param file the YAML file.
+         * @throws IOException if the file cannot be opened.
+         */
+        public BlockReader(Path file) throws IOException {
+            _reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            _line = _reader.readLine();
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * Advance to the next block.
+         *
+         * @return true if there is a block; false at the end of the file.
+         * @throws IOException if the file cannot be read.
+         */
+        public boolean next() throws IOException {
+            // Skip anything before the first key, e.g. a header comment.
+            while (_line != null && !isKeyLine(_line)) {
+                _line = _reader.readLine();
+            }
+            if (_line == null) {
+                return false;
+            }
+
+            _key = parseKey(_line);
+            _text.setLength(0);
+            do {
+                _text.append(_line).append('\n');
+                _line = _reader.readLine();
+            } while (_line != null && !isKeyLine(_line));
+            return true;
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * Return the key of the current block.
+         *
+         * @return the key of the current block.
+         */
+        public String getKey() {
+            return _key;
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * Return the text of the current block, including the key line.
+         *
+         * @return the text of the current block, including the key line.
+         */
+        public String getText() {
+            return _text.toString();
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * @see java.lang.AutoCloseable#close()
+         */
+        @Override
+        public void close() throws IOException {
+            _reader.close();
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * Return true if the line begins a top level block.
+         *
+         * @param line the line.
+         * @return true if the line begins a top level block.
+         */
+        protected static boolean isKeyLine(String line) {
+            if (line.isEmpty()) {
+                return false;
+            }
+            char c = line.charAt(0);
+            return c != ' ' && c != '\t' && c != '#' && c != '-' && line.indexOf(':') > 0;
+        }
+
+        // ----------------------------------------------------------------------
+        /**
+         * Extract the key from a line that begins a top level block.
+         *
+         * @param line the line.
+         * @return the unquoted key.
+         */
+        protected static String parseKey(String line) {
+            String key = line.substring(0, line.indexOf(':')).trim();
+            if (key.length() >= 2 &&
+                (key.charAt(0) == '\'' || key.charAt(0) == '"') &&
+                key.charAt(key.length() - 1) == key.charAt(0)) {
+                key = key.substring(1, key.length() - 1);
+            }
+            return key;
+        }
+
+        /**
+         * The reader.
+         */
+        protected BufferedReader _reader;
+
+        /**
+         * The next unconsumed line, or null at the end of the file.
+         */
+        protected String _line;
+
+        /**
+         * The key of the current block.
+         */
+        protected String _key;
 
-} // class HorseDBImplWithYAML
\ No newline at end of file
+        /**
+         * The text of the current block.
+         */
+        protected StringBuilder _text = new StringBuilder();
+    } // class BlockReader
+} // class HorseDBImplWithYAML
@@ -0,0 +1,385 @@
+package nu.nerd.easyrider.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import nu.nerd.easyrider.EasyRider;
+
+// ----------------------------------------------------------------------------
+/**
+ * An append-only journal of changes to {@link SavedHorse}s, written between
+ * saves of the database so that recent changes survive a crash.
+ *
+ * Each record is framed as its payload length and CRC-32, followed by the
+ * payload: a record type, the horse UUID and, for updates, the state of the
+ * horse as written by {@link SavedHorse#writeJournal(java.io.DataOutput)}.
+ * Records hold absolute values rather than differences, so replaying a record
+ * more than once is harmless. Replay stops at the first incomplete or corrupt
+ * record, which can only be the result of a write interrupted by a crash.
+ *
+ * Records are accumulated in a {@link Batch} in the main thread and appended
+ * (and synced to disk) in the HorseDB I/O thread. The journal is truncated
+ * once its contents have been saved to the database proper.
+ */
+public class HorseJournal {
+    // ------------------------------------------------------------------------
+    /**
+     * A batch of journal records that will be appended to the journal in one
+     * write.
+     */
+    public static class Batch {
+        // --------------------------------------------------------------------
+        /**
+         * Add a record of the current state of a horse.
+         *
+         * @param savedHorse the horse.
+         */
+        public void addUpdate(SavedHorse savedHorse) {
+            try {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(payload);
+                out.writeByte(UPDATE);
+                out.writeLong(savedHorse.getUuid().getMostSignificantBits());
+                out.writeLong(savedHorse.getUuid().getLeastSignificantBits());
+                savedHorse.writeJournal(out);
+                addRecord(payload.toByteArray());
+            } catch (IOException ex) {
+                // Should not happen when writing to memory.
+                EasyRider.PLUGIN.getLogger().severe("Failed to journal horse " + savedHorse.getUuid() + ": " + ex.getMessage());
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Add a record of the removal of a horse.
+         *
+         * @param uuid the UUID of the horse.
+         */
+        public void addRemove(UUID uuid) {
+            ByteBuffer payload = ByteBuffer.allocate(17);
+            payload.put(REMOVE);
+            payload.putLong(uuid.getMostSignificantBits());
+            payload.putLong(uuid.getLeastSignificantBits());
+            addRecord(payload.array());
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the number of records in this batch.
+         *
+         * @return the number of records in this batch.
+         */
+        public int getRecordCount() {
+            return _recordCount;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the framed records as a byte array.
+         *
+         * @return the framed records as a byte array.
+         */
+        public byte[] toByteArray() {
+            return _bytes.toByteArray();
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Frame a record payload with its length and checksum.
+         *
+         * @param payload the payload.
+         */
+        protected void addRecord(byte[] payload) {
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(payload.length);
+            header.putInt((int) crc.getValue());
+            _bytes.write(header.array(), 0, 8);
+            _bytes.write(payload, 0, payload.length);
+            ++_recordCount;
+        }
+
+        /**
+         * The framed records.
+         */
+        protected ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+        /**
+         * The number of records.
+         */
+        protected int _recordCount;
+    } // class Batch
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param file the path to the journal file.
+     * @param logger the Logger to send error messages to.
+     */
+    public HorseJournal(Path file, Logger logger) {
+        _file = file;
+        _logger = logger;
+        try {
+            _size = Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException ex) {
+            _size = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the current size of the journal file in bytes.
+     *
+     * @return the current size of the journal file in bytes.
+     */
+    public long size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Apply all records in the journal to the specified horses.
+     *
+     * Updated horses not in the map are added as new horses. Removed horses
+     * are taken out of the map and added to the removed map.
+     *
+     * This method is called in the main thread when the database is loaded,
+     * before any records are appended.
+     *
+     * @param horses map from UUID to horses loaded from the database.
+     * @param removed map from UUID to horses that must be deleted from the
+     *        database.
+     * @return the number of records replayed.
+     */
+    public int replay(Map<UUID, SavedHorse> horses, Map<UUID, SavedHorse> removed) {
+        int count = forEachRecord((type, uuid, in) -> {
+            if (type == UPDATE) {
+                SavedHorse savedHorse = horses.get(uuid);
+                if (savedHorse == null) {
+                    savedHorse = removed.remove(uuid);
+                    if (savedHorse == null) {
+                        savedHorse = new SavedHorse();
+                        savedHorse.setUuid(uuid);
+                        savedHorse.setNew();
+                    }
+                    horses.put(uuid, savedHorse);
+                }
+                savedHorse.readJournal(in);
+            } else {
+                SavedHorse savedHorse = horses.remove(uuid);
+                if (savedHorse != null) {
+                    removed.put(uuid, savedHorse);
+                }
+            }
+        });
+
+        // Replayed horses have unsaved changes but don't need re-journalling.
+        for (SavedHorse savedHorse : horses.values()) {
+            savedHorse.setJournalClean();
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUIDs of all horses that have records in the journal.
+     *
+     * This method is called in the main thread when the database is loaded,
+     * before {@link #replay(Map, Map)}, to find the horses that must be loaded
+     * for the journal to be replayed on top of them.
+     *
+     * @return the UUIDs.
+     */
+    public Set<UUID> getUuids() {
+        HashSet<UUID> uuids = new HashSet<UUID>();
+        forEachRecord((type, uuid, in) -> uuids.add(uuid));
+        return uuids;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handles one journal record.
+     */
+    @FunctionalInterface
+    protected interface RecordHandler {
+        /**
+         * Handle a record.
+         *
+         * @param type the record type: {@link #UPDATE} or {@link #REMOVE}.
+         * @param uuid the UUID of the horse.
+         * @param in the rest of the payload.
+         * @throws IOException if the payload cannot be read.
+         */
+        void handle(byte type, UUID uuid, DataInputStream in) throws IOException;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass every intact record in the journal to a handler, in order.
+     *
+     * Records of unknown type are logged and skipped, as are records that the
+     * handler cannot read.
+     *
+     * @param handler the handler.
+     * @return the number of records handled.
+     */
+    protected int forEachRecord(RecordHandler handler) {
+        if (_size == 0) {
+            return 0;
+        }
+
+        byte[] data;
+        try {
+            data = Files.readAllBytes(_file);
+        } catch (IOException ex) {
+            _logger.severe("Unable to read journal " + _file + ": " + ex.getMessage());
+            return 0;
+        }
+
+        int count = 0;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                _logger.warning("Journal " + _file + " ends with an incomplete record.");
+                break;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(data, buffer.position(), length);
+            if ((int) crc.getValue() != expectedCrc) {
+                _logger.warning("Journal " + _file + " ends with a corrupt record.");
+                break;
+            }
+
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, buffer.position(), length))) {
+                byte type = in.readByte();
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                if (type == UPDATE || type == REMOVE) {
+                    handler.handle(type, uuid, in);
+                    ++count;
+                } else {
+                    _logger.warning("Journal " + _file + " contains an unknown record type: " + type);
+                }
+            } catch (IOException ex) {
+                _logger.warning("Journal " + _file + " contains an unreadable record: " + ex.getMessage());
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a batch of records to the journal and sync it to disk.
+     *
+     * This method is called in the I/O thread.
+     *
+     * @param batch the batch.
+     */
+    public void append(Batch batch) {
+        try {
+            if (_channel == null) {
+                _channel = FileChannel.open(_file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+            _channel.force(false);
+            _size = _channel.size();
+        } catch (IOException ex) {
+            _logger.severe("Unable to append to journal " + _file + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the contents of the journal, after they have been saved to the
+     * database.
+     *
+     * This method is called in the I/O thread.
+     */
+    public void truncate() {
+        try {
+            if (_channel != null) {
+                _channel.truncate(0);
+                _channel.force(false);
+            } else if (Files.exists(_file)) {
+                try (FileChannel channel = FileChannel.open(_file, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                    channel.force(false);
+                }
+            }
+            _size = 0;
+        } catch (IOException ex) {
+            _logger.severe("Unable to truncate journal " + _file + ": " + ex.getMessage());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the journal file.
+     *
+     * This method is called in the I/O thread, or after it has terminated.
+     */
+    public void close() {
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException ex) {
+                _logger.severe("Unable to close journal " + _file + ": " + ex.getMessage());
+            }
+            _channel = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record type: the state of a horse.
+     */
+    protected static final byte UPDATE = 1;
+
+    /**
+     * Record type: removal of a horse.
+     */
+    protected static final byte REMOVE = 2;
+
+    /**
+     * The path to the journal file.
+     */
+    protected Path _file;
+
+    /**
+     * The Logger to send error messages to.
+     */
+    protected Logger _logger;
+
+    /**
+     * The open journal file, or null if not yet opened.
+     */
+    protected FileChannel _channel;
+
+    /**
+     * The size of the journal in bytes; read in the main thread.
+     */
+    protected volatile long _size;
+} // class HorseJournal
@@ -0,0 +1,236 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import nu.nerd.easyrider.EasyRider;
+import nu.nerd.easyrider.SynchronousTimeLimitedTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * Copies all horses from the current database implementation to a new one in
+ * the background, without pausing the server.
+ *
+ * The UUIDs of all cached horses are listed when the migration starts. A
+ * {@link SynchronousTimeLimitedTask} then clones those horses in the main
+ * thread, a few at a time in each tick, and hands them to the HorseDB I/O
+ * thread in batches to be written to the new implementation.
+ *
+ * While the copy is in progress, HorseDB writes all saves and deletions to both
+ * implementations, so that horses changed, added or removed after they were
+ * listed are correct in the new implementation. Before any such write is
+ * queued, the partially filled batch of copies is queued, so that a copy never
+ * overwrites a more recent change.
+ *
+ * When all horses have been copied, HorseDB switches to the new implementation,
+ * unless any write to it failed, in which case the migration is abandoned.
+ */
+public class HorseMigration implements BooleanSupplier {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param db the database.
+     * @param target the implementation to copy horses to.
+     * @param sender the command sender, who is notified of progress.
+     */
+    public HorseMigration(HorseDB db, IHorseDBImpl target, CommandSender sender) {
+        _db = db;
+        _target = target;
+        _sender = sender;
+        _sourceType = db._impl.getType();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the implementation that horses are copied to.
+     *
+     * @return the implementation that horses are copied to.
+     */
+    public IHorseDBImpl getTarget() {
+        return _target;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the type identifier of the implementation that horses are copied
+     * from.
+     *
+     * @return the type identifier of the implementation that horses are copied
+     *         from.
+     */
+    public String getSourceType() {
+        return _sourceType;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the command sender who started the migration.
+     *
+     * @return the command sender who started the migration.
+     */
+    public CommandSender getSender() {
+        return _sender;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record that a write to the new implementation failed, so that the
+     * migration must not be completed.
+     *
+     * This method is called in the I/O thread.
+     */
+    public void setFailed() {
+        _failed = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any write to the new implementation failed.
+     *
+     * @return true if any write to the new implementation failed.
+     */
+    public boolean isFailed() {
+        return _failed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start copying horses.
+     *
+     * This method must be called in the main thread.
+     */
+    public void start() {
+        // Clear out any existing contents of the new database first.
+        IHorseDBImpl target = _target;
+        _db._ioExecutor.execute(() -> {
+            if (!target.delete(target.loadAll())) {
+                setFailed();
+            }
+        });
+
+        _uuids = new ArrayList<UUID>(_db._cache.size());
+        _db._cache.forEach(savedHorse -> _uuids.add(savedHorse.getUuid()));
+        _sender.sendMessage(ChatColor.GOLD + "Migrating " + _uuids.size() + " horses from " +
+                            _sourceType + " to " + _target.getType() + " in the background.");
+
+        SynchronousTimeLimitedTask task = new SynchronousTimeLimitedTask();
+        task.addStep(this);
+        Bukkit.getScheduler().scheduleSyncDelayedTask(EasyRider.PLUGIN, task);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Copy the next horse.
+     *
+     * @return true if there are more horses to copy.
+     * @see java.util.function.BooleanSupplier#getAsBoolean()
+     */
+    @Override
+    public boolean getAsBoolean() {
+        if (_next >= _uuids.size()) {
+            flushBatch();
+            _db.finishMigration(this);
+            return false;
+        }
+
+        // Horses removed since the migration started are skipped.
+        SavedHorse savedHorse = _db._cache.get(_uuids.get(_next++));
+        if (savedHorse != null) {
+            try {
+                SavedHorse copy = (SavedHorse) savedHorse.clone();
+                copy.setNew();
+                _batch.add(copy);
+            } catch (CloneNotSupportedException ex) {
+                // Should never happen.
+            }
+            if (_batch.size() >= Math.max(1, EasyRider.CONFIG.MIGRATE_BATCH_SIZE)) {
+                flushBatch();
+            }
+        }
+
+        int percent = (int) (100L * _next / _uuids.size());
+        if (percent / 10 > _reportedPercent / 10) {
+            _reportedPercent = percent;
+            _sender.sendMessage(ChatColor.GOLD + "Migration to " + _target.getType() + ": " +
+                                _next + " of " + _uuids.size() + " horses copied (" + percent + "%).");
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Queue the current batch of copied horses to be written to the new
+     * implementation in the I/O thread.
+     *
+     * This method must be called in the main thread, before any other write
+     * to the new implementation is queued.
+     */
+    public void flushBatch() {
+        if (_batch.isEmpty()) {
+            return;
+        }
+
+        ArrayList<SavedHorse> batch = _batch;
+        _batch = new ArrayList<SavedHorse>();
+        IHorseDBImpl target = _target;
+        _db._ioExecutor.execute(() -> {
+            if (!target.saveAll(batch)) {
+                setFailed();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The database.
+     */
+    protected HorseDB _db;
+
+    /**
+     * The implementation that horses are copied to.
+     */
+    protected IHorseDBImpl _target;
+
+    /**
+     * The command sender who started the migration.
+     */
+    protected CommandSender _sender;
+
+    /**
+     * The type identifier of the implementation that horses are copied from.
+     */
+    protected String _sourceType;
+
+    /**
+     * UUIDs of the horses to copy.
+     */
+    protected ArrayList<UUID> _uuids;
+
+    /**
+     * Index in _uuids of the next horse to copy.
+     */
+    protected int _next;
+
+    /**
+     * Copied horses not yet queued for writing.
+     */
+    protected ArrayList<SavedHorse> _batch = new ArrayList<SavedHorse>();
+
+    /**
+     * The percentage of horses copied when progress was last reported.
+     */
+    protected int _reportedPercent;
+
+    /**
+     * True if a write to the new implementation failed.
+     *
+     * Set in the I/O thread, hence volatile.
+     */
+    protected volatile boolean _failed;
+} // class HorseMigration
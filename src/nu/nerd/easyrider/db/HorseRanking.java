@@ -0,0 +1,313 @@
+package nu.nerd.easyrider.db;
+
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nu.nerd.easyrider.Ability;
+
+// ----------------------------------------------------------------------------
+/**
+ * Ranks trainable horses in descending order of training effort in one
+ * {@link Ability}, with ties broken by ascending UUID.
+ *
+ * Since the fractional level of an ability increases monotonically with
+ * effort, this is also the order of descending level, without computing any
+ * levels.
+ *
+ * The horses are held in an order-statistic treap (a randomised binary search
+ * tree where each node records the size of its subtree), so that inserting,
+ * removing and re-ranking a horse, finding the horse at a given rank and
+ * finding the rank of a given horse all take O(log n) expected time.
+ *
+ * Each node records only the UUID of the horse and the effort it was ranked
+ * by, so that a horse can be re-ranked after its effort has changed by any
+ * means, and so that horses evicted from the {@link HorseDB} cache stay ranked
+ * without keeping their SavedHorse in memory. Since horses are
+ * re-ranked as they are ridden, re-ranking reuses the horse's node and the
+ * treap operations work in place, without allocating.
+ *
+ * This class is not thread-safe; it is only accessed in the main thread.
+ */
+public class HorseRanking {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param ability the ranked ability.
+     */
+    public HorseRanking(Ability ability) {
+        _ability = ability;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ranked horses.
+     *
+     * @return the number of ranked horses.
+     */
+    public int size() {
+        return size(_root);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse to the ranking, or re-rank it if already present and its
+     * effort has changed.
+     *
+     * @param savedHorse the horse.
+     */
+    public void update(SavedHorse savedHorse) {
+        double effort = _ability.getEffort(savedHorse);
+        Node node = _nodes.get(savedHorse.getUuid());
+        if (node == null) {
+            node = new Node(savedHorse.getUuid(), effort);
+            _nodes.put(savedHorse.getUuid(), node);
+        } else if (node._effort == effort) {
+            return;
+        } else {
+            _root = delete(_root, node);
+            node._effort = effort;
+            node._left = node._right = null;
+            node._size = 1;
+        }
+        _root = insert(_root, node);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the horse with the specified UUID from the ranking.
+     *
+     * @param uuid the UUID of the horse.
+     */
+    public void remove(UUID uuid) {
+        Node node = _nodes.remove(uuid);
+        if (node != null) {
+            _root = delete(_root, node);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of the horse at the specified rank.
+     *
+     * @param rank the 0-based rank; 0 is the horse with the most effort.
+     * @return the UUID of the horse, or null if the rank is out of range.
+     */
+    public UUID getUuid(int rank) {
+        Node node = _root;
+        while (node != null) {
+            int leftSize = size(node._left);
+            if (rank < leftSize) {
+                node = node._left;
+            } else if (rank > leftSize) {
+                rank -= leftSize + 1;
+                node = node._right;
+            } else {
+                return node._uuid;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the rank of the horse with the specified UUID.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the 0-based rank, or -1 if the horse is not ranked.
+     */
+    public int getRank(UUID uuid) {
+        Node target = _nodes.get(uuid);
+        if (target == null) {
+            return -1;
+        }
+
+        int rank = 0;
+        Node node = _root;
+        while (node != null) {
+            int cmp = compare(target, node);
+            if (cmp < 0) {
+                node = node._left;
+            } else {
+                rank += size(node._left);
+                if (cmp == 0) {
+                    return rank;
+                }
+                ++rank;
+                node = node._right;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A node of the treap.
+     */
+    protected static final class Node {
+        Node(UUID uuid, double effort) {
+            _uuid = uuid;
+            _effort = effort;
+            _priority = ThreadLocalRandom.current().nextInt();
+            _size = 1;
+        }
+
+        /**
+         * Recompute the subtree size from the children.
+         */
+        void updateSize() {
+            _size = 1 + size(_left) + size(_right);
+        }
+
+        final UUID _uuid;
+        double _effort;
+        final int _priority;
+        int _size;
+        Node _left;
+        Node _right;
+    } // class Node
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the size of a subtree.
+     *
+     * @param node the root of the subtree, or null.
+     * @return the number of nodes in the subtree.
+     */
+    protected static int size(Node node) {
+        return (node != null) ? node._size : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compare nodes in ranking order: descending effort, then ascending UUID.
+     *
+     * @param a the first node.
+     * @param b the second node.
+     * @return a negative, zero or positive integer as a ranks before, equal to
+     *         or after b.
+     */
+    protected static int compare(Node a, Node b) {
+        int cmp = Double.compare(b._effort, a._effort);
+        return (cmp != 0) ? cmp : a._uuid.compareTo(b._uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Insert a node, which is not in the treap, in ranking order.
+     *
+     * @param node the root of the treap.
+     * @param target the node to insert, with no children.
+     * @return the new root of the treap.
+     */
+    protected static Node insert(Node node, Node target) {
+        if (node == null) {
+            return target;
+        }
+        if (target._priority > node._priority) {
+            split(node, target);
+            target.updateSize();
+            return target;
+        }
+        if (compare(target, node) < 0) {
+            node._left = insert(node._left, target);
+        } else {
+            node._right = insert(node._right, target);
+        }
+        node.updateSize();
+        return node;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Split a treap into the nodes ranked before a key and the rest.
+     *
+     * The two parts are returned as the left and right children of the key,
+     * which is where they belong when the key is inserted as the root of the
+     * split treap.
+     *
+     * @param node the root of the treap, which must not contain the key.
+     * @param key the node whose position determines the split.
+     */
+    protected static void split(Node node, Node key) {
+        if (node == null) {
+            key._left = key._right = null;
+        } else if (compare(node, key) < 0) {
+            split(node._right, key);
+            node._right = key._left;
+            node.updateSize();
+            key._left = node;
+        } else {
+            split(node._left, key);
+            node._left = key._right;
+            node.updateSize();
+            key._right = node;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Merge two treaps, where all nodes of the first rank before all nodes of
+     * the second.
+     *
+     * @param a the root of the first treap.
+     * @param b the root of the second treap.
+     * @return the root of the merged treap.
+     */
+    protected static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else if (a._priority > b._priority) {
+            a._right = merge(a._right, b);
+            a.updateSize();
+            return a;
+        } else {
+            b._left = merge(a, b._left);
+            b.updateSize();
+            return b;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete a node from a treap.
+     *
+     * @param node the root of the treap.
+     * @param target the node to delete.
+     * @return the new root of the treap.
+     */
+    protected static Node delete(Node node, Node target) {
+        if (node == null) {
+            return null;
+        }
+        if (node == target) {
+            return merge(node._left, node._right);
+        }
+        if (compare(target, node) < 0) {
+            node._left = delete(node._left, target);
+        } else {
+            node._right = delete(node._right, target);
+        }
+        node.updateSize();
+        return node;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The ranked ability.
+     */
+    protected Ability _ability;
+
+    /**
+     * Root of the treap.
+     */
+    protected Node _root;
+
+    /**
+     * Map from horse UUID to treap node.
+     */
+    protected HashMap<UUID, Node> _nodes = new HashMap<UUID, Node>();
+} // class HorseRanking
@@ -0,0 +1,117 @@
+package nu.nerd.easyrider.db;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable, versioned view of all horses in the database at one point in
+ * time, that can be read from any thread without blocking the main thread.
+ *
+ * The horses are clones of the database entries, taken in the main thread when
+ * they changed. They must not be modified. Successive snapshots share the
+ * clones of unchanged horses, and the unchanged parts of the underlying
+ * {@link PersistentHorseMap}.
+ *
+ * Snapshots are published by {@link HorseDB#publishSnapshot()} and the most
+ * recent one is returned by {@link HorseDB#getSnapshot()}.
+ */
+public final class HorseSnapshot {
+    /**
+     * The snapshot of an empty database.
+     */
+    public static final HorseSnapshot EMPTY = new HorseSnapshot(PersistentHorseMap.EMPTY, 0, 0);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param horses the horses.
+     * @param version the version number.
+     * @param time the time the snapshot was taken, per
+     *        System.currentTimeMillis().
+     */
+    public HorseSnapshot(PersistentHorseMap horses, long version, long time) {
+        _horses = horses;
+        _version = version;
+        _time = time;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the version number, which increases by one with each published
+     * snapshot.
+     *
+     * @return the version number.
+     */
+    public long getVersion() {
+        return _version;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time the snapshot was taken, per System.currentTimeMillis().
+     *
+     * @return the time the snapshot was taken.
+     */
+    public long getTime() {
+        return _time;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses.
+     *
+     * @return the number of horses.
+     */
+    public int size() {
+        return _horses.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horse with the specified UUID.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the horse, or null if not in the snapshot.
+     */
+    public SavedHorse get(UUID uuid) {
+        return _horses.get(uuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass every horse to the specified action, in an arbitrary order.
+     *
+     * @param action the action.
+     */
+    public void forEach(Consumer<SavedHorse> action) {
+        _horses.forEach(action);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the underlying map of horses.
+     *
+     * @return the underlying map of horses.
+     */
+    PersistentHorseMap getHorses() {
+        return _horses;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The horses.
+     */
+    private final PersistentHorseMap _horses;
+
+    /**
+     * The version number.
+     */
+    private final long _version;
+
+    /**
+     * The time the snapshot was taken.
+     */
+    private final long _time;
+} // class HorseSnapshot
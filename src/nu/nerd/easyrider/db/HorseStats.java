@@ -0,0 +1,690 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import nu.nerd.easyrider.Ability;
+
+// ----------------------------------------------------------------------------
+/**
+ * A columnar (struct of arrays) copy of the statistics of all horses, for
+ * whole-database scans, filters and aggregates.
+ *
+ * Each horse occupies one slot, which is an index into a primitive
+ * array per statistic: training effort, levels, access and observation time
+ * stamps, owner and equipment. A scan over one or two statistics is then a
+ * sequential pass over contiguous arrays, rather than a walk over SavedHorse
+ * objects scattered across the heap, and large scans are split across cores
+ * as parallel streams.
+ *
+ * The slots are kept dense: when a horse is removed, the horse in the last slot
+ * is moved into the vacated slot. The SavedHorse records its slot, and its
+ * setters update the corresponding array elements, so the columns are always
+ * in sync with the cached horses. Owners are stored as indices into a table of
+ * owner UUIDs, with -1 meaning no owner.
+ *
+ * A horse evicted from the {@link HorseDB} cache keeps its slot, with its UUID
+ * and statistics but no SavedHorse, so that scans still count it. Its
+ * statistics cannot change until it is loaded back in and re-added, which
+ * reattaches it to the same slot.
+ *
+ * This class is not thread-safe; it is only accessed in the main thread. Scans
+ * may use other threads internally, but complete before returning.
+ */
+public class HorseStats {
+    /**
+     * Flag bit set if the horse has a display name.
+     */
+    public static final byte FLAG_NAMED = 1;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses (occupied slots).
+     *
+     * @return the number of horses.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horse in the specified slot.
+     *
+     * @param slot the slot.
+     * @return the horse, or null if it has been evicted from the cache.
+     */
+    public SavedHorse getHorse(int slot) {
+        return _horses[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of the horse in the specified slot.
+     *
+     * @param slot the slot.
+     * @return the UUID of the horse.
+     */
+    public UUID getUuid(int slot) {
+        return _uuids[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a stream of all occupied slots, in parallel if there are enough
+     * to be worth splitting.
+     *
+     * @return a stream of all occupied slots.
+     */
+    public IntStream slots() {
+        IntStream slots = IntStream.range(0, _size);
+        return (_size >= PARALLEL_THRESHOLD) ? slots.parallel() : slots;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all cached horses whose slots match a predicate.
+     *
+     * Evicted horses have no SavedHorse, so they are omitted. The predicate
+     * may be evaluated concurrently in several threads, so it should only read
+     * the columns of this store.
+     *
+     * @param predicate the predicate on slots.
+     * @return the matching horses, in slot order.
+     */
+    public List<SavedHorse> filter(IntPredicate predicate) {
+        return slots().filter(predicate).mapToObj(slot -> _horses[slot])
+                      .filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of slots that match a predicate.
+     *
+     * The predicate may be evaluated concurrently in several threads, so it
+     * should only read the columns of this store.
+     *
+     * @param predicate the predicate on slots.
+     * @return the number of matching slots.
+     */
+    public int count(IntPredicate predicate) {
+        return (int) slots().filter(predicate).count();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses at each level of an ability.
+     *
+     * @param ability the ability.
+     * @return an array whose element at index i is the number of horses at
+     *         level i.
+     */
+    public int[] getLevelHistogram(Ability ability) {
+        int[] levels = getLevelColumn(ability);
+        int maxLevel = Math.max(0, slots().map(slot -> levels[slot]).max().orElse(0));
+        return slots().collect(() -> new int[maxLevel + 1],
+                               (histogram, slot) -> ++histogram[levels[slot]],
+                               (a, b) -> Arrays.setAll(a, i -> a[i] + b[i]));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached horses that are abandoned as of the specified time, by
+     * the same criteria as {@link SavedHorse#isAbandoned()}.
+     *
+     * @param now the current time, per System.currentTimeMillis().
+     * @param abandonedMillis the time since last access after which a horse
+     *        that meets the other criteria is abandoned.
+     * @return the abandoned horses.
+     */
+    public List<SavedHorse> findAbandoned(long now, long abandonedMillis) {
+        return filter(slot -> isAbandoned(slot, now, abandonedMillis));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses, including evicted horses, that are
+     * abandoned as of the specified time.
+     *
+     * @param now the current time, per System.currentTimeMillis().
+     * @param abandonedMillis the time since last access after which a horse
+     *        that meets the other criteria is abandoned.
+     * @return the number of abandoned horses.
+     * @see #findAbandoned(long, long)
+     */
+    public int countAbandoned(long now, long abandonedMillis) {
+        return count(slot -> isAbandoned(slot, now, abandonedMillis));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of distinct owners of the horses.
+     *
+     * @return the number of distinct owners of the horses.
+     */
+    public int countOwners() {
+        return (int) slots().map(slot -> _owner[slot]).filter(owner -> owner >= 0).distinct().count();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot index of the owner with the specified UUID, for
+     * comparison with {@link #getOwner(int)}.
+     *
+     * @param ownerUuid the owner's UUID, or null.
+     * @return the owner index, or -1 if the UUID is null or owns no horse.
+     */
+    public int getOwnerIndex(UUID ownerUuid) {
+        Integer index = (ownerUuid != null) ? _ownerIndices.get(ownerUuid) : null;
+        return (index != null) ? index : -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of the owner with the specified owner index.
+     *
+     * @param ownerIndex the owner index.
+     * @return the UUID, or null if the index is -1.
+     */
+    public UUID getOwnerUuid(int ownerIndex) {
+        return (ownerIndex >= 0) ? _ownerUuids.get(ownerIndex) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the column of levels of the specified ability.
+     *
+     * The array may be longer than {@link #size()}, and is replaced when the
+     * store grows, so it should not be retained.
+     *
+     * @param ability the ability.
+     * @return the levels, indexed by slot.
+     */
+    public int[] getLevelColumn(Ability ability) {
+        switch (ability.getName()) {
+        case "speed":
+            return _speedLevel;
+        case "jump":
+            return _jumpLevel;
+        default:
+            return _healthLevel;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the training effort of the horse in a slot in an ability.
+     *
+     * @param ability the ability.
+     * @param slot the slot.
+     * @return the training effort.
+     */
+    public double getEffort(Ability ability, int slot) {
+        switch (ability.getName()) {
+        case "speed":
+            return _distanceTravelled[slot];
+        case "jump":
+            return _distanceJumped[slot];
+        default:
+            return _nuggetsEaten[slot];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the owner index of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @return the owner index, or -1 if not owned.
+     * @see #getOwnerUuid(int)
+     */
+    public int getOwner(int slot) {
+        return _owner[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the last access time stamp of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @return the last access time stamp.
+     */
+    public long getLastAccessed(int slot) {
+        return _lastAccessed[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the last observation time stamp of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @return the last observation time stamp.
+     */
+    public long getLastObserved(int slot) {
+        return _lastObserved[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the equipment bits of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @return the equipment bits; see {@link nu.nerd.easyrider.HorseEquipment}.
+     */
+    public int getEquipment(int slot) {
+        return _equipment[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the flags of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @return the flags, e.g. {@link #FLAG_NAMED}.
+     */
+    public byte getFlags(int slot) {
+        return _flags[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse to the store, and attach the horse to its slot so that its
+     * setters keep the slot up to date.
+     *
+     * A horse that was evicted is reattached to its previous slot.
+     *
+     * @param savedHorse the horse, which must not already be attached to the
+     *        store.
+     */
+    void add(SavedHorse savedHorse) {
+        Integer coldSlot = _coldSlots.remove(savedHorse.getUuid());
+        int slot;
+        if (coldSlot != null) {
+            slot = coldSlot;
+        } else {
+            if (_size == _horses.length) {
+                grow(Math.max(16, _size + (_size >> 1)));
+            }
+            slot = _size++;
+        }
+
+        _horses[slot] = savedHorse;
+        _uuids[slot] = savedHorse.getUuid();
+        _distanceTravelled[slot] = savedHorse.getDistanceTravelled();
+        _distanceJumped[slot] = savedHorse.getDistanceJumped();
+        _nuggetsEaten[slot] = savedHorse.getNuggetsEaten();
+        _speedLevel[slot] = savedHorse.getSpeedLevel();
+        _jumpLevel[slot] = savedHorse.getJumpLevel();
+        _healthLevel[slot] = savedHorse.getHealthLevel();
+        _lastAccessed[slot] = savedHorse.getLastAccessed();
+        _lastObserved[slot] = savedHorse.getLastObserved();
+        _owner[slot] = internOwner(savedHorse.getOwnerUuid());
+        _equipment[slot] = savedHorse.getEquipment();
+        _flags[slot] = savedHorse.hasDisplayName() ? FLAG_NAMED : 0;
+        savedHorse.attachStats(this, slot);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a horse from the store and detach it.
+     *
+     * @param savedHorse the horse.
+     */
+    void remove(SavedHorse savedHorse) {
+        int slot = savedHorse.getStatsSlot();
+        if (slot < 0 || _horses[slot] != savedHorse) {
+            return;
+        }
+        savedHorse.attachStats(null, -1);
+        removeSlot(slot);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Detach a horse that has been evicted from the cache, keeping its slot.
+     *
+     * @param savedHorse the horse.
+     */
+    void evict(SavedHorse savedHorse) {
+        int slot = savedHorse.getStatsSlot();
+        if (slot < 0 || _horses[slot] != savedHorse) {
+            return;
+        }
+        savedHorse.attachStats(null, -1);
+        _horses[slot] = null;
+        _coldSlots.put(_uuids[slot], slot);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the evicted horse with the specified UUID from the store.
+     *
+     * @param uuid the UUID of the horse.
+     */
+    void removeEvicted(UUID uuid) {
+        Integer slot = _coldSlots.remove(uuid);
+        if (slot != null) {
+            removeSlot(slot);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Free a slot whose horse, if any, has been detached.
+     *
+     * The horse in the last slot, if different, is moved into the vacated
+     * slot.
+     *
+     * @param slot the slot.
+     */
+    protected void removeSlot(int slot) {
+        int last = --_size;
+        if (slot != last) {
+            SavedHorse moved = _horses[last];
+            _horses[slot] = moved;
+            _uuids[slot] = _uuids[last];
+            _distanceTravelled[slot] = _distanceTravelled[last];
+            _distanceJumped[slot] = _distanceJumped[last];
+            _nuggetsEaten[slot] = _nuggetsEaten[last];
+            _speedLevel[slot] = _speedLevel[last];
+            _jumpLevel[slot] = _jumpLevel[last];
+            _healthLevel[slot] = _healthLevel[last];
+            _lastAccessed[slot] = _lastAccessed[last];
+            _lastObserved[slot] = _lastObserved[last];
+            _owner[slot] = _owner[last];
+            _equipment[slot] = _equipment[last];
+            _flags[slot] = _flags[last];
+            if (moved != null) {
+                moved.attachStats(this, slot);
+            } else {
+                _coldSlots.put(_uuids[slot], slot);
+            }
+        }
+        _horses[last] = null;
+        _uuids[last] = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the distance travelled of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param distanceTravelled the distance travelled.
+     */
+    void setDistanceTravelled(int slot, double distanceTravelled) {
+        _distanceTravelled[slot] = distanceTravelled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the distance jumped of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param distanceJumped the distance jumped.
+     */
+    void setDistanceJumped(int slot, double distanceJumped) {
+        _distanceJumped[slot] = distanceJumped;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the number of gold nuggets eaten of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param nuggetsEaten the number of gold nuggets eaten.
+     */
+    void setNuggetsEaten(int slot, int nuggetsEaten) {
+        _nuggetsEaten[slot] = nuggetsEaten;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the speed level of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param level the speed level.
+     */
+    void setSpeedLevel(int slot, int level) {
+        _speedLevel[slot] = level;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the jump level of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param level the jump level.
+     */
+    void setJumpLevel(int slot, int level) {
+        _jumpLevel[slot] = level;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the health level of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param level the health level.
+     */
+    void setHealthLevel(int slot, int level) {
+        _healthLevel[slot] = level;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the last access time stamp of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param lastAccessed the last access time stamp.
+     */
+    void setLastAccessed(int slot, long lastAccessed) {
+        _lastAccessed[slot] = lastAccessed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the last observation time stamp of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param lastObserved the last observation time stamp.
+     */
+    void setLastObserved(int slot, long lastObserved) {
+        _lastObserved[slot] = lastObserved;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the equipment bits of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param equipment the equipment bits.
+     */
+    void setEquipment(int slot, int equipment) {
+        _equipment[slot] = equipment;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the owner of the horse in a slot.
+     *
+     * @param slot the slot.
+     * @param ownerUuid the owner's UUID, or null if not owned.
+     */
+    void setOwner(int slot, UUID ownerUuid) {
+        _owner[slot] = internOwner(ownerUuid);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set whether the horse in a slot has a display name.
+     *
+     * @param slot the slot.
+     * @param named true if the horse has a display name.
+     */
+    void setNamed(int slot, boolean named) {
+        _flags[slot] = (byte) (named ? (_flags[slot] | FLAG_NAMED) : (_flags[slot] & ~FLAG_NAMED));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the horse in a slot is abandoned as of the specified
+     * time.
+     *
+     * @param slot the slot.
+     * @param now the current time, per System.currentTimeMillis().
+     * @param abandonedMillis the time since last access after which a horse
+     *        that meets the other criteria is abandoned.
+     * @return true if the horse is abandoned.
+     */
+    protected boolean isAbandoned(int slot, long now, long abandonedMillis) {
+        return _speedLevel[slot] < 2 &&
+               _jumpLevel[slot] < 2 &&
+               _nuggetsEaten[slot] < 72 &&
+               (_flags[slot] & FLAG_NAMED) == 0 &&
+               _equipment[slot] == 0 &&
+               now - _lastAccessed[slot] > abandonedMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the owner index of an owner UUID, allocating one if necessary.
+     *
+     * Owner indices are never freed; there are few enough owners that it
+     * doesn't matter.
+     *
+     * @param ownerUuid the owner's UUID, or null.
+     * @return the owner index, or -1 if the UUID is null.
+     */
+    protected int internOwner(UUID ownerUuid) {
+        if (ownerUuid == null) {
+            return -1;
+        }
+        Integer index = _ownerIndices.get(ownerUuid);
+        if (index == null) {
+            index = _ownerUuids.size();
+            _ownerUuids.add(ownerUuid);
+            _ownerIndices.put(ownerUuid, index);
+        }
+        return index;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Grow all columns to the specified capacity.
+     *
+     * @param capacity the new capacity.
+     */
+    protected void grow(int capacity) {
+        _horses = Arrays.copyOf(_horses, capacity);
+        _uuids = Arrays.copyOf(_uuids, capacity);
+        _distanceTravelled = Arrays.copyOf(_distanceTravelled, capacity);
+        _distanceJumped = Arrays.copyOf(_distanceJumped, capacity);
+        _nuggetsEaten = Arrays.copyOf(_nuggetsEaten, capacity);
+        _speedLevel = Arrays.copyOf(_speedLevel, capacity);
+        _jumpLevel = Arrays.copyOf(_jumpLevel, capacity);
+        _healthLevel = Arrays.copyOf(_healthLevel, capacity);
+        _lastAccessed = Arrays.copyOf(_lastAccessed, capacity);
+        _lastObserved = Arrays.copyOf(_lastObserved, capacity);
+        _owner = Arrays.copyOf(_owner, capacity);
+        _equipment = Arrays.copyOf(_equipment, capacity);
+        _flags = Arrays.copyOf(_flags, capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Minimum number of horses for scans to be split across threads.
+     */
+    protected static final int PARALLEL_THRESHOLD = 8192;
+
+    /**
+     * Number of occupied slots.
+     */
+    protected int _size;
+
+    /**
+     * Horse in each slot, or null if evicted.
+     */
+    protected SavedHorse[] _horses = new SavedHorse[0];
+
+    /**
+     * UUID of the horse in each slot.
+     */
+    protected UUID[] _uuids = new UUID[0];
+
+    /**
+     * Speed training effort: distance travelled.
+     */
+    protected double[] _distanceTravelled = new double[0];
+
+    /**
+     * Jump training effort: distance jumped.
+     */
+    protected double[] _distanceJumped = new double[0];
+
+    /**
+     * Health training effort: gold nuggets eaten.
+     */
+    protected int[] _nuggetsEaten = new int[0];
+
+    /**
+     * Speed level.
+     */
+    protected int[] _speedLevel = new int[0];
+
+    /**
+     * Jump level.
+     */
+    protected int[] _jumpLevel = new int[0];
+
+    /**
+     * Health level.
+     */
+    protected int[] _healthLevel = new int[0];
+
+    /**
+     * Last access time stamp.
+     */
+    protected long[] _lastAccessed = new long[0];
+
+    /**
+     * Last observation time stamp.
+     */
+    protected long[] _lastObserved = new long[0];
+
+    /**
+     * Owner index, or -1 if not owned.
+     */
+    protected int[] _owner = new int[0];
+
+    /**
+     * Equipment bits.
+     */
+    protected int[] _equipment = new int[0];
+
+    /**
+     * Flag bits, e.g. FLAG_NAMED.
+     */
+    protected byte[] _flags = new byte[0];
+
+    /**
+     * Owner UUIDs, indexed by owner index.
+     */
+    protected ArrayList<UUID> _ownerUuids = new ArrayList<UUID>();
+
+    /**
+     * Map from owner UUID to owner index.
+     */
+    protected HashMap<UUID, Integer> _ownerIndices = new HashMap<UUID, Integer>();
+
+    /**
+     * Map from the UUID of each evicted horse to its slot.
+     */
+    protected HashMap<UUID, Integer> _coldSlots = new HashMap<UUID, Integer>();
+} // class HorseStats
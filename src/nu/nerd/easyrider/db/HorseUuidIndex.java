@@ -0,0 +1,247 @@
+package nu.nerd.easyrider.db;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * An index of horses sorted by UUID, supporting fast lookup of all horses
+ * whose UUID string begins with a given prefix.
+ *
+ * UUIDs are stored as (most significant bits, least significant bits) pairs in
+ * a sorted array of primitive longs, with the corresponding horses in a
+ * parallel array. Pairs are ordered as unsigned 128-bit integers, which is the
+ * same order as the lower case hexadecimal UUID strings. A prefix therefore
+ * corresponds to a contiguous range of the array, which is found by binary
+ * search, so a lookup takes O(log n + k) time for k matches. The same range
+ * can be tested against UUIDs that are not in the index; see
+ * {@link #getPrefixRange(String)}.
+ *
+ * Additions and removals shift the tail of the arrays, which is a cheap memory
+ * move even for large numbers of horses.
+ *
+ * This class is not thread-safe; it is only accessed in the main thread.
+ */
+public class HorseUuidIndex {
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse to the index, replacing any horse with the same UUID.
+     *
+     * @param savedHorse the horse.
+     */
+    public void add(SavedHorse savedHorse) {
+        long msb = savedHorse.getUuid().getMostSignificantBits();
+        long lsb = savedHorse.getUuid().getLeastSignificantBits();
+        int index = indexOf(msb, lsb);
+        if (index >= 0) {
+            _horses[index] = savedHorse;
+            return;
+        }
+
+        int insert = -(index + 1);
+        if (_size == _horses.length) {
+            int capacity = Math.max(16, _size + (_size >> 1));
+            _bits = Arrays.copyOf(_bits, 2 * capacity);
+            _horses = Arrays.copyOf(_horses, capacity);
+        }
+        System.arraycopy(_bits, 2 * insert, _bits, 2 * insert + 2, 2 * (_size - insert));
+        System.arraycopy(_horses, insert, _horses, insert + 1, _size - insert);
+        _bits[2 * insert] = msb;
+        _bits[2 * insert + 1] = lsb;
+        _horses[insert] = savedHorse;
+        ++_size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the horse with the specified UUID from the index.
+     *
+     * @param uuid the UUID of the horse.
+     */
+    public void remove(UUID uuid) {
+        int index = indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (index < 0) {
+            return;
+        }
+
+        System.arraycopy(_bits, 2 * index + 2, _bits, 2 * index, 2 * (_size - index - 1));
+        System.arraycopy(_horses, index + 1, _horses, index, _size - index - 1);
+        --_size;
+        _horses[_size] = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses in the index.
+     *
+     * @return the number of horses in the index.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add all horses whose UUID string begins with the specified prefix to a
+     * list, in ascending UUID order.
+     *
+     * The prefix is matched against the standard string form of the UUID,
+     * including hyphens, ignoring case. A prefix that is not the beginning of a
+     * well-formed UUID string matches nothing.
+     *
+     * @param prefix the UUID prefix.
+     * @param matches the list to which matching horses are added.
+     */
+    public void findByPrefix(String prefix, List<SavedHorse> matches) {
+        long[] range = getPrefixRange(prefix);
+        if (range == null) {
+            return;
+        }
+
+        int index = indexOf(range[0], range[1]);
+        if (index < 0) {
+            index = -(index + 1);
+        }
+        for (; index < _size && compare(_bits[2 * index], _bits[2 * index + 1], range[2], range[3]) <= 0; ++index) {
+            matches.add(_horses[index]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the range of UUIDs whose string form begins with the specified
+     * prefix, matched as by {@link #findByPrefix(String, List)}.
+     *
+     * @param prefix the UUID prefix.
+     * @return the lowest and highest matching UUIDs, as { low most
+     *         significant bits, low least significant bits, high most
+     *         significant bits, high least significant bits }, or null if the
+     *         prefix matches nothing.
+     */
+    public static long[] getPrefixRange(String prefix) {
+        if (prefix.length() > UUID_LENGTH) {
+            return null;
+        }
+
+        // Accumulate the prefix digits as the lowest and highest 128-bit
+        // values that begin with them.
+        long lowMsb = 0, lowLsb = 0;
+        int digits = 0;
+        for (int i = 0; i < prefix.length(); ++i) {
+            char c = prefix.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return null;
+            }
+            if (digits < 16) {
+                lowMsb |= (long) digit << (60 - 4 * digits);
+            } else {
+                lowLsb |= (long) digit << (60 - 4 * (digits - 16));
+            }
+            ++digits;
+        }
+
+        long highMsb = lowMsb, highLsb = lowLsb;
+        if (digits < 16) {
+            highMsb |= (digits == 0) ? -1L : (-1L >>> (4 * digits));
+            highLsb = -1L;
+        } else if (digits < 32) {
+            highLsb |= (digits == 16) ? -1L : (-1L >>> (4 * (digits - 16)));
+        }
+        return new long[] { lowMsb, lowLsb, highMsb, highLsb };
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a UUID is within a range returned by
+     * {@link #getPrefixRange(String)}.
+     *
+     * @param uuid the UUID.
+     * @param range the range.
+     * @return true if the UUID is within the range.
+     */
+    public static boolean isInPrefixRange(UUID uuid, long[] range) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        return compare(msb, lsb, range[0], range[1]) >= 0 && compare(msb, lsb, range[2], range[3]) <= 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all horses from the index.
+     */
+    public void clear() {
+        Arrays.fill(_horses, 0, _size, null);
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compare two UUIDs, as unsigned 128-bit integers.
+     *
+     * @param msb1 the most significant bits of the first UUID.
+     * @param lsb1 the least significant bits of the first UUID.
+     * @param msb2 the most significant bits of the second UUID.
+     * @param lsb2 the least significant bits of the second UUID.
+     * @return a negative, zero or positive integer as the first UUID is less
+     *         than, equal to or greater than the second.
+     */
+    protected static int compare(long msb1, long lsb1, long msb2, long lsb2) {
+        int cmp = Long.compareUnsigned(msb1, msb2);
+        return (cmp != 0) ? cmp : Long.compareUnsigned(lsb1, lsb2);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Binary search for a UUID.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the index of the UUID, or -(insertion point + 1) if not found.
+     */
+    protected int indexOf(long msb, long lsb) {
+        int low = 0;
+        int high = _size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(_bits[2 * mid], _bits[2 * mid + 1], msb, lsb);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Length of the string form of a UUID.
+     */
+    protected static final int UUID_LENGTH = 36;
+
+    /**
+     * Sorted (most significant bits, least significant bits) pairs.
+     */
+    protected long[] _bits = new long[0];
+
+    /**
+     * Horses, in the same order as _bits.
+     */
+    protected SavedHorse[] _horses = new SavedHorse[0];
+
+    /**
+     * Number of horses in the index.
+     */
+    protected int _size;
+} // class HorseUuidIndex
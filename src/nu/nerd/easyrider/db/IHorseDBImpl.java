@@ -5,6 +5,9 @@ import java.util.Collection;
 // ----------------------------------------------------------------------------
 /**
  * The underlying storage implementation for {@link HorseDB}.
+ *
+ * Methods that write to the database are called from the HorseDB I/O thread,
+ * with snapshots of the horses that can be accessed without synchronisation.
  */
 public interface IHorseDBImpl {
     // ------------------------------------------------------------------------
@@ -18,6 +21,8 @@ public interface IHorseDBImpl {
     // ------------------------------------------------------------------------
     /**
      * Back up the database if that is supported.
+     *
+     * This method is called in the HorseDB I/O thread.
      */
     public void backup();
 
@@ -28,8 +33,10 @@ public interface IHorseDBImpl {
      * Horses will be inserted if {@link SavedHorse.isNew()}; otherwise updated.
      *
      * @param collection the horses.
+     * @return true if all horses were written; false if the write failed, in
+     *         which case the error has been logged.
      */
-    public void saveAll(Collection<SavedHorse> collection);
+    public boolean saveAll(Collection<SavedHorse> collection);
 
     // ------------------------------------------------------------------------
     /**
@@ -44,6 +51,60 @@ public interface IHorseDBImpl {
      * Delete all horses in the collection from the database.
      *
      * @param collection the horses.
+     * @return true if all horses were deleted; false if the write failed, in
+     *         which case the error has been logged.
+     */
+    public boolean delete(Collection<SavedHorse> collection);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Save all changed horses and delete all removed horses.
+     *
+     * The default implementation calls {@link #saveAll(Collection)} and then
+     * {@link #delete(Collection)}. Implementations that rewrite the whole
+     * database on each of those calls should override this method to do both
+     * in one rewrite.
+     *
+     * @param changed the horses to save.
+     * @param removed the horses to delete.
+     * @return true if all writes succeeded; false if any failed, in which
+     *         case the error has been logged.
+     */
+    public default boolean write(Collection<SavedHorse> changed, Collection<SavedHorse> removed) {
+        boolean written = true;
+        if (!changed.isEmpty()) {
+            written &= saveAll(changed);
+        }
+        if (!removed.isEmpty()) {
+            written &= delete(removed);
+        }
+        return written;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if deletions only write the deleted horses, so that deleting
+     * horses in several small batches costs little more than one large batch.
+     *
+     * HorseDB splits purges into batches only for implementations that return
+     * true. The default implementation returns false, suiting implementations
+     * that rewrite the whole database on each write.
+     *
+     * @return true if deletions are incremental.
+     */
+    public default boolean hasIncrementalDeletes() {
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release any resources, such as database connections, held between
+     * calls.
+     *
+     * This method is called in the main thread when the implementation is no
+     * longer used and no writes are pending. Resources are reacquired if the
+     * implementation is used again. The default implementation does nothing.
      */
-    public void delete(Collection<SavedHorse> collection);
+    public default void close() {
+    }
 } // interface IHorseDBImpl
\ No newline at end of file
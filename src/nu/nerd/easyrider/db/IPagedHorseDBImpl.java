@@ -0,0 +1,71 @@
+package nu.nerd.easyrider.db;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * A {@link IHorseDBImpl} that can load individual horses on demand, allowing
+ * {@link HorseDB} to evict idle horses from memory and fault them back in
+ * later.
+ *
+ * Unlike the other methods of IHorseDBImpl, the methods declared here, other
+ * than {@link #load(Collection)}, are called in the main thread, concurrently
+ * with writes in the HorseDB I/O thread. {@link #load(Collection)} is called
+ * in either thread. HorseDB only requests horses whose
+ * most recent state has already been written.
+ *
+ * A failure to read the database is reported as an IOException, so that it
+ * is not mistaken for the absence of the requested horses.
+ *
+ * The returned horses are clean and their locations are unbound; see
+ * {@link SavedHorse#resolveDeferred()}.
+ */
+public interface IPagedHorseDBImpl extends IHorseDBImpl {
+    // ------------------------------------------------------------------------
+    /**
+     * Load the horse with the specified UUID.
+     *
+     * @param uuid the UUID of the horse.
+     * @return the horse, or null if not in the database.
+     * @throws IOException if the database could not be read.
+     */
+    public SavedHorse load(UUID uuid) throws IOException;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the horses with the specified UUIDs.
+     *
+     * This method may be called in the main thread or the HorseDB I/O thread.
+     *
+     * @param uuids the UUIDs of the horses.
+     * @return the horses that are in the database, in arbitrary order.
+     * @throws IOException if the database could not be read.
+     */
+    public Collection<SavedHorse> load(Collection<UUID> uuids) throws IOException;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load all horses owned by the player with the specified UUID.
+     *
+     * @param ownerUuid the owning player's UUID.
+     * @return the horses.
+     * @throws IOException if the database could not be read.
+     */
+    public Collection<SavedHorse> loadOwnedBy(UUID ownerUuid) throws IOException;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load a summary of every horse: all of its state except its permitted
+     * players and inventory.
+     *
+     * At startup, HorseDB builds its statistics, rankings and record of
+     * evicted horses from the summaries, and loads in full only the horses
+     * that it keeps in memory.
+     *
+     * @return the summaries.
+     * @throws IOException if the database could not be read.
+     */
+    public Collection<SavedHorse> loadSummaries() throws IOException;
+} // interface IPagedHorseDBImpl
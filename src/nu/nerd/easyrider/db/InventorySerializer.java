@@ -0,0 +1,179 @@
+package nu.nerd.easyrider.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bukkit.inventory.ItemStack;
+
+// ----------------------------------------------------------------------------
+/**
+ * Converts the observed inventory of a horse to and from a compact binary
+ * form, which is how inventories are held in memory and stored in databases.
+ *
+ * The uncompressed format is the slot count, followed by each slot as a
+ * length-prefixed item, serialised by {@link ItemStack#serializeAsBytes()}.
+ * Empty slots have a length of 0.
+ *
+ * The compressed format is the uncompressed format, deflated with a zlib
+ * header. An empty inventory is represented by a zero length array.
+ * {@link #decompress(byte[])} also accepts the uncompressed format, which is
+ * distinguished by the first byte (the zlib header is never 0).
+ */
+public class InventorySerializer {
+    /**
+     * The compressed form of an inventory that holds no items.
+     */
+    public static final byte[] EMPTY = new byte[0];
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serialise and compress the inventory contents.
+     *
+     * @param items the items; elements may be null to signify empty slots.
+     * @return the compressed inventory, or {@link #EMPTY} if there are no
+     *         items.
+     * @throws IOException if an item could not be serialised.
+     */
+    public static byte[] compress(List<ItemStack> items) throws IOException {
+        boolean empty = true;
+        for (ItemStack item : items) {
+            if (item != null && !item.getType().isAir()) {
+                empty = false;
+                break;
+            }
+        }
+        if (empty) {
+            return EMPTY;
+        }
+
+        byte[] data = toBytes(items);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                compressed.write(buffer, 0, length);
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Decompress and deserialise inventory contents.
+     *
+     * @param data the compressed (or uncompressed) inventory.
+     * @return the list of items, with null elements for empty slots.
+     * @throws IOException if the data is corrupt.
+     */
+    public static ArrayList<ItemStack> decompress(byte[] data) throws IOException {
+        if (data.length == 0) {
+            return new ArrayList<ItemStack>();
+        } else if (data[0] != ZLIB_HEADER) {
+            return fromBytes(data);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("truncated inventory data");
+                }
+                decompressed.write(buffer, 0, length);
+            }
+            return fromBytes(decompressed.toByteArray());
+        } catch (DataFormatException ex) {
+            throw new IOException("corrupt inventory data: " + ex.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serialise the inventory contents to bytes.
+     *
+     * @param items the items; elements may be null to signify empty slots.
+     * @return the serialised inventory.
+     * @throws IOException if an item could not be serialised.
+     */
+    public static byte[] toBytes(List<ItemStack> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(items.size());
+            for (ItemStack item : items) {
+                if (item == null || item.getType().isAir()) {
+                    out.writeInt(0);
+                } else {
+                    byte[] itemBytes = item.serializeAsBytes();
+                    out.writeInt(itemBytes.length);
+                    out.write(itemBytes);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Deserialise inventory contents from bytes.
+     *
+     * @param data the serialised inventory, as returned by
+     *        {@link #toBytes(List)}.
+     * @return the list of items, with null elements for empty slots.
+     * @throws IOException if the data is corrupt.
+     */
+    public static ArrayList<ItemStack> fromBytes(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int size = in.readInt();
+            if (size < 0 || size > MAX_SLOTS) {
+                throw new IOException("invalid inventory size " + size);
+            }
+
+            ArrayList<ItemStack> items = new ArrayList<ItemStack>(size);
+            for (int i = 0; i < size; ++i) {
+                int length = in.readInt();
+                if (length < 0 || length > data.length) {
+                    throw new IOException("invalid item length " + length);
+                } else if (length == 0) {
+                    items.add(null);
+                } else {
+                    byte[] itemBytes = new byte[length];
+                    in.readFully(itemBytes);
+                    items.add(ItemStack.deserializeBytes(itemBytes));
+                }
+            }
+            return items;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * First byte of a zlib stream with default settings.
+     */
+    private static final byte ZLIB_HEADER = 0x78;
+
+    /**
+     * Upper bound on the number of inventory slots, used to reject corrupt
+     * data. The largest horse inventory (llama with a chest) is well below
+     * this.
+     */
+    private static final int MAX_SLOTS = 256;
+} // class InventorySerializer
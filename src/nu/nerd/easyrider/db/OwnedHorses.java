@@ -0,0 +1,220 @@
+package nu.nerd.easyrider.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+// ----------------------------------------------------------------------------
+/**
+ * The horses owned by one player, kept in display order.
+ *
+ * The horses are ordered firstly by trainability (all trainable horses before
+ * llamas), then by tamed time stamp (longest tamed first) and finally, all else
+ * being equal (unlikely) by UUID. Those attributes only change when ownership
+ * changes, at which point HorseDB removes the horse from its old owner's index
+ * and adds it to the new owner's, so the order remains correct without
+ * re-sorting.
+ *
+ * An immutable copy of the horses is published after every change, so that
+ * repeated lookups (e.g. by /horse-owned index) are cheap and the list of
+ * horses can be read from any thread without locking.
+ *
+ * The horses are also indexed by lower case display name and by UUID, for
+ * prefix searches by name or UUID that don't examine every owned horse. The
+ * name index is refreshed when a horse that is already present is added again,
+ * which HorseDB does whenever it observes the horse.
+ *
+ * Apart from {@link #getView()}, this class is not thread-safe; it is only
+ * accessed in the main thread.
+ */
+public class OwnedHorses {
+    /**
+     * Display order of owned horses.
+     */
+    public static final Comparator<SavedHorse> DISPLAY_ORDER = (h1, h2) -> {
+        if (h1.isTrainable() == h2.isTrainable()) {
+            int tamedComparison = Long.compare(h1.getLastTamed(), h2.getLastTamed());
+            return (tamedComparison == 0) ? h1.getUuid().compareTo(h2.getUuid()) : tamedComparison;
+        } else {
+            return h1.isTrainable() ? -1 : 1;
+        }
+    };
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse in display order, if not already present.
+     *
+     * @param savedHorse the horse.
+     */
+    public void add(SavedHorse savedHorse) {
+        String oldNameKey = _nameKeys.get(savedHorse);
+        if (oldNameKey != null) {
+            // Already present; the display name may have changed.
+            String nameKey = getNameKey(savedHorse);
+            if (!nameKey.equals(oldNameKey)) {
+                _byName.remove(oldNameKey);
+                _byName.put(nameKey, savedHorse);
+                _nameKeys.put(savedHorse, nameKey);
+            }
+            return;
+        }
+
+        int index = Collections.binarySearch(_horses, savedHorse, DISPLAY_ORDER);
+        _horses.add((index < 0) ? -(index + 1) : index, savedHorse);
+        publishView();
+
+        String nameKey = getNameKey(savedHorse);
+        _byName.put(nameKey, savedHorse);
+        _nameKeys.put(savedHorse, nameKey);
+        _byUuid.add(savedHorse);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove a horse.
+     *
+     * Horses are found by identity rather than by display order, so that a
+     * horse can be removed after the attributes that determine its order have
+     * changed.
+     *
+     * @param savedHorse the horse.
+     */
+    public void remove(SavedHorse savedHorse) {
+        String nameKey = _nameKeys.remove(savedHorse);
+        if (nameKey == null) {
+            return;
+        }
+
+        _byName.remove(nameKey);
+        _byUuid.remove(savedHorse.getUuid());
+        int index = indexOf(savedHorse);
+        if (index >= 0) {
+            _horses.remove(index);
+            publishView();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if there are no horses.
+     *
+     * @return true if there are no horses.
+     */
+    public boolean isEmpty() {
+        return _horses.isEmpty();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an immutable list of the horses in display order.
+     *
+     * This method may be called from any thread.
+     *
+     * @return an immutable list of the horses in display order.
+     */
+    public List<SavedHorse> getView() {
+        return _view;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add all horses whose display name begins with the specified prefix,
+     * ignoring case, to a list, in name order.
+     *
+     * Horses without a name are not matched.
+     *
+     * @param prefix the name prefix.
+     * @param matches the list to which matching horses are added.
+     */
+    public void findByName(String prefix, List<SavedHorse> matches) {
+        String lowerPrefix = prefix.toLowerCase();
+        matches.addAll(_byName.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false).values());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add all horses whose UUID begins with the specified prefix, ignoring
+     * case, to a list, in UUID order.
+     *
+     * @param prefix the UUID prefix.
+     * @param matches the list to which matching horses are added.
+     */
+    public void findByUuid(String prefix, List<SavedHorse> matches) {
+        _byUuid.findByPrefix(prefix, matches);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Publish an immutable copy of _horses as the view.
+     */
+    protected void publishView() {
+        _view = Collections.unmodifiableList(new ArrayList<SavedHorse>(_horses));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the specified horse instance, or -1 if not present.
+     *
+     * @param savedHorse the horse.
+     * @return the index of the specified horse instance, or -1 if not present.
+     */
+    protected int indexOf(SavedHorse savedHorse) {
+        for (int i = 0; i < _horses.size(); ++i) {
+            if (_horses.get(i) == savedHorse) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of a horse in the name index.
+     *
+     * The key is the lower case display name, followed by the UUID to
+     * distinguish horses with the same name. Unnamed horses get a key that no
+     * name prefix search can match.
+     *
+     * @param savedHorse the horse.
+     * @return the key.
+     */
+    protected static String getNameKey(SavedHorse savedHorse) {
+        String name = savedHorse.getDisplayName().toLowerCase();
+        return (name.isEmpty() ? Character.MAX_VALUE + "" : name + NAME_SEPARATOR) + savedHorse.getUuid();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Separates the name from the UUID in a name index key.
+     */
+    protected static final char NAME_SEPARATOR = '\u0000';
+
+    /**
+     * The horses, in display order.
+     */
+    protected ArrayList<SavedHorse> _horses = new ArrayList<SavedHorse>();
+
+    /**
+     * Immutable copy of _horses, replaced (never modified) after each change.
+     */
+    protected volatile List<SavedHorse> _view = Collections.emptyList();
+
+    /**
+     * Map from name key to horse, in name order.
+     */
+    protected TreeMap<String, SavedHorse> _byName = new TreeMap<String, SavedHorse>();
+
+    /**
+     * Map from horse to its current key in _byName; also the set of horses
+     * present.
+     */
+    protected IdentityHashMap<SavedHorse, String> _nameKeys = new IdentityHashMap<SavedHorse, String>();
+
+    /**
+     * Index of the horses by UUID.
+     */
+    protected HorseUuidIndex _byUuid = new HorseUuidIndex();
+} // class OwnedHorses
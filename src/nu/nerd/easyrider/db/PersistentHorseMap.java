@@ -0,0 +1,381 @@
+package nu.nerd.easyrider.db;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// ----------------------------------------------------------------------------
+/**
+ * An immutable map from UUID to SavedHorse, implemented as a persistent hash
+ * array mapped trie (HAMT).
+ *
+ * Each node of the trie consumes 5 bits of the UUID's hash code and holds a
+ * bitmap of its occupied slots and a compact array of entries, each of which is
+ * either a horse or a child node. Adding or removing a horse copies only the
+ * nodes on the path from the root to that horse, at most 7 levels deep, and
+ * shares every other node with the original map. The cost of deriving a new map
+ * from an old one is therefore proportional to the number of horses changed,
+ * not the size of the map.
+ *
+ * Since instances are never modified, they can be read from any thread once
+ * safely published.
+ */
+public final class PersistentHorseMap {
+    /**
+     * The empty map.
+     */
+    public static final PersistentHorseMap EMPTY = new PersistentHorseMap(null, 0);
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses in the map.
+     *
+     * @return the number of horses in the map.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horse with the specified UUID.
+     *
+     * @param uuid the UUID.
+     * @return the horse, or null if not in the map.
+     */
+    public SavedHorse get(UUID uuid) {
+        int hash = uuid.hashCode();
+        Object node = _root;
+        for (int shift = 0; node != null; shift += BITS) {
+            if (node instanceof BitmapNode) {
+                BitmapNode bitmapNode = (BitmapNode) node;
+                int bit = bit(hash, shift);
+                if ((bitmapNode._bitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode._entries[bitmapNode.index(bit)];
+            } else if (node instanceof CollisionNode) {
+                CollisionNode collisionNode = (CollisionNode) node;
+                int index = collisionNode.indexOf(uuid);
+                return (index >= 0) ? collisionNode._horses[index] : null;
+            } else {
+                SavedHorse savedHorse = (SavedHorse) node;
+                return savedHorse.getUuid().equals(uuid) ? savedHorse : null;
+            }
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a map with the specified horse added, replacing any horse with
+     * the same UUID.
+     *
+     * @param savedHorse the horse.
+     * @return the new map.
+     */
+    public PersistentHorseMap put(SavedHorse savedHorse) {
+        boolean[] added = new boolean[1];
+        BitmapNode root = (_root != null) ? _root : BitmapNode.EMPTY;
+        Object newRoot = root.put(savedHorse, savedHorse.getUuid().hashCode(), 0, added);
+        return new PersistentHorseMap((BitmapNode) newRoot, added[0] ? _size + 1 : _size);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a map with the horse with the specified UUID removed.
+     *
+     * @param uuid the UUID.
+     * @return the new map, or this map if the horse was not present.
+     */
+    public PersistentHorseMap remove(UUID uuid) {
+        if (_root == null) {
+            return this;
+        }
+
+        Object newRoot = _root.remove(uuid, uuid.hashCode(), 0);
+        if (newRoot == _root) {
+            return this;
+        } else if (newRoot == null) {
+            return EMPTY;
+        } else if (newRoot instanceof SavedHorse) {
+            SavedHorse savedHorse = (SavedHorse) newRoot;
+            newRoot = BitmapNode.EMPTY.put(savedHorse, savedHorse.getUuid().hashCode(), 0, new boolean[1]);
+        }
+        return new PersistentHorseMap((BitmapNode) newRoot, _size - 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass every horse in the map to the specified action, in an arbitrary
+     * order.
+     *
+     * @param action the action.
+     */
+    public void forEach(Consumer<SavedHorse> action) {
+        if (_root != null) {
+            forEach(_root, action);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param root the root node, or null if empty.
+     * @param size the number of horses.
+     */
+    private PersistentHorseMap(BitmapNode root, int size) {
+        _root = root;
+        _size = size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass every horse under an entry to an action.
+     *
+     * @param entry a node or a horse.
+     * @param action the action.
+     */
+    private static void forEach(Object entry, Consumer<SavedHorse> action) {
+        if (entry instanceof BitmapNode) {
+            for (Object child : ((BitmapNode) entry)._entries) {
+                forEach(child, action);
+            }
+        } else if (entry instanceof CollisionNode) {
+            for (SavedHorse savedHorse : ((CollisionNode) entry)._horses) {
+                action.accept(savedHorse);
+            }
+        } else {
+            action.accept((SavedHorse) entry);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the bitmap bit of the slot selected by a hash at a given depth.
+     *
+     * @param hash the hash code.
+     * @param shift the number of hash bits consumed by shallower levels.
+     * @return the bit.
+     */
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return an entry holding two horses with different UUIDs, at a given
+     * depth.
+     *
+     * @param shift the number of hash bits consumed by shallower levels.
+     * @param horse1 the first horse.
+     * @param hash1 the hash code of the first horse's UUID.
+     * @param horse2 the second horse.
+     * @param hash2 the hash code of the second horse's UUID.
+     * @return a node holding both horses.
+     */
+    private static Object pair(int shift, SavedHorse horse1, int hash1, SavedHorse horse2, int hash2) {
+        if (hash1 == hash2) {
+            return new CollisionNode(new SavedHorse[] { horse1, horse2 });
+        }
+
+        int bit1 = bit(hash1, shift);
+        int bit2 = bit(hash2, shift);
+        if (bit1 == bit2) {
+            return new BitmapNode(bit1, new Object[] { pair(shift + BITS, horse1, hash1, horse2, hash2) });
+        } else if (Integer.compareUnsigned(bit1, bit2) < 0) {
+            return new BitmapNode(bit1 | bit2, new Object[] { horse1, horse2 });
+        } else {
+            return new BitmapNode(bit1 | bit2, new Object[] { horse2, horse1 });
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An interior node, with up to 32 entries selected by 5 bits of the hash.
+     */
+    private static final class BitmapNode {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        BitmapNode(int bitmap, Object[] entries) {
+            _bitmap = bitmap;
+            _entries = entries;
+        }
+
+        /**
+         * Return the index in _entries of the slot with the specified bit.
+         */
+        int index(int bit) {
+            return Integer.bitCount(_bitmap & (bit - 1));
+        }
+
+        /**
+         * Return this node with a horse added or replaced; set added[0] if the
+         * UUID was not present.
+         */
+        Object put(SavedHorse savedHorse, int hash, int shift, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((_bitmap & bit) == 0) {
+                Object[] entries = new Object[_entries.length + 1];
+                System.arraycopy(_entries, 0, entries, 0, index);
+                entries[index] = savedHorse;
+                System.arraycopy(_entries, index, entries, index + 1, _entries.length - index);
+                added[0] = true;
+                return new BitmapNode(_bitmap | bit, entries);
+            }
+
+            Object entry = _entries[index];
+            Object newEntry;
+            if (entry instanceof BitmapNode) {
+                newEntry = ((BitmapNode) entry).put(savedHorse, hash, shift + BITS, added);
+            } else if (entry instanceof CollisionNode) {
+                newEntry = ((CollisionNode) entry).put(savedHorse, added);
+            } else {
+                SavedHorse existing = (SavedHorse) entry;
+                if (existing.getUuid().equals(savedHorse.getUuid())) {
+                    newEntry = savedHorse;
+                } else {
+                    newEntry = pair(shift + BITS, existing, existing.getUuid().hashCode(), savedHorse, hash);
+                    added[0] = true;
+                }
+            }
+            return withEntry(index, newEntry);
+        }
+
+        /**
+         * Return this node with the horse with the specified UUID removed: this
+         * node if not present, null if now empty, or a lone horse if this node
+         * would now hold only that horse.
+         */
+        Object remove(UUID uuid, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((_bitmap & bit) == 0) {
+                return this;
+            }
+
+            int index = index(bit);
+            Object entry = _entries[index];
+            Object newEntry;
+            if (entry instanceof BitmapNode) {
+                newEntry = ((BitmapNode) entry).remove(uuid, hash, shift + BITS);
+            } else if (entry instanceof CollisionNode) {
+                newEntry = ((CollisionNode) entry).remove(uuid);
+            } else {
+                newEntry = ((SavedHorse) entry).getUuid().equals(uuid) ? null : entry;
+            }
+
+            if (newEntry == entry) {
+                return this;
+            } else if (newEntry != null) {
+                if (_entries.length == 1 && newEntry instanceof SavedHorse) {
+                    return newEntry;
+                }
+                return withEntry(index, newEntry);
+            } else if (_entries.length == 1) {
+                return null;
+            } else if (_entries.length == 2 && _entries[1 - index] instanceof SavedHorse) {
+                return _entries[1 - index];
+            } else {
+                Object[] entries = new Object[_entries.length - 1];
+                System.arraycopy(_entries, 0, entries, 0, index);
+                System.arraycopy(_entries, index + 1, entries, index, entries.length - index);
+                return new BitmapNode(_bitmap & ~bit, entries);
+            }
+        }
+
+        /**
+         * Return a copy of this node with one entry replaced.
+         */
+        BitmapNode withEntry(int index, Object entry) {
+            Object[] entries = _entries.clone();
+            entries[index] = entry;
+            return new BitmapNode(_bitmap, entries);
+        }
+
+        final int _bitmap;
+        final Object[] _entries;
+    } // class BitmapNode
+
+    // ------------------------------------------------------------------------
+    /**
+     * A leaf node holding horses whose UUIDs have identical hash codes.
+     */
+    private static final class CollisionNode {
+        CollisionNode(SavedHorse[] horses) {
+            _horses = horses;
+        }
+
+        /**
+         * Return the index of the horse with the specified UUID, or -1.
+         */
+        int indexOf(UUID uuid) {
+            for (int i = 0; i < _horses.length; ++i) {
+                if (_horses[i].getUuid().equals(uuid)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Return this node with a horse added or replaced; set added[0] if the
+         * UUID was not present.
+         */
+        CollisionNode put(SavedHorse savedHorse, boolean[] added) {
+            int index = indexOf(savedHorse.getUuid());
+            SavedHorse[] horses;
+            if (index >= 0) {
+                horses = _horses.clone();
+            } else {
+                index = _horses.length;
+                horses = new SavedHorse[index + 1];
+                System.arraycopy(_horses, 0, horses, 0, index);
+                added[0] = true;
+            }
+            horses[index] = savedHorse;
+            return new CollisionNode(horses);
+        }
+
+        /**
+         * Return this node with the horse with the specified UUID removed: this
+         * node if not present, or the remaining horse if only one is left.
+         */
+        Object remove(UUID uuid) {
+            int index = indexOf(uuid);
+            if (index < 0) {
+                return this;
+            } else if (_horses.length == 2) {
+                return _horses[1 - index];
+            }
+
+            SavedHorse[] horses = new SavedHorse[_horses.length - 1];
+            System.arraycopy(_horses, 0, horses, 0, index);
+            System.arraycopy(_horses, index + 1, horses, index, horses.length - index);
+            return new CollisionNode(horses);
+        }
+
+        final SavedHorse[] _horses;
+    } // class CollisionNode
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of hash bits consumed per level.
+     */
+    private static final int BITS = 5;
+
+    /**
+     * Mask selecting the bits of one level.
+     */
+    private static final int MASK = (1 << BITS) - 1;
+
+    /**
+     * The root node, or null if the map is empty.
+     */
+    private final BitmapNode _root;
+
+    /**
+     * The number of horses in the map.
+     */
+    private final int _size;
+} // class PersistentHorseMap
@@ -1,11 +1,17 @@
 package nu.nerd.easyrider.db;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.bukkit.Bukkit;
@@ -14,6 +20,7 @@ import org.bukkit.Location;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.Sound;
 import org.bukkit.SoundCategory;
+import org.bukkit.World;
 import org.bukkit.attribute.Attribute;
 import org.bukkit.attribute.AttributeInstance;
 import org.bukkit.configuration.ConfigurationSection;
@@ -79,15 +86,26 @@ public class SavedHorse implements Cloneable {
     /**
      * @see Object#clone()
      *
-     *      SavedHorse is a POD type, so cloning is trivial. The Location is
-     *      assumed to not be mutated, and to be a new clone of the Entity's
-     *      Location whenever it is set.
+     *      SavedHorse is a POD type, so cloning is mostly trivial. The
+     *      location is stored as primitive fields and an interned world ID,
+     *      and the appearance is an interned String. The access list and the
+     *      serialised observed inventory are likewise immutable, so the clone
+     *      can be safely read in another thread.
+     *
+     *      The clone has no change listener and is not attached to the
+     *      {@link HorseStats}, since it is not the instance that HorseDB
+     *      tracks.
      *
      * @throws CloneNotSupportedException
      */
     @Override
     public Object clone() throws CloneNotSupportedException {
-        return super.clone();
+        SavedHorse copy = (SavedHorse) super.clone();
+        copy._changeListener = null;
+        copy._changeNotified = false;
+        copy._stats = null;
+        copy._statsSlot = -1;
+        return copy;
     }
 
     // ------------------------------------------------------------------------
@@ -146,15 +164,97 @@ public class SavedHorse implements Cloneable {
      * Signify that this bean has unsaved changes.
      */
     public void setDirty() {
-        _dirty = true;
+        _dirty = _journalDirty = true;
+        notifyChanged();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the listener that is notified of the first change to this horse
+     * after each call to {@link #clearChangeNotified()}.
+     *
+     * HorseDB uses this to track the horses changed since the last
+     * {@link HorseSnapshot}, without examining every horse.
+     *
+     * @param changeListener the listener, or null.
+     */
+    void setChangeListener(Consumer<SavedHorse> changeListener) {
+        _changeListener = changeListener;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Notify the change listener (if any) of a change to this horse, unless
+     * it has already been notified since the last call to
+     * {@link #clearChangeNotified()}.
+     */
+    void notifyChanged() {
+        if (!_changeNotified && _changeListener != null) {
+            _changeNotified = true;
+            _changeListener.accept(this);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Attach this horse to a slot of the {@link HorseStats} store, which its
+     * setters then keep up to date, or detach it.
+     *
+     * @param stats the store, or null to detach.
+     * @param slot the slot, or -1 to detach.
+     */
+    void attachStats(HorseStats stats, int slot) {
+        _stats = stats;
+        _statsSlot = slot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot of this horse in the {@link HorseStats} store.
+     *
+     * @return the slot, or -1 if not attached.
+     */
+    int getStatsSlot() {
+        return _statsSlot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Re-arm the change listener so that it will be notified of the next
+     * change.
+     */
+    void clearChangeNotified() {
+        _changeNotified = false;
     }
 
     // ------------------------------------------------------------------------
     /**
      * Signify that this bean does not have any unsaved changes.
+     *
+     * Changes made before the bean is saved don't need to be journalled, so
+     * this also clears the journal dirty flag.
      */
     public void setClean() {
-        _dirty = _new = false;
+        _dirty = _new = _journalDirty = false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this bean has changes that have not been written to the
+     * {@link HorseJournal} since it was last saved or journalled.
+     *
+     * @return true if this bean has changes that have not been journalled.
+     */
+    boolean isJournalDirty() {
+        return _journalDirty;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signify that the current state of this bean has been journalled.
+     */
+    void setJournalClean() {
+        _journalDirty = false;
     }
 
     // ------------------------------------------------------------------------
@@ -244,6 +344,10 @@ public class SavedHorse implements Cloneable {
         }
 
         this.ownerUuid = ownerUuid;
+        if (_stats != null) {
+            _stats.setOwner(_statsSlot, ownerUuid);
+        }
+        ++_accessVersion;
         setDirty();
     }
 
@@ -304,7 +408,14 @@ public class SavedHorse implements Cloneable {
      * @param displayName the displayed custom name of the horse.
      */
     public void setDisplayName(String displayName) {
-        this.displayName = (displayName == null ? "" : displayName);
+        String name = (displayName == null ? "" : displayName);
+        if (name.equals(this.displayName)) {
+            return;
+        }
+        this.displayName = name;
+        if (_stats != null) {
+            _stats.setNamed(_statsSlot, hasDisplayName());
+        }
         setDirty();
     }
 
@@ -363,7 +474,10 @@ public class SavedHorse implements Cloneable {
      *        and variant.
      */
     public void setAppearance(String appearance) {
-        this.appearance = appearance;
+        if (appearance != null && appearance.equals(this.appearance)) {
+            return;
+        }
+        this.appearance = internAppearance(appearance);
         setDirty();
     }
 
@@ -377,12 +491,34 @@ public class SavedHorse implements Cloneable {
         return appearance;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the canonical instance of an appearance String.
+     *
+     * There are only a few hundred distinct appearances, so sharing one String
+     * per appearance rather than one per horse saves a String and its backing
+     * array for almost every horse loaded from storage.
+     *
+     * @param appearance the appearance, or null.
+     * @return the canonical instance, or null.
+     */
+    static String internAppearance(String appearance) {
+        if (appearance == null) {
+            return null;
+        }
+        String canonical = APPEARANCES.putIfAbsent(appearance, appearance);
+        return (canonical != null) ? canonical : appearance;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Reserved for future use.
      */
     public void setEquipment(int equipment) {
         this.equipment = equipment;
+        if (_stats != null) {
+            _stats.setEquipment(_statsSlot, equipment);
+        }
         setDirty();
     }
 
@@ -398,10 +534,30 @@ public class SavedHorse implements Cloneable {
     /**
      * Set the most recent location of the horse.
      *
+     * The coordinates are copied; the Location is not retained.
+     *
      * @param location the location.
      */
     public void setLocation(Location location) {
-        this.location = location;
+        if (location == null || location.getWorld() == null) {
+            if (worldId == WorldIds.NONE) {
+                return;
+            }
+            worldId = WorldIds.NONE;
+        } else {
+            World world = location.getWorld();
+            if (world != WorldIds.getWorld(worldId)) {
+                worldId = WorldIds.getId(world);
+            } else if (x == location.getX() && y == location.getY() && z == location.getZ() &&
+                       yaw == location.getYaw() && pitch == location.getPitch()) {
+                return;
+            }
+            x = location.getX();
+            y = location.getY();
+            z = location.getZ();
+            yaw = location.getYaw();
+            pitch = location.getPitch();
+        }
         setDirty();
     }
 
@@ -409,10 +565,73 @@ public class SavedHorse implements Cloneable {
     /**
      * Return the most recent location of the horse, or null if not known.
      *
+     * A new Location is returned on each call, so callers may modify it.
+     *
      * @return the most recent location of the horse, or null if not known.
      */
     public Location getLocation() {
-        return location;
+        World world = WorldIds.getWorld(worldId);
+        return (world != null) ? new Location(world, x, y, z, yaw, pitch) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the location of the horse is known.
+     *
+     * @return true if the location of the horse is known.
+     */
+    boolean hasLocation() {
+        return worldId != WorldIds.NONE;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the x coordinate of the location, if known.
+     *
+     * @return the x coordinate.
+     */
+    double getX() {
+        return x;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the y coordinate of the location, if known.
+     *
+     * @return the y coordinate.
+     */
+    double getY() {
+        return y;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the z coordinate of the location, if known.
+     *
+     * @return the z coordinate.
+     */
+    double getZ() {
+        return z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the yaw of the location, if known.
+     *
+     * @return the yaw.
+     */
+    float getYaw() {
+        return yaw;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the pitch of the location, if known.
+     *
+     * @return the pitch.
+     */
+    float getPitch() {
+        return pitch;
     }
 
     // ------------------------------------------------------------------------
@@ -423,6 +642,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setDistanceTravelled(double distanceTravelled) {
         this.distanceTravelled = distanceTravelled;
+        if (_stats != null) {
+            _stats.setDistanceTravelled(_statsSlot, distanceTravelled);
+        }
         setDirty();
     }
 
@@ -444,6 +666,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setDistanceJumped(double distanceJumped) {
         this.distanceJumped = distanceJumped;
+        if (_stats != null) {
+            _stats.setDistanceJumped(_statsSlot, distanceJumped);
+        }
         setDirty();
     }
 
@@ -465,6 +690,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setNuggetsEaten(int nuggetsEaten) {
         this.nuggetsEaten = nuggetsEaten;
+        if (_stats != null) {
+            _stats.setNuggetsEaten(_statsSlot, nuggetsEaten);
+        }
         setDirty();
     }
 
@@ -486,6 +714,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setSpeedLevel(int level) {
         this.speedLevel = level;
+        if (_stats != null) {
+            _stats.setSpeedLevel(_statsSlot, level);
+        }
         setDirty();
     }
 
@@ -507,6 +738,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setJumpLevel(int level) {
         this.jumpLevel = level;
+        if (_stats != null) {
+            _stats.setJumpLevel(_statsSlot, level);
+        }
         setDirty();
     }
 
@@ -528,6 +762,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setHealthLevel(int level) {
         this.healthLevel = level;
+        if (_stats != null) {
+            _stats.setHealthLevel(_statsSlot, level);
+        }
         setDirty();
     }
 
@@ -596,6 +833,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setLastAccessed(long lastAccessed) {
         this.lastAccessed = lastAccessed;
+        if (_stats != null) {
+            _stats.setLastAccessed(_statsSlot, lastAccessed);
+        }
         setDirty();
     }
 
@@ -617,6 +857,7 @@ public class SavedHorse implements Cloneable {
      */
     public void setPublicHorse(boolean publicHorse) {
         this.publicHorse = publicHorse;
+        ++_accessVersion;
         setDirty();
     }
 
@@ -639,6 +880,9 @@ public class SavedHorse implements Cloneable {
      */
     public void setLastObserved(long lastObserved) {
         this.lastObserved = lastObserved;
+        if (_stats != null) {
+            _stats.setLastObserved(_statsSlot, lastObserved);
+        }
         setDirty();
     }
 
@@ -652,6 +896,21 @@ public class SavedHorse implements Cloneable {
         return lastObserved;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Set the last tamed time stamp of this horse, when loading it from a
+     * database.
+     *
+     * Normally, the time stamp is updated by {@link #setOwnerUuid(UUID)}.
+     *
+     * @param lastTamed the time stamp, per System.currentTimeMillis(), or 0 if
+     *        not owned.
+     */
+    void setLastTamed(long lastTamed) {
+        this.lastTamed = lastTamed;
+        setDirty();
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Return the last tamed time stamp of this horse.
@@ -743,7 +1002,34 @@ public class SavedHorse implements Cloneable {
      * @return true if the specified player can access this horse.
      */
     public boolean canBeAccessedBy(OfflinePlayer player) {
-        return player.getUniqueId().equals(getOwnerUuid()) || permittedPlayers.contains(player) || getPublicHorse();
+        UUID playerUuid = player.getUniqueId();
+        return playerUuid.equals(getOwnerUuid()) || permittedPlayers.contains(playerUuid) || getPublicHorse();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a counter that changes whenever the owner, public status or
+     * access list of this horse changes, or this instance is removed or
+     * evicted from the database cache.
+     *
+     * Callers that cache the result of {@link #canBeAccessedBy(OfflinePlayer)}
+     * or a reference to this instance can compare this value to tell when the
+     * cached decision or reference may be stale.
+     *
+     * @return the access version counter.
+     */
+    public int getAccessVersion() {
+        return _accessVersion;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Signal that this instance is no longer the cached database state of the
+     * horse, because it was removed or evicted.
+     */
+    void detach() {
+        setChangeListener(null);
+        ++_accessVersion;
     }
 
     // ------------------------------------------------------------------------
@@ -751,7 +1037,8 @@ public class SavedHorse implements Cloneable {
      * Retract all permission to access this horse except by the owner.
      */
     public void clearPermittedPlayers() {
-        permittedPlayers.clear();
+        permittedPlayers = AccessList.EMPTY;
+        ++_accessVersion;
         setDirty();
     }
 
@@ -762,7 +1049,8 @@ public class SavedHorse implements Cloneable {
      * @param players a collection of players, which must not include the owner.
      */
     public void addPermittedPlayers(Collection<OfflinePlayer> players) {
-        permittedPlayers.addAll(players);
+        permittedPlayers = permittedPlayers.with(players.stream().map(p -> p.getUniqueId()).collect(Collectors.toList()));
+        ++_accessVersion;
         setDirty();
     }
 
@@ -773,7 +1061,8 @@ public class SavedHorse implements Cloneable {
      * @param players a collection of players, which must not include the owner.
      */
     public void removePermittedPlayers(Collection<OfflinePlayer> players) {
-        permittedPlayers.removeAll(players);
+        permittedPlayers = permittedPlayers.without(players.stream().map(p -> p.getUniqueId()).collect(Collectors.toList()));
+        ++_accessVersion;
         setDirty();
     }
 
@@ -781,22 +1070,133 @@ public class SavedHorse implements Cloneable {
     /**
      * Return a list of the names of players permitted to access this horse.
      *
+     * Players whose names are not known to the server are listed by UUID.
+     *
      * @return a list of the names of players permitted to access this horse.
      */
     public List<String> getAccessList() {
-        return permittedPlayers.stream().map(p -> p.getName()).collect(Collectors.toList());
+        return permittedPlayers.toList().stream().map(uuid -> {
+            String name = Bukkit.getOfflinePlayer(uuid).getName();
+            return (name != null) ? name : uuid.toString();
+        }).collect(Collectors.toList());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUIDs of the players permitted to access this horse, for
+     * storage in a database.
+     *
+     * @return the UUIDs of the players permitted to access this horse.
+     */
+    List<UUID> getPermittedPlayerUuids() {
+        return permittedPlayers.toList();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the UUIDs of the players permitted to access this horse, when
+     * loading it.
+     *
+     * This method can be called from any thread and does not mark the horse
+     * dirty.
+     *
+     * @param uuids the UUIDs of the permitted players.
+     */
+    void setPermittedPlayerUuids(Collection<UUID> uuids) {
+        permittedPlayers = AccessList.of(uuids);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the location of this horse, when loading it in a thread other than
+     * the main thread.
+     *
+     * The world is looked up by {@link #resolveDeferred()}.
+     *
+     * @param worldName the name of the world.
+     * @param x the x coordinate.
+     * @param y the y coordinate.
+     * @param z the z coordinate.
+     * @param yaw the yaw.
+     * @param pitch the pitch.
+     */
+    void setUnboundLocation(String worldName, double x, double y, double z, float yaw, float pitch) {
+        worldId = WorldIds.getId(worldName);
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the world of this horse's location, or null if the
+     * location is not known.
+     *
+     * @return the name of the world, or null.
+     */
+    String getWorldName() {
+        return WorldIds.getName(worldId);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the parts of loading this horse that must be done in the main
+     * thread: look up the world of the location.
+     *
+     * This does not mark the horse dirty. If the world no longer exists, the
+     * location is cleared.
+     */
+    void resolveDeferred() {
+        if (worldId != WorldIds.NONE && WorldIds.bind(worldId) == null) {
+            worldId = WorldIds.NONE;
+        }
     }
 
     // ------------------------------------------------------------------------
     /**
      * Return the contents of the inventory when it was last observed.
+     *
+     * The inventory is stored in serialised form, and decoded into a new list
+     * on every call.
      * 
      * @return the contents of the inventory when it was last observed.
      */
     public ArrayList<ItemStack> getObservedInventory() {
+        try {
+            return InventorySerializer.decompress(observedInventory);
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Horse " + getUuid() + " has a corrupt inventory: " + ex.getMessage());
+            return new ArrayList<ItemStack>();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the serialised contents of the inventory when it was last
+     * observed, in the compressed format of {@link InventorySerializer}.
+     *
+     * @return the serialised inventory; the caller must not modify it.
+     */
+    byte[] getObservedInventoryData() {
         return observedInventory;
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Set the serialised contents of the inventory, when loading this horse.
+     *
+     * This does not mark the horse dirty.
+     *
+     * @param data the serialised inventory, in either format accepted by
+     *        {@link InventorySerializer#decompress(byte[])}; the caller must
+     *        not modify it afterwards.
+     */
+    void setObservedInventoryData(byte[] data) {
+        observedInventory = (data != null && data.length != 0) ? data : InventorySerializer.EMPTY;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Update this SavedHorse to reflect the current state of the AbstractHorse
@@ -822,6 +1222,23 @@ public class SavedHorse implements Cloneable {
         setLocation(abstractHorse.getLocation());
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Update the last observed time and location of this SavedHorse while it
+     * is being ridden.
+     *
+     * This is a cheaper form of {@link #observe(AbstractHorse)} for use on
+     * every movement of the horse. The remaining attributes cannot change
+     * without a corresponding event, where the full observe() is called.
+     *
+     * @param location the current location of the horse; only its
+     *        coordinates are copied, so the caller may reuse it.
+     */
+    public void observeLocation(Location location) {
+        setLastObserved(System.currentTimeMillis());
+        setLocation(location);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Update the stored record of the AbstractHorse's equipment.
@@ -840,12 +1257,12 @@ public class SavedHorse implements Cloneable {
     public void observeInventory(AbstractHorse abstractHorse) {
         int equip = (getEquipment() & ~HorseEquipment.ALL_REGULAR) | HorseEquipment.bits(abstractHorse);
         setEquipment(equip);
-        observedInventory.clear();
         Inventory inv = abstractHorse.getInventory();
-        if (inv != null) {
-            for (ItemStack item : inv.getContents()) {
-                observedInventory.add((item == null) ? null : item.clone());
-            }
+        try {
+            observedInventory = (inv != null) ? InventorySerializer.compress(Arrays.asList(inv.getContents()))
+                                              : InventorySerializer.EMPTY;
+        } catch (IOException ex) {
+            EasyRider.PLUGIN.getLogger().severe("Horse " + getUuid() + " inventory could not be serialised: " + ex.getMessage());
         }
         setDirty();
     }
@@ -855,21 +1272,29 @@ public class SavedHorse implements Cloneable {
      * This method is called every tick when the horse is being ridden to do
      * various accounting tasks.
      *
-     * This method should only be called when a Player is riding the horse, i.e.
-     * in onPlayerMove().
+     * This method should only be called when a Player is riding a trainable
+     * horse, i.e. in onPlayerMove().
      *
      * @param relativeTick a counter that increases by one every tick; the
      *        starting value is arbitrary.
      * @param horse the AbstractHorse entity.
-     */
-    public void onRidden(int relativeTick, AbstractHorse horse) {
-        if (getLocation() != null && Util.isTrainable(horse)) {
-            Location newLocation = horse.getLocation();
-            double dist = Util.getHorizontalDistance(location, newLocation);
-            Player rider = (Player) Util.getPassenger(horse);
+     * @param rider the riding player.
+     * @param playerState the rider's PlayerState.
+     * @param newLocation the current location of the horse.
+     * @param waterlogged true if the horse is in water or a waterlogged block.
+     */
+    public void onRidden(int relativeTick, AbstractHorse horse, Player rider, PlayerState playerState,
+                         Location newLocation, boolean waterlogged) {
+        if (hasLocation()) {
+            double dist = 0.0;
+            if (newLocation.getWorld() == WorldIds.getWorld(worldId)) {
+                double dx = newLocation.getX() - x;
+                double dz = newLocation.getZ() - z;
+                dist = Math.sqrt(dx * dx + dz * dz);
+            }
 
             // Horses moving through water don't get dehydrated.
-            if (!Util.isWaterlogged(newLocation.getBlock())) {
+            if (!waterlogged) {
                 // Suppress dehydration of max speed horses.
                 if (getSpeedLevel() >= EasyRider.CONFIG.SPEED.getMaxLevel()) {
                     setHydration(1.0);
@@ -883,10 +1308,11 @@ public class SavedHorse implements Cloneable {
                         EasyRider.PLUGIN.debug(horse, " dehydrated (" + getHydration() + ") over dist " + dist);
                     }
 
-                    PlayerState playerState = EasyRider.PLUGIN.getState(rider);
-
                     // Suppress dehydration messages once interval exceeds
                     // maximum.
+                    if (_messageRateLimiter == null) {
+                        _messageRateLimiter = new RateLimiter(0);
+                    }
                     if (!playerState.isNeglectful() &&
                         _messageRateLimiter.getCoolDownMillis() < MAX_MESSAGE_COOLDOWN_MILLIS &&
                         _messageRateLimiter.run(() -> {
@@ -899,16 +1325,17 @@ public class SavedHorse implements Cloneable {
                                                            MAX_MESSAGE_COOLDOWN_MILLIS);
                         _messageRateLimiter.setCoolDownMillis(newMessageCoolDown);
                     }
-                } else {
+                } else if (_messageRateLimiter != null) {
                     _messageRateLimiter.setCoolDownMillis(MIN_MESSAGE_COOLDOWN_MILLIS);
                 }
             }
 
-            PlayerState playerState = EasyRider.PLUGIN.getState(rider);
-            AttributeInstance horseAttribute = horse.getAttribute(Attribute.GENERIC_MOVEMENT_SPEED);
             if (!EasyRider.CONFIG.VANILLA_STATS) {
-                horseAttribute.setBaseValue(Math.min(playerState.getMaxSpeed(),
-                                                 EasyRider.CONFIG.SPEED.getValue(getSpeedLevel())));
+                double speed = Math.min(playerState.getMaxSpeed(), EasyRider.CONFIG.SPEED.getValue(getSpeedLevel()));
+                AttributeInstance horseAttribute = horse.getAttribute(Attribute.GENERIC_MOVEMENT_SPEED);
+                if (horseAttribute.getBaseValue() != speed) {
+                    horseAttribute.setBaseValue(speed);
+                }
             }
         }
         setLastAccessed(System.currentTimeMillis());
@@ -923,6 +1350,9 @@ public class SavedHorse implements Cloneable {
      * @param horse the horse entity.
      */
     public void onOverfed(Player player, AbstractHorse horse) {
+        if (_overfedRateLimiter == null) {
+            _overfedRateLimiter = new RateLimiter(5000);
+        }
         _overfedRateLimiter.run(() -> {
             player.sendMessage(ChatColor.RED + getMessageName()
                                + " has exceeded the maximum possible health. Feeding it more gold will not increase its health.");
@@ -935,6 +1365,10 @@ public class SavedHorse implements Cloneable {
     /**
      * Load this horse from the specified section of a YAML file.
      *
+     * This method may be called from any thread. The location is read as
+     * plain values, and its world is bound later, in the main thread, by
+     * {@link #resolveDeferred()}.
+     *
      * @param section the ConfigurationSection.
      */
     @SuppressWarnings("unchecked")
@@ -944,7 +1378,12 @@ public class SavedHorse implements Cloneable {
         setName(section.getString("name"));
         setDisplayName(section.getString("displayName"));
         setAppearance(section.getString("appearance"));
-        setLocation((Location) section.get("location", null));
+        ConfigurationSection location = section.getConfigurationSection("location");
+        if (location != null && location.isString("world")) {
+            setUnboundLocation(location.getString("world"), location.getDouble("x"), location.getDouble("y"),
+                               location.getDouble("z"), (float) location.getDouble("yaw"),
+                               (float) location.getDouble("pitch"));
+        }
         setEquipment(section.getInt("equipment"));
         setDistanceTravelled(section.getDouble("distanceTravelled"));
         setDistanceJumped(section.getDouble("distanceJumped"));
@@ -961,21 +1400,26 @@ public class SavedHorse implements Cloneable {
         lastTamed = section.getLong("lastTamed", getOwnerUuid() == null ? 0 : getLastAccessed());
 
         clearPermittedPlayers();
+        ArrayList<UUID> permittedUuids = new ArrayList<UUID>();
         for (String uuid : section.getStringList("permittedPlayers")) {
             try {
-                OfflinePlayer player = Bukkit.getOfflinePlayer(UUID.fromString(uuid));
-                if (player != null && player.getName() != null) {
-                    permittedPlayers.add(player);
-                } else {
-                    EasyRider.PLUGIN.getLogger().warning("Horse " + getUuid().toString() + " could not load permitted player " + uuid);
-                }
+                permittedUuids.add(UUID.fromString(uuid));
             } catch (IllegalArgumentException ex) {
                 EasyRider.PLUGIN.getLogger().warning("Horse " + getUuid().toString() + " could not load permitted player " + uuid);
             }
         }
+        setPermittedPlayerUuids(permittedUuids);
 
-        observedInventory.clear();
-        observedInventory.addAll((List<ItemStack>) section.getList("inventory", Collections.EMPTY_LIST));
+        // The inventory was formerly stored as a list of ItemStacks.
+        if (section.isString("inventoryData")) {
+            setObservedInventoryData(Base64.getDecoder().decode(section.getString("inventoryData")));
+        } else {
+            try {
+                setObservedInventoryData(InventorySerializer.compress((List<ItemStack>) section.getList("inventory", Collections.EMPTY_LIST)));
+            } catch (IOException ex) {
+                EasyRider.PLUGIN.getLogger().severe("Horse " + getUuid() + " inventory could not be converted: " + ex.getMessage());
+            }
+        }
 
         setClean();
     }
@@ -1000,7 +1444,19 @@ public class SavedHorse implements Cloneable {
         section.set("name", getName());
         section.set("displayName", getDisplayName());
         section.set("appearance", getAppearance());
-        section.set("location", getLocation());
+        if (hasLocation()) {
+            // The keys of a serialised Location, without its type tag, so that
+            // loading does not look up the world.
+            ConfigurationSection location = section.createSection("location");
+            location.set("world", getWorldName());
+            location.set("x", x);
+            location.set("y", y);
+            location.set("z", z);
+            location.set("pitch", pitch);
+            location.set("yaw", yaw);
+        } else {
+            section.set("location", null);
+        }
         section.set("equipment", getEquipment());
         section.set("distanceTravelled", getDistanceTravelled());
         section.set("distanceJumped", getDistanceJumped());
@@ -1014,13 +1470,163 @@ public class SavedHorse implements Cloneable {
         section.set("lastTamed", getLastTamed());
 	section.set("publicHorse", getPublicHorse());
 
-        List<String> permittedUUIDs = permittedPlayers.stream().map(p -> p.getUniqueId().toString()).collect(Collectors.toList());
+        List<String> permittedUUIDs = getPermittedPlayerUuids().stream().map(u -> u.toString()).collect(Collectors.toList());
         section.set("permittedPlayers", permittedUUIDs);
 
-        section.set("inventory", getObservedInventory());
+        section.set("inventory", null);
+        section.set("inventoryData", (observedInventory.length != 0) ? Base64.getEncoder().encodeToString(observedInventory) : null);
         setClean();
     }
 
+    // ------------------------------------------------------------------------
+    /**
+     * Write the persistent state of this horse, excluding the UUID and the
+     * observed inventory, to a {@link HorseJournal} record.
+     *
+     * @param out the output stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    void writeJournal(DataOutput out) throws IOException {
+        writeJournalUuid(out, getOwnerUuid());
+        out.writeLong(getLastTamed());
+        writeJournalString(out, getName());
+        writeJournalString(out, getDisplayName());
+        writeJournalString(out, getAppearance());
+
+        if (hasLocation()) {
+            out.writeBoolean(true);
+            out.writeUTF(getWorldName());
+            out.writeDouble(x);
+            out.writeDouble(y);
+            out.writeDouble(z);
+            out.writeFloat(yaw);
+            out.writeFloat(pitch);
+        } else {
+            out.writeBoolean(false);
+        }
+
+        out.writeInt(getEquipment());
+        out.writeDouble(getDistanceTravelled());
+        out.writeDouble(getDistanceJumped());
+        out.writeInt(getNuggetsEaten());
+        out.writeInt(getSpeedLevel());
+        out.writeInt(getJumpLevel());
+        out.writeInt(getHealthLevel());
+        out.writeDouble(getHydration());
+        out.writeLong(getLastAccessed());
+        out.writeLong(getLastObserved());
+        out.writeBoolean(getPublicHorse());
+
+        List<UUID> permittedUuids = getPermittedPlayerUuids();
+        out.writeInt(permittedUuids.size());
+        for (UUID playerUuid : permittedUuids) {
+            writeJournalUuid(out, playerUuid);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the persistent state of this horse from a {@link HorseJournal}
+     * record written by {@link #writeJournal(DataOutput)}.
+     *
+     * @param in the input stream.
+     * @throws IOException if the stream cannot be read.
+     */
+    void readJournal(DataInput in) throws IOException {
+        setOwnerUuid(readJournalUuid(in));
+        setLastTamed(in.readLong());
+        setName(readJournalString(in));
+        setDisplayName(readJournalString(in));
+        setAppearance(readJournalString(in));
+
+        if (in.readBoolean()) {
+            setUnboundLocation(in.readUTF(), in.readDouble(), in.readDouble(), in.readDouble(),
+                               in.readFloat(), in.readFloat());
+            resolveDeferred();
+            setDirty();
+        } else {
+            setLocation(null);
+        }
+
+        setEquipment(in.readInt());
+        setDistanceTravelled(in.readDouble());
+        setDistanceJumped(in.readDouble());
+        setNuggetsEaten(in.readInt());
+        setSpeedLevel(in.readInt());
+        setJumpLevel(in.readInt());
+        setHealthLevel(in.readInt());
+        setHydration(in.readDouble());
+        setLastAccessed(in.readLong());
+        setLastObserved(in.readLong());
+        setPublicHorse(in.readBoolean());
+
+        int permittedCount = in.readInt();
+        ArrayList<UUID> permittedUuids = new ArrayList<UUID>(permittedCount);
+        for (int i = 0; i < permittedCount; ++i) {
+            UUID playerUuid = readJournalUuid(in);
+            if (playerUuid != null) {
+                permittedUuids.add(playerUuid);
+            }
+        }
+        setPermittedPlayerUuids(permittedUuids);
+        setDirty();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a nullable UUID to a journal record.
+     *
+     * @param out the output stream.
+     * @param uuid the UUID, or null.
+     * @throws IOException if the stream cannot be written.
+     */
+    private static void writeJournalUuid(DataOutput out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a nullable UUID from a journal record.
+     *
+     * @param in the input stream.
+     * @return the UUID, or null.
+     * @throws IOException if the stream cannot be read.
+     */
+    private static UUID readJournalUuid(DataInput in) throws IOException {
+        return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a nullable String to a journal record.
+     *
+     * @param out the output stream.
+     * @param s the String, or null.
+     * @throws IOException if the stream cannot be written.
+     */
+    private static void writeJournalString(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a nullable String from a journal record.
+     *
+     * @param in the input stream.
+     * @return the String, or null.
+     * @throws IOException if the stream cannot be read.
+     */
+    private static String readJournalString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     // --------------------------------------------------------------------------
     /**
      * @see java.lang.Object#hashCode()
@@ -1044,7 +1650,17 @@ public class SavedHorse implements Cloneable {
         result = prime * result + (int) (lastAccessed ^ (lastAccessed >>> 32));
         result = prime * result + (int) (lastObserved ^ (lastObserved >>> 32));
         result = prime * result + (int) (lastTamed ^ (lastTamed >>> 32));
-        result = prime * result + ((location == null) ? 0 : location.hashCode());
+        result = prime * result + worldId;
+        if (worldId != WorldIds.NONE) {
+            temp = Double.doubleToLongBits(x);
+            result = prime * result + (int) (temp ^ (temp >>> 32));
+            temp = Double.doubleToLongBits(y);
+            result = prime * result + (int) (temp ^ (temp >>> 32));
+            temp = Double.doubleToLongBits(z);
+            result = prime * result + (int) (temp ^ (temp >>> 32));
+            result = prime * result + Float.floatToIntBits(yaw);
+            result = prime * result + Float.floatToIntBits(pitch);
+        }
         result = prime * result + ((name == null) ? 0 : name.hashCode());
         result = prime * result + nuggetsEaten;
         result = prime * result + (outdatedAttributes ? 1231 : 1237);
@@ -1108,11 +1724,15 @@ public class SavedHorse implements Cloneable {
         if (lastTamed != other.lastTamed) {
             return false;
         }
-        if (location == null) {
-            if (other.location != null) {
-                return false;
-            }
-        } else if (!location.equals(other.location)) {
+        if (worldId != other.worldId) {
+            return false;
+        }
+        if (worldId != WorldIds.NONE &&
+            (Double.doubleToLongBits(x) != Double.doubleToLongBits(other.x) ||
+             Double.doubleToLongBits(y) != Double.doubleToLongBits(other.y) ||
+             Double.doubleToLongBits(z) != Double.doubleToLongBits(other.z) ||
+             Float.floatToIntBits(yaw) != Float.floatToIntBits(other.yaw) ||
+             Float.floatToIntBits(pitch) != Float.floatToIntBits(other.pitch))) {
             return false;
         }
         if (name == null) {
@@ -1160,6 +1780,12 @@ public class SavedHorse implements Cloneable {
      */
     private static final long MAX_MESSAGE_COOLDOWN_MILLIS = 5 * 60 * 1000;
 
+    /**
+     * Canonical appearance Strings, used by {@link #internAppearance(String)}.
+     * Concurrent because horses are decoded in a thread pool.
+     */
+    private static final ConcurrentHashMap<String, String> APPEARANCES = new ConcurrentHashMap<String, String>();
+
     /**
      * The unique ID of the horse, used as the primary key.
      */
@@ -1188,9 +1814,38 @@ public class SavedHorse implements Cloneable {
     private String appearance;
 
     /**
-     * The last known location of the horse.
+     * The {@link WorldIds} ID of the world of the last known location of the
+     * horse, or WorldIds.NONE if the location is not known.
+     *
+     * The location is stored as primitive fields rather than as a Location,
+     * to save the Location object and its header for every horse.
+     */
+    private int worldId = WorldIds.NONE;
+
+    /**
+     * The x coordinate of the last known location.
+     */
+    private double x;
+
+    /**
+     * The y coordinate of the last known location.
      */
-    private Location location;
+    private double y;
+
+    /**
+     * The z coordinate of the last known location.
+     */
+    private double z;
+
+    /**
+     * The yaw of the last known location.
+     */
+    private float yaw;
+
+    /**
+     * The pitch of the last known location.
+     */
+    private float pitch;
 
     /**
      * The equipment of the horse (saddle, armour) expressed as bit flags.
@@ -1270,18 +1925,20 @@ public class SavedHorse implements Cloneable {
     private boolean outdatedAttributes;
 
     /**
-     * The set of players permitted to access this horse.
+     * The set of UUIDs of players permitted to access this horse.
      *
-     * Elements are compared by UUID, as OfflinePlayer.getName() is null during
-     * plugin initialisation, when {@link #load(ConfigurationSection)} is
-     * called.
+     * The list is immutable and shared between horses with the same list;
+     * changes replace it.
      */
-    private final HashSet<OfflinePlayer> permittedPlayers = new HashSet<OfflinePlayer>();
+    private AccessList permittedPlayers = AccessList.EMPTY;
 
     /**
-     * Complete inventory contents (deep copy) when last observed.
+     * Complete inventory contents when last observed, serialised and
+     * compressed by {@link InventorySerializer}.
+     *
+     * The array is never modified; it is replaced when the inventory changes.
      */
-    private final ArrayList<ItemStack> observedInventory = new ArrayList<>();
+    private byte[] observedInventory = InventorySerializer.EMPTY;
 
     /**
      * True if this bean has never been in the database, i.e. it will result in
@@ -1296,6 +1953,38 @@ public class SavedHorse implements Cloneable {
     // @Transient
     private boolean _dirty;
 
+    /**
+     * True if this bean has changes that have not been written to the
+     * {@link HorseJournal}.
+     */
+    // @Transient
+    private boolean _journalDirty;
+
+    /**
+     * Notified of the first change since _changeNotified was last cleared.
+     */
+    // @Transient
+    private Consumer<SavedHorse> _changeListener;
+
+    /**
+     * True if _changeListener has been notified of a change since this flag
+     * was last cleared.
+     */
+    // @Transient
+    private boolean _changeNotified;
+
+    /**
+     * The columnar store that this horse's setters keep up to date, or null.
+     */
+    // @Transient
+    private HorseStats _stats;
+
+    /**
+     * The slot of this horse in _stats, or -1.
+     */
+    // @Transient
+    private int _statsSlot = -1;
+
     /**
      * If true, this horse has been marked for debug logging.
      */
@@ -1303,15 +1992,28 @@ public class SavedHorse implements Cloneable {
 
     /**
      * Limits the rate at which dehydration messages will be sent.
+     *
+     * Allocated on first use, since most horses are never ridden while
+     * dehydrated.
      */
     // @Transient
-    private final RateLimiter _messageRateLimiter = new RateLimiter(0);
+    private RateLimiter _messageRateLimiter;
 
     /**
      * Limits the rate at which the player is warned about the horse being fed
      * past the maximum health level.
+     *
+     * Allocated on first use.
+     */
+    // @Transient
+    private RateLimiter _overfedRateLimiter;
+
+    /**
+     * Incremented whenever the owner, public status or access list changes.
+     *
+     * @see #getAccessVersion()
      */
     // @Transient
-    private final RateLimiter _overfedRateLimiter = new RateLimiter(5000);
+    private int _accessVersion;
 
 } // class SavedHorse
@@ -0,0 +1,329 @@
+package nu.nerd.easyrider.db;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+// ----------------------------------------------------------------------------
+/**
+ * A map from UUID to SavedHorse, specialised for the HorseDB cache.
+ *
+ * The map uses open addressing with linear probing. Keys are stored as the two
+ * primitive long halves of the UUID in one array, with the horses in a parallel
+ * array, so there are no per-entry node objects, and a lookup neither boxes nor
+ * hashes a UUID object and usually touches just one slot of each array.
+ * Removal shifts later entries of the probe sequence back, so there are no
+ * tombstones. The capacity is a power of two and the load factor is at most
+ * 3/4.
+ *
+ * Only one thread (the main thread) may modify the map or iterate over it.
+ * Lookups may be performed from any thread: they are optimistic reads under a
+ * StampedLock, which modifications hold for writing, and are retried under the
+ * read lock if they overlapped a modification.
+ */
+public class UuidHorseMap {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the number of horses the map should hold without
+     *        being resized.
+     */
+    public UuidHorseMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of horses in the map.
+     *
+     * @return the number of horses in the map.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the horse with the specified UUID.
+     *
+     * This method may be called from any thread.
+     *
+     * @param uuid the UUID.
+     * @return the horse, or null if not in the map.
+     */
+    public SavedHorse get(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = _lock.tryOptimisticRead();
+        SavedHorse savedHorse = find(msb, lsb);
+        if (!_lock.validate(stamp)) {
+            stamp = _lock.readLock();
+            try {
+                savedHorse = find(msb, lsb);
+            } finally {
+                _lock.unlockRead(stamp);
+            }
+        }
+        return savedHorse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse, replacing any horse with the same UUID.
+     *
+     * @param savedHorse the horse.
+     * @return the replaced horse, or null if there was none.
+     */
+    public SavedHorse put(SavedHorse savedHorse) {
+        long msb = savedHorse.getUuid().getMostSignificantBits();
+        long lsb = savedHorse.getUuid().getLeastSignificantBits();
+        long stamp = _lock.writeLock();
+        try {
+            int mask = _values.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            while (_values[slot] != null) {
+                if (_keys[2 * slot] == msb && _keys[2 * slot + 1] == lsb) {
+                    SavedHorse old = _values[slot];
+                    _values[slot] = savedHorse;
+                    return old;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            _keys[2 * slot] = msb;
+            _keys[2 * slot + 1] = lsb;
+            _values[slot] = savedHorse;
+            if (++_size > _values.length - (_values.length >> 2)) {
+                rehash(_values.length * 2);
+            }
+            return null;
+        } finally {
+            _lock.unlockWrite(stamp);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the horse with the specified UUID.
+     *
+     * @param uuid the UUID.
+     * @return the removed horse, or null if not in the map.
+     */
+    public SavedHorse remove(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = _lock.writeLock();
+        try {
+            int mask = _values.length - 1;
+            int slot = hash(msb, lsb) & mask;
+            while (_values[slot] != null) {
+                if (_keys[2 * slot] == msb && _keys[2 * slot + 1] == lsb) {
+                    SavedHorse old = _values[slot];
+                    delete(slot);
+                    --_size;
+                    return old;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        } finally {
+            _lock.unlockWrite(stamp);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that the map can hold the specified number of horses without
+     * being resized.
+     *
+     * @param expectedSize the expected number of horses.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity > _values.length) {
+            long stamp = _lock.writeLock();
+            try {
+                rehash(capacity);
+            } finally {
+                _lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass every horse to the specified action, in an arbitrary order.
+     *
+     * This method must only be called in the thread that modifies the map, and
+     * the action must not modify the map.
+     *
+     * @param action the action.
+     */
+    public void forEach(Consumer<SavedHorse> action) {
+        for (SavedHorse savedHorse : _values) {
+            if (savedHorse != null) {
+                action.accept(savedHorse);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the preferred slot of a key, before masking to the capacity.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the hash of the UUID.
+     */
+    protected static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the power of two capacity that holds the specified number of
+     * horses within the maximum load factor.
+     *
+     * @param expectedSize the number of horses.
+     * @return the capacity.
+     */
+    protected static int capacityFor(int expectedSize) {
+        int minCapacity = Math.max(MIN_CAPACITY, (int) Math.min(1 << 30, 4L * expectedSize / 3 + 1));
+        return Integer.highestOneBit(minCapacity - 1) << 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Find the horse with the specified key, without locking.
+     *
+     * When called from an optimistic read, the arrays may be modified
+     * concurrently, so the result must be discarded if the read is not valid.
+     * The search is bounded so that it terminates regardless.
+     *
+     * @param msb the most significant bits of the UUID.
+     * @param lsb the least significant bits of the UUID.
+     * @return the horse, or null if not found.
+     */
+    protected SavedHorse find(long msb, long lsb) {
+        long[] keys = _keys;
+        SavedHorse[] values = _values;
+        int capacity = values.length;
+        if (keys.length != 2 * capacity) {
+            // Arrays from before and after a resize; the read is invalid.
+            return null;
+        }
+
+        int mask = capacity - 1;
+        int slot = hash(msb, lsb) & mask;
+        for (int probes = 0; probes < capacity; ++probes) {
+            SavedHorse savedHorse = values[slot];
+            if (savedHorse == null) {
+                return null;
+            }
+            if (keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                return savedHorse;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Empty a slot, shifting back any later entries in the probe sequence that
+     * would otherwise become unreachable.
+     *
+     * @param slot the slot to empty.
+     */
+    protected void delete(int slot) {
+        int mask = _values.length - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (_values[next] == null) {
+                break;
+            }
+
+            // The entry at next may fill the gap if the gap is no further from
+            // its preferred slot than next is.
+            int preferred = hash(_keys[2 * next], _keys[2 * next + 1]) & mask;
+            if (((next - preferred) & mask) >= ((next - slot) & mask)) {
+                _keys[2 * slot] = _keys[2 * next];
+                _keys[2 * slot + 1] = _keys[2 * next + 1];
+                _values[slot] = _values[next];
+                slot = next;
+            }
+        }
+        _values[slot] = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Allocate empty arrays with the specified capacity.
+     *
+     * @param capacity the capacity, which must be a power of two.
+     */
+    protected void allocate(int capacity) {
+        _keys = new long[2 * capacity];
+        _values = new SavedHorse[capacity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Move all entries into new arrays with the specified capacity.
+     *
+     * The caller must hold the write lock.
+     *
+     * @param capacity the new capacity, which must be a power of two.
+     */
+    protected void rehash(int capacity) {
+        long[] oldKeys = _keys;
+        SavedHorse[] oldValues = _values;
+        long[] keys = new long[2 * capacity];
+        SavedHorse[] values = new SavedHorse[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; ++i) {
+            if (oldValues[i] != null) {
+                long msb = oldKeys[2 * i];
+                long lsb = oldKeys[2 * i + 1];
+                int slot = hash(msb, lsb) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[2 * slot] = msb;
+                keys[2 * slot + 1] = lsb;
+                values[slot] = oldValues[i];
+            }
+        }
+        _keys = keys;
+        _values = values;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Minimum capacity.
+     */
+    protected static final int MIN_CAPACITY = 16;
+
+    /**
+     * Guards modifications against concurrent lookups.
+     */
+    protected final StampedLock _lock = new StampedLock();
+
+    /**
+     * (Most significant bits, least significant bits) of the UUID in each slot.
+     */
+    protected long[] _keys;
+
+    /**
+     * The horse in each slot, or null if the slot is empty.
+     */
+    protected SavedHorse[] _values;
+
+    /**
+     * Number of horses in the map.
+     */
+    protected int _size;
+} // class UuidHorseMap
@@ -0,0 +1,215 @@
+package nu.nerd.easyrider.db;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Assigns small integer IDs to world names, so that a {@link SavedHorse} can
+ * store the world of its location as an int rather than a reference to a
+ * Location.
+ *
+ * IDs are allocated on first use and never freed; there are only ever a few
+ * worlds. The World corresponding to each ID is cached once looked up in the
+ * main thread, so that Locations can be reconstructed, including in other
+ * threads, without calling the Bukkit API. The cached World is dropped when
+ * the world is unloaded and replaced when a world of that name is loaded.
+ *
+ * All methods are thread-safe, since horses are decoded in a thread pool. The
+ * IDs, names and Worlds are published as an immutable table that is replaced
+ * on each change, so lookups, which happen on every horse movement, take no
+ * lock. Changes are rare and are serialised by the class lock.
+ */
+final class WorldIds {
+    /**
+     * The ID signifying no world (no location).
+     */
+    static final int NONE = -1;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of the world with the specified name, allocating one if
+     * necessary.
+     *
+     * @param worldName the name of the world.
+     * @return the ID.
+     */
+    static int getId(String worldName) {
+        Integer id = _table.ids.get(worldName);
+        return (id != null) ? id : allocate(worldName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ID of the specified world, allocating one if necessary, and
+     * cache the world.
+     *
+     * @param world the world.
+     * @return the ID.
+     */
+    static int getId(World world) {
+        int id = getId(world.getName());
+        if (_table.worlds[id] != world) {
+            setWorld(id, world);
+        }
+        return id;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the name of the world with the specified ID.
+     *
+     * @param id the ID.
+     * @return the name, or null if the ID is NONE.
+     */
+    static String getName(int id) {
+        return (id != NONE) ? _table.names[id] : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the cached World with the specified ID.
+     *
+     * @param id the ID.
+     * @return the World, or null if the ID is NONE or the World has not been
+     *         looked up or is unloaded.
+     */
+    static World getWorld(int id) {
+        return (id != NONE) ? _table.worlds[id] : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Look up and cache the World with the specified ID, if not already cached.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param id the ID.
+     * @return the World, or null if the ID is NONE or no such world is loaded.
+     */
+    static World bind(int id) {
+        if (id == NONE) {
+            return null;
+        }
+        World world = _table.worlds[id];
+        if (world == null) {
+            world = Bukkit.getWorld(_table.names[id]);
+            if (world != null) {
+                setWorld(id, world);
+            }
+        }
+        return world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cache a newly loaded world, replacing any World previously loaded with
+     * the same name.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param world the world.
+     */
+    static void onWorldLoad(World world) {
+        Integer id = _table.ids.get(world.getName());
+        if (id != null) {
+            setWorld(id, world);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Drop the cached World of a world that is being unloaded, so that it can
+     * be garbage collected.
+     *
+     * This method must be called in the main thread.
+     *
+     * @param world the world.
+     */
+    static void onWorldUnload(World world) {
+        Integer id = _table.ids.get(world.getName());
+        if (id != null) {
+            setWorld(id, null);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Allocate an ID for a world name, unless another thread already has.
+     *
+     * @param worldName the name of the world.
+     * @return the ID.
+     */
+    private static synchronized int allocate(String worldName) {
+        Table table = _table;
+        Integer id = table.ids.get(worldName);
+        if (id == null) {
+            id = table.names.length;
+            HashMap<String, Integer> ids = new HashMap<String, Integer>(table.ids);
+            ids.put(worldName, id);
+            String[] names = Arrays.copyOf(table.names, id + 1);
+            names[id] = worldName;
+            _table = new Table(ids, names, Arrays.copyOf(table.worlds, id + 1));
+        }
+        return id;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Set the cached World with the specified ID.
+     *
+     * @param id the ID.
+     * @param world the World, or null to drop it.
+     */
+    private static synchronized void setWorld(int id, World world) {
+        Table table = _table;
+        if (table.worlds[id] != world) {
+            World[] worlds = table.worlds.clone();
+            worlds[id] = world;
+            _table = new Table(table.ids, table.names, worlds);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An immutable version of the mapping between IDs, names and Worlds.
+     */
+    private static final class Table {
+        /**
+         * Constructor.
+         *
+         * @param ids map from world name to ID.
+         * @param names world names, indexed by ID.
+         * @param worlds cached Worlds, indexed by ID.
+         */
+        Table(HashMap<String, Integer> ids, String[] names, World[] worlds) {
+            this.ids = ids;
+            this.names = names;
+            this.worlds = worlds;
+        }
+
+        /**
+         * Map from world name to ID.
+         */
+        final HashMap<String, Integer> ids;
+
+        /**
+         * World names, indexed by ID.
+         */
+        final String[] names;
+
+        /**
+         * Cached Worlds, indexed by ID; null if not yet looked up or unloaded.
+         */
+        final World[] worlds;
+    } // class Table
+
+    // ------------------------------------------------------------------------
+    /**
+     * The current table; replaced, never modified.
+     */
+    private static volatile Table _table = new Table(new HashMap<String, Integer>(), new String[0], new World[0]);
+} // class WorldIds
@@ -0,0 +1,143 @@
+package nu.nerd.easyrider.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import nu.nerd.easyrider.db.HorseDBImplWithYAML.BlockReader;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of the splitting of the YAML database into per-horse blocks by
+ * {@link HorseDBImplWithYAML.BlockReader}.
+ */
+public class BlockReaderTest {
+    // ------------------------------------------------------------------------
+    /**
+     * Only unindented lines holding a key begin a block.
+     */
+    @Test
+    public void testIsKeyLine() {
+        assertTrue(BlockReader.isKeyLine("0f1e2d3c-0000-0000-0000-000000000001:"));
+        assertTrue(BlockReader.isKeyLine("'0f1e2d3c-0000-0000-0000-000000000001':"));
+        assertTrue(BlockReader.isKeyLine("\"0f1e2d3c-0000-0000-0000-000000000001\": {}"));
+
+        assertFalse(BlockReader.isKeyLine(""));
+        assertFalse(BlockReader.isKeyLine("  name: Bob"));
+        assertFalse(BlockReader.isKeyLine("\tname: Bob"));
+        assertFalse(BlockReader.isKeyLine("# comment: with a colon"));
+        assertFalse(BlockReader.isKeyLine("- list: item"));
+        assertFalse(BlockReader.isKeyLine(":"));
+        assertFalse(BlockReader.isKeyLine("no colon"));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Keys are trimmed and unquoted when enclosed in matching quotes.
+     */
+    @Test
+    public void testParseKey() {
+        assertEquals("abc", BlockReader.parseKey("abc:"));
+        assertEquals("abc", BlockReader.parseKey("abc :"));
+        assertEquals("abc", BlockReader.parseKey("'abc':"));
+        assertEquals("abc", BlockReader.parseKey("\"abc\": {}"));
+        assertEquals("'abc\"", BlockReader.parseKey("'abc\":"));
+        assertEquals("'", BlockReader.parseKey("':"));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A header comment before the first key is skipped, and comments, blank
+     * lines and indented lines belong to the current block.
+     */
+    @Test
+    public void testBlocks() throws IOException {
+        String first = "'00000000-0000-0000-0000-000000000001':\n" +
+                       "  name: First\n" +
+                       "\n" +
+                       "# A comment inside the block: not a key.\n" +
+                       "  permittedPlayers:\n" +
+                       "  - 00000000-0000-0000-0000-0000000000aa\n";
+        String second = "\"00000000-0000-0000-0000-000000000002\":\n" +
+                        "  name: 'Second: the sequel'\n";
+        String third = "00000000-0000-0000-0000-000000000003: {}\n";
+        Path file = write("# Header comment: with a colon.\n" +
+                          "\n" +
+                          "  # Indented header comment.\n" +
+                          first + second + third);
+
+        try (BlockReader reader = new BlockReader(file)) {
+            assertTrue(reader.next());
+            assertEquals("00000000-0000-0000-0000-000000000001", reader.getKey());
+            assertEquals(first, reader.getText());
+
+            assertTrue(reader.next());
+            assertEquals("00000000-0000-0000-0000-000000000002", reader.getKey());
+            assertEquals(second, reader.getText());
+
+            assertTrue(reader.next());
+            assertEquals("00000000-0000-0000-0000-000000000003", reader.getKey());
+            assertEquals(third, reader.getText());
+
+            assertFalse(reader.next());
+            assertFalse(reader.next());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A file with no keys, or no content at all, has no blocks.
+     */
+    @Test
+    public void testNoBlocks() throws IOException {
+        try (BlockReader reader = new BlockReader(write(""))) {
+            assertFalse(reader.next());
+        }
+        try (BlockReader reader = new BlockReader(write("# Only a comment: here.\n\n"))) {
+            assertFalse(reader.next());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A final block without a trailing newline is complete.
+     */
+    @Test
+    public void testNoTrailingNewline() throws IOException {
+        try (BlockReader reader = new BlockReader(write("abc:\n  name: Last"))) {
+            assertTrue(reader.next());
+            assertEquals("abc", reader.getKey());
+            assertEquals("abc:\n  name: Last\n", reader.getText());
+            assertFalse(reader.next());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write a YAML file to the temporary directory.
+     *
+     * @param text the contents.
+     * @return the path to the file.
+     * @throws IOException if the file cannot be written.
+     */
+    protected Path write(String text) throws IOException {
+        Path file = Files.createTempFile(_dir, "horses", ".yml");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Temporary directory holding the YAML files.
+     */
+    @TempDir
+    protected Path _dir;
+} // class BlockReaderTest
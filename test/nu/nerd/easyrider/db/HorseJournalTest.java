@@ -0,0 +1,300 @@
+package nu.nerd.easyrider.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of {@link HorseJournal} replay and truncation.
+ */
+public class HorseJournalTest {
+    // ------------------------------------------------------------------------
+    /**
+     * Create an empty journal in a temporary directory.
+     */
+    @BeforeEach
+    public void setUp() {
+        _file = _dir.resolve("horses.journal");
+        _journal = new HorseJournal(_file, LOGGER);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Close the journal file, if the test left it open.
+     */
+    @AfterEach
+    public void tearDown() {
+        _journal.close();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An empty or missing journal replays nothing.
+     */
+    @Test
+    public void testReplayEmpty() {
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        HashMap<UUID, SavedHorse> removed = new HashMap<UUID, SavedHorse>();
+        assertEquals(0, _journal.size());
+        assertEquals(0, _journal.replay(horses, removed));
+        assertTrue(horses.isEmpty());
+        assertTrue(removed.isEmpty());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Updates are applied to loaded horses in place, and horses that are not
+     * loaded are added as new horses. Replayed horses are dirty but need not
+     * be journalled again.
+     */
+    @Test
+    public void testReplayUpdates() {
+        SavedHorse loaded = makeHorse(1, "Loaded", 10);
+        SavedHorse added = makeHorse(2, "Added", 20);
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Renamed", 15));
+        batch.addUpdate(added);
+        assertEquals(2, batch.getRecordCount());
+        _journal.append(batch);
+        _journal.close();
+
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        SavedHorse stale = makeHorse(1, "Loaded", 10);
+        stale.setClean();
+        horses.put(stale.getUuid(), stale);
+        HashMap<UUID, SavedHorse> removed = new HashMap<UUID, SavedHorse>();
+
+        HorseJournal journal = new HorseJournal(_file, LOGGER);
+        assertEquals(2, journal.replay(horses, removed));
+        assertEquals(2, horses.size());
+        assertTrue(removed.isEmpty());
+
+        assertSame(stale, horses.get(loaded.getUuid()));
+        assertEquals("Renamed", stale.getName());
+        assertEquals(15.0, stale.getDistanceTravelled());
+        assertTrue(stale.isDirty());
+        assertFalse(stale.isNew());
+        assertFalse(stale.isJournalDirty());
+
+        SavedHorse replayed = horses.get(added.getUuid());
+        assertEquals("Added", replayed.getName());
+        assertEquals(20.0, replayed.getDistanceTravelled());
+        assertEquals(added.getOwnerUuid(), replayed.getOwnerUuid());
+        assertEquals(added.getPermittedPlayerUuids(), replayed.getPermittedPlayerUuids());
+        assertTrue(replayed.isNew());
+        assertFalse(replayed.isJournalDirty());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Records are replayed in order: a removal moves the horse to the removed
+     * map and a later update brings the same instance back.
+     */
+    @Test
+    public void testReplayRemoveThenUpdate() {
+        SavedHorse first = makeHorse(1, "First", 10);
+        SavedHorse second = makeHorse(2, "Second", 20);
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addRemove(first.getUuid());
+        batch.addRemove(second.getUuid());
+        batch.addUpdate(makeHorse(2, "Restored", 25));
+        _journal.append(batch);
+
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        horses.put(first.getUuid(), first);
+        horses.put(second.getUuid(), second);
+        HashMap<UUID, SavedHorse> removed = new HashMap<UUID, SavedHorse>();
+        assertEquals(3, _journal.replay(horses, removed));
+
+        assertNull(horses.get(first.getUuid()));
+        assertSame(first, removed.get(first.getUuid()));
+        assertSame(second, horses.get(second.getUuid()));
+        assertNull(removed.get(second.getUuid()));
+        assertEquals("Restored", second.getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replay stops at a record whose write was interrupted, keeping the
+     * records before it.
+     */
+    @Test
+    public void testReplayStopsAtIncompleteRecord() throws IOException {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Complete", 10));
+        _journal.append(batch);
+
+        HorseJournal.Batch partial = new HorseJournal.Batch();
+        partial.addUpdate(makeHorse(2, "Partial", 20));
+        byte[] bytes = partial.toByteArray();
+        Files.write(_file, Arrays.copyOf(bytes, bytes.length - 5), StandardOpenOption.APPEND);
+
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        HorseJournal journal = new HorseJournal(_file, LOGGER);
+        assertEquals(1, journal.replay(horses, new HashMap<UUID, SavedHorse>()));
+        assertEquals(1, horses.size());
+        assertEquals("Complete", horses.get(uuid(1)).getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replay stops at a record that fails its checksum, even if intact
+     * records follow it.
+     */
+    @Test
+    public void testReplayStopsAtCorruptRecord() throws IOException {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Good", 10));
+        batch.addUpdate(makeHorse(2, "Corrupt", 20));
+        batch.addUpdate(makeHorse(3, "Unreached", 30));
+        _journal.append(batch);
+        _journal.close();
+
+        // Flip a byte in the payload of the second record.
+        byte[] bytes = Files.readAllBytes(_file);
+        int secondRecord = 8 + ByteBuffer.wrap(bytes).getInt(0);
+        bytes[secondRecord + 8 + 20] ^= 0x55;
+        Files.write(_file, bytes);
+
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        HorseJournal journal = new HorseJournal(_file, LOGGER);
+        assertEquals(1, journal.replay(horses, new HashMap<UUID, SavedHorse>()));
+        assertEquals(1, horses.size());
+        assertEquals("Good", horses.get(uuid(1)).getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * getUuids() returns the horses with records of either type.
+     */
+    @Test
+    public void testGetUuids() {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Updated", 10));
+        batch.addRemove(uuid(2));
+        batch.addUpdate(makeHorse(1, "Updated again", 11));
+        _journal.append(batch);
+
+        assertEquals(new HashSet<UUID>(Arrays.asList(uuid(1), uuid(2))), _journal.getUuids());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Truncation discards all records, and records appended afterwards
+     * through the same open journal start at the beginning of the file.
+     */
+    @Test
+    public void testTruncate() throws IOException {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Saved", 10));
+        _journal.append(batch);
+        assertTrue(_journal.size() > 0);
+
+        _journal.truncate();
+        assertEquals(0, _journal.size());
+        assertEquals(0, Files.size(_file));
+        assertEquals(0, _journal.replay(new HashMap<UUID, SavedHorse>(), new HashMap<UUID, SavedHorse>()));
+
+        HorseJournal.Batch next = new HorseJournal.Batch();
+        next.addUpdate(makeHorse(2, "Unsaved", 20));
+        _journal.append(next);
+        assertEquals(next.toByteArray().length, _journal.size());
+        _journal.close();
+
+        HashMap<UUID, SavedHorse> horses = new HashMap<UUID, SavedHorse>();
+        HorseJournal journal = new HorseJournal(_file, LOGGER);
+        assertEquals(1, journal.replay(horses, new HashMap<UUID, SavedHorse>()));
+        assertEquals("Unsaved", horses.get(uuid(2)).getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Truncating a journal that was never opened for appending empties the
+     * file left by a previous run.
+     */
+    @Test
+    public void testTruncateUnopened() throws IOException {
+        HorseJournal.Batch batch = new HorseJournal.Batch();
+        batch.addUpdate(makeHorse(1, "Saved", 10));
+        _journal.append(batch);
+        _journal.close();
+
+        HorseJournal journal = new HorseJournal(_file, LOGGER);
+        assertTrue(journal.size() > 0);
+        journal.truncate();
+        assertEquals(0, journal.size());
+        assertEquals(0, Files.size(_file));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a UUID that is distinct for each distinct number.
+     *
+     * @param n the number.
+     * @return the UUID.
+     */
+    protected static UUID uuid(int n) {
+        return new UUID(0x1234L, n);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Make an owned horse with some distinctive state.
+     *
+     * @param n the number determining the horse's UUID.
+     * @param name the name of the horse.
+     * @param distance the distance travelled.
+     * @return the horse.
+     */
+    protected static SavedHorse makeHorse(int n, String name, double distance) {
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(uuid(n));
+        savedHorse.setName(name);
+        savedHorse.setDistanceTravelled(distance);
+        savedHorse.setSpeedLevel(n);
+        savedHorse.setOwnerUuid(new UUID(0x5678L, n));
+        savedHorse.setPermittedPlayerUuids(Arrays.asList(new UUID(0x9abcL, n), new UUID(0x9abcL, n + 1)));
+        return savedHorse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Logger passed to journals under test.
+     */
+    protected static final Logger LOGGER = Logger.getLogger(HorseJournalTest.class.getName());
+
+    /**
+     * Temporary directory holding the journal file.
+     */
+    @TempDir
+    protected Path _dir;
+
+    /**
+     * The journal file.
+     */
+    protected Path _file;
+
+    /**
+     * The journal under test.
+     */
+    protected HorseJournal _journal;
+} // class HorseJournalTest
@@ -0,0 +1,243 @@
+package nu.nerd.easyrider.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import nu.nerd.easyrider.Ability;
+
+// ----------------------------------------------------------------------------
+/**
+ * Tests of the {@link HorseRanking} rank and select invariants.
+ */
+public class HorseRankingTest {
+    // ------------------------------------------------------------------------
+    /**
+     * Create an empty ranking of an ability whose effort is the distance
+     * travelled.
+     */
+    @BeforeEach
+    public void setUp() {
+        _ranking = new HorseRanking(DISTANCE);
+        _horses = new ArrayList<SavedHorse>();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An empty ranking has no horses at any rank.
+     */
+    @Test
+    public void testEmpty() {
+        assertEquals(0, _ranking.size());
+        assertNull(_ranking.getUuid(0));
+        assertEquals(-1, _ranking.getRank(new UUID(1, 1)));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Horses are ranked by descending effort, with ties broken by ascending
+     * UUID, and ranks outside the ranking select nothing.
+     */
+    @Test
+    public void testOrder() {
+        SavedHorse slow = addHorse(new UUID(0, 3), 10);
+        SavedHorse fastB = addHorse(new UUID(0, 2), 50);
+        SavedHorse fastA = addHorse(new UUID(0, 1), 50);
+        SavedHorse middle = addHorse(new UUID(0, 4), 20);
+
+        assertEquals(4, _ranking.size());
+        assertEquals(fastA.getUuid(), _ranking.getUuid(0));
+        assertEquals(fastB.getUuid(), _ranking.getUuid(1));
+        assertEquals(middle.getUuid(), _ranking.getUuid(2));
+        assertEquals(slow.getUuid(), _ranking.getUuid(3));
+        assertNull(_ranking.getUuid(4));
+        assertNull(_ranking.getUuid(-1));
+        checkInvariants();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A horse is re-ranked when its effort changes, and updating it again
+     * without a change leaves the ranking as it was.
+     */
+    @Test
+    public void testUpdate() {
+        SavedHorse first = addHorse(new UUID(0, 1), 30);
+        SavedHorse second = addHorse(new UUID(0, 2), 20);
+        SavedHorse third = addHorse(new UUID(0, 3), 10);
+
+        third.setDistanceTravelled(40);
+        _ranking.update(third);
+        assertEquals(3, _ranking.size());
+        assertEquals(0, _ranking.getRank(third.getUuid()));
+        assertEquals(1, _ranking.getRank(first.getUuid()));
+        assertEquals(2, _ranking.getRank(second.getUuid()));
+
+        _ranking.update(third);
+        assertEquals(3, _ranking.size());
+        assertEquals(0, _ranking.getRank(third.getUuid()));
+        checkInvariants();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Removed horses are no longer ranked and the horses ranked below them
+     * move up; removing an unranked horse does nothing.
+     */
+    @Test
+    public void testRemove() {
+        SavedHorse first = addHorse(new UUID(0, 1), 30);
+        SavedHorse second = addHorse(new UUID(0, 2), 20);
+        SavedHorse third = addHorse(new UUID(0, 3), 10);
+
+        _ranking.remove(first.getUuid());
+        _horses.remove(first);
+        assertEquals(2, _ranking.size());
+        assertEquals(-1, _ranking.getRank(first.getUuid()));
+        assertEquals(0, _ranking.getRank(second.getUuid()));
+        assertEquals(1, _ranking.getRank(third.getUuid()));
+
+        _ranking.remove(first.getUuid());
+        assertEquals(2, _ranking.size());
+        checkInvariants();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * After a long random sequence of additions, re-rankings and removals,
+     * the ranking agrees with a sort of the horses and getRank() and getUuid()
+     * are inverses.
+     */
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; ++i) {
+            // Few distinct efforts, to exercise the tie breaking.
+            addHorse(new UUID(random.nextLong(), random.nextLong()), random.nextInt(100));
+        }
+
+        for (int i = 0; i < 20000; ++i) {
+            int operation = random.nextInt(10);
+            if (operation == 0 && !_horses.isEmpty()) {
+                SavedHorse savedHorse = _horses.remove(random.nextInt(_horses.size()));
+                _ranking.remove(savedHorse.getUuid());
+            } else if (operation == 1) {
+                addHorse(new UUID(random.nextLong(), random.nextLong()), random.nextInt(100));
+            } else if (!_horses.isEmpty()) {
+                SavedHorse savedHorse = _horses.get(random.nextInt(_horses.size()));
+                savedHorse.setDistanceTravelled(savedHorse.getDistanceTravelled() + random.nextInt(5));
+                _ranking.update(savedHorse);
+            }
+        }
+        checkInvariants();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a horse with the specified UUID and effort to the ranking.
+     *
+     * @param uuid the UUID of the horse.
+     * @param effort the effort.
+     * @return the horse.
+     */
+    protected SavedHorse addHorse(UUID uuid, double effort) {
+        SavedHorse savedHorse = new SavedHorse();
+        savedHorse.setUuid(uuid);
+        savedHorse.setDistanceTravelled(effort);
+        _horses.add(savedHorse);
+        _ranking.update(savedHorse);
+        return savedHorse;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check that the ranking contains exactly the tracked horses, in sorted
+     * order, and that every rank selects the horse with that rank.
+     */
+    protected void checkInvariants() {
+        ArrayList<SavedHorse> expected = new ArrayList<SavedHorse>(_horses);
+        expected.sort(Comparator.comparingDouble((SavedHorse h) -> -h.getDistanceTravelled())
+            .thenComparing(SavedHorse::getUuid));
+
+        assertEquals(expected.size(), _ranking.size());
+        for (int rank = 0; rank < expected.size(); ++rank) {
+            UUID uuid = expected.get(rank).getUuid();
+            assertEquals(uuid, _ranking.getUuid(rank), "horse at rank " + rank);
+            assertEquals(rank, _ranking.getRank(uuid), "rank of " + uuid);
+        }
+        assertNull(_ranking.getUuid(expected.size()));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An ability whose training effort is the distance travelled.
+     */
+    protected static final Ability DISTANCE = new Ability("distance", "Distance", null) {
+        @Override
+        public String getValueUnits() {
+            return "";
+        }
+
+        @Override
+        public String getEffortUnits() {
+            return "m";
+        }
+
+        @Override
+        public double toDisplayValue(double value) {
+            return value;
+        }
+
+        @Override
+        public double toAttributeValue(double displayValue) {
+            return displayValue;
+        }
+
+        @Override
+        public String formatValue(double displayValue) {
+            return Double.toString(displayValue);
+        }
+
+        @Override
+        public String formatEffort(double effort) {
+            return Double.toString(effort);
+        }
+
+        @Override
+        public void setLevel(SavedHorse savedHorse, int level) {
+            savedHorse.setSpeedLevel(level);
+        }
+
+        @Override
+        public int getLevel(SavedHorse savedHorse) {
+            return savedHorse.getSpeedLevel();
+        }
+
+        @Override
+        protected void storeEffort(SavedHorse savedHorse, double effort) {
+            savedHorse.setDistanceTravelled(effort);
+        }
+
+        @Override
+        public double getEffort(SavedHorse savedHorse) {
+            return savedHorse.getDistanceTravelled();
+        }
+    };
+
+    /**
+     * The ranking under test.
+     */
+    protected HorseRanking _ranking;
+
+    /**
+     * The horses that should be in the ranking.
+     */
+    protected ArrayList<SavedHorse> _horses;
+} // class HorseRankingTest